@@ -0,0 +1,242 @@
+package com.github.staslev.storm.metrics;
+
+import com.google.common.collect.Lists;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands data points off from the Storm metrics consumer executor to dedicated processing threads, via a bounded
+ * {@link RingBuffer}, so that a slow {@link StormMetricProcessor} cannot stall the metrics consumer (and through it,
+ * the topology).
+ * <br/>
+ * When the buffer is full, the configured {@link OverflowPolicy} determines which data points are dropped, if any.
+ * The queue depth and the number of dropped data points are reported via {@link StormMetricProcessor#METRICS_REGISTRY}.
+ * <br/><br/>
+ * NOTE: When more than a single processing thread is configured, the {@link StormMetricProcessor} is called
+ * concurrently and must be thread safe.
+ */
+public class AsyncDispatcher {
+
+  public static final Logger LOG = LoggerFactory.getLogger(AsyncDispatcher.class);
+
+  public static final String ASYNC_ENABLED = "metric.reporter.async.enabled";
+
+  public static final String QUEUE_CAPACITY = "metric.reporter.async.queue.capacity";
+  private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+  public static final String OVERFLOW_POLICY = "metric.reporter.async.overflow.policy";
+  private static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.DROP_OLDEST;
+
+  public static final String THREADS = "metric.reporter.async.threads";
+  private static final int DEFAULT_THREADS = 1;
+
+  public static final String BATCH_SIZE = "metric.reporter.async.batch.size";
+  private static final int DEFAULT_BATCH_SIZE = 64;
+
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+  private static final long SHUTDOWN_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+
+  /**
+   * Determines what happens to data points handed off while the buffer is full.
+   */
+  public enum OverflowPolicy {
+    /**
+     * The oldest buffered data points are dropped to make room for the new ones.
+     */
+    DROP_OLDEST,
+    /**
+     * The new data points are dropped.
+     */
+    DROP_NEWEST,
+    /**
+     * The metrics consumer executor is blocked until there's room for the new data points.
+     */
+    BLOCK
+  }
+
+  /**
+   * Handles the data points reported by a task.
+   */
+  public interface Handler {
+    void handle(final IMetricsConsumer.TaskInfo taskInfo, final Collection<IMetricsConsumer.DataPoint> dataPoints);
+  }
+
+  private static class TaskDataPoints {
+
+    private final IMetricsConsumer.TaskInfo taskInfo;
+    private final Collection<IMetricsConsumer.DataPoint> dataPoints;
+
+    private TaskDataPoints(final IMetricsConsumer.TaskInfo taskInfo,
+                           final Collection<IMetricsConsumer.DataPoint> dataPoints) {
+      this.taskInfo = taskInfo;
+      this.dataPoints = dataPoints;
+    }
+  }
+
+  private class Worker implements Runnable {
+
+    private final List<TaskDataPoints> batch = Lists.newArrayListWithCapacity(batchSize);
+
+    @Override
+    public void run() {
+      while (running || buffer.size() > 0) {
+        if (buffer.drainTo(batch, batchSize) == 0) {
+          LockSupport.parkNanos(IDLE_PARK_NANOS);
+          continue;
+        }
+        for (final TaskDataPoints taskDataPoints : batch) {
+          try {
+            handler.handle(taskDataPoints.taskInfo, taskDataPoints.dataPoints);
+          } catch (final Exception e) {
+            LOG.error(String.format("Unable to handle data points of task %s", taskDataPoints.taskInfo.srcTaskId), e);
+          }
+        }
+        batch.clear();
+      }
+    }
+  }
+
+  private final Handler handler;
+  private final RingBuffer<TaskDataPoints> buffer;
+  private final OverflowPolicy overflowPolicy;
+  private final int batchSize;
+  private final Thread[] threads;
+  private final MetricName queueDepthName;
+  private final MetricName droppedDataPointsName;
+  private final Counter droppedDataPoints;
+
+  private volatile boolean running = true;
+
+  public AsyncDispatcher(final Handler handler,
+                         final int queueCapacity,
+                         final OverflowPolicy overflowPolicy,
+                         final int threadCount,
+                         final int batchSize,
+                         final String scope) {
+    this.handler = handler;
+    this.buffer = new RingBuffer<TaskDataPoints>(queueCapacity);
+    this.overflowPolicy = overflowPolicy;
+    this.batchSize = batchSize;
+
+    queueDepthName = new MetricName("MetricReporter", "async", "queue-depth", scope);
+    StormMetricProcessor.METRICS_REGISTRY.newGauge(queueDepthName, new Gauge<Integer>() {
+      @Override
+      public Integer value() {
+        return buffer.size();
+      }
+    });
+    droppedDataPointsName = new MetricName("MetricReporter", "async", "dropped-data-points", scope);
+    droppedDataPoints = StormMetricProcessor.METRICS_REGISTRY.newCounter(droppedDataPointsName);
+
+    threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      threads[i] = new Thread(new Worker(), String.format("metric-reporter-async-%s-%d", scope, i));
+      threads[i].setDaemon(true);
+      threads[i].start();
+    }
+  }
+
+  /**
+   * Creates an {@link AsyncDispatcher} configured according to the specified configuration, provided
+   * {@value #ASYNC_ENABLED} is set.
+   *
+   * @param handler   the handler to hand data points off to.
+   * @param stormConf configuration parameters
+   * @param scope     distinguishes the dispatcher's own metrics from those of other dispatchers in the same worker.
+   * @return A new {@link AsyncDispatcher} instance, or null if asynchronous hand-off is not enabled.
+   */
+  public static AsyncDispatcher from(final Handler handler, final Map stormConf, final String scope) {
+
+    if (!stormConf.containsKey(ASYNC_ENABLED) || !Boolean.parseBoolean(stormConf.get(ASYNC_ENABLED).toString())) {
+      return null;
+    }
+
+    return new AsyncDispatcher(handler,
+                               stormConf.containsKey(QUEUE_CAPACITY) ?
+                               Integer.parseInt(stormConf.get(QUEUE_CAPACITY).toString()) :
+                               DEFAULT_QUEUE_CAPACITY,
+                               stormConf.containsKey(OVERFLOW_POLICY) ?
+                               OverflowPolicy.valueOf(stormConf.get(OVERFLOW_POLICY).toString().toUpperCase()) :
+                               DEFAULT_OVERFLOW_POLICY,
+                               stormConf.containsKey(THREADS) ?
+                               Integer.parseInt(stormConf.get(THREADS).toString()) :
+                               DEFAULT_THREADS,
+                               stormConf.containsKey(BATCH_SIZE) ?
+                               Integer.parseInt(stormConf.get(BATCH_SIZE).toString()) :
+                               DEFAULT_BATCH_SIZE,
+                               scope);
+  }
+
+  private void drop(final TaskDataPoints taskDataPoints) {
+    droppedDataPoints.inc(taskDataPoints.dataPoints.size());
+  }
+
+  /**
+   * Hands off the data points reported by a task to the processing threads.
+   *
+   * @param taskInfo   information about the task that reported the data points.
+   * @param dataPoints the reported data points.
+   */
+  public void dispatch(final IMetricsConsumer.TaskInfo taskInfo,
+                       final Collection<IMetricsConsumer.DataPoint> dataPoints) {
+
+    final TaskDataPoints taskDataPoints = new TaskDataPoints(taskInfo, dataPoints);
+
+    while (!buffer.offer(taskDataPoints)) {
+      switch (overflowPolicy) {
+        case DROP_NEWEST:
+          drop(taskDataPoints);
+          return;
+        case DROP_OLDEST:
+          final TaskDataPoints oldest = buffer.poll();
+          if (oldest != null) {
+            drop(oldest);
+          }
+          break;
+        case BLOCK:
+          if (!running) {
+            drop(taskDataPoints);
+            return;
+          }
+          LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+          break;
+      }
+    }
+  }
+
+  public int getQueueDepth() {
+    return buffer.size();
+  }
+
+  public long getDroppedDataPoints() {
+    return droppedDataPoints.count();
+  }
+
+  /**
+   * Stops the processing threads once the data points already handed off have been handled.
+   */
+  public void shutdown() {
+    running = false;
+    for (final Thread thread : threads) {
+      try {
+        thread.join(SHUTDOWN_TIMEOUT_MS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    StormMetricProcessor.METRICS_REGISTRY.removeMetric(queueDepthName);
+    StormMetricProcessor.METRICS_REGISTRY.removeMetric(droppedDataPointsName);
+  }
+}
@@ -0,0 +1,24 @@
+package com.github.staslev.storm.metrics;
+
+import org.apache.storm.metric.api.IMetricsConsumer;
+
+import java.util.Collection;
+
+/**
+ * A {@link StormMetricProcessor} capable of processing all the metrics reported by a task in a single call, so that
+ * work common to these metrics (e.g., resolving names and flushing) can be amortized.
+ * <br/><br/>
+ * {@link MetricReporter} calls {@link #process(Collection, IMetricsConsumer.TaskInfo)} once per task per interval for
+ * processors implementing this interface, and {@link #process(Metric, IMetricsConsumer.TaskInfo)} per metric for
+ * processors that do not.
+ */
+public interface BatchStormMetricProcessor extends StormMetricProcessor {
+
+  /**
+   * Processes the storm metrics reported by a task
+   *
+   * @param metrics  storm metric objects
+   * @param taskInfo information about the task that generates the metrics
+   */
+  void process(final Collection<Metric> metrics, final IMetricsConsumer.TaskInfo taskInfo);
+}
@@ -0,0 +1,259 @@
+package com.github.staslev.storm.metrics;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Rolls up the total capacity of the tasks of each component (see {@link CapacityCalculator}) into component level
+ * capacity metrics, smoothed over a sliding window of recent intervals:
+ * <ul>
+ * <li>execute-capacity-rollup.max - the maximal task capacity</li>
+ * <li>execute-capacity-rollup.mean - the mean task capacity</li>
+ * <li>execute-capacity-rollup.p99 - the 99th percentile task capacity</li>
+ * <li>execute-capacity-rollup.hot - 1 if the component's maximal (unsmoothed) task capacity has exceeded the hot
+ * threshold for the configured number of consecutive intervals, 0 otherwise</li>
+ * </ul>
+ * Each task's capacity is smoothed by averaging the capacities it reported within the window. The rollup for a given
+ * interval is emitted once the first task of the component reports a later interval, and is attributed to the
+ * component as a whole (see {@link TaskInfos#componentLevel}).
+ * <br/><br/>
+ * NOTE: Rollups only cover the tasks reporting to this metrics consumer task, i.e., all of the topology's tasks only
+ * if the metrics consumer's parallelism is 1.
+ */
+public class CapacityAggregator {
+
+  public static final Logger LOG = LoggerFactory.getLogger(CapacityAggregator.class);
+
+  public static final String ROLLUP_ENABLED = "metric.reporter.capacity.rollup.enabled";
+
+  public static final String WINDOW_INTERVALS = "metric.reporter.capacity.rollup.window.intervals";
+  private static final int DEFAULT_WINDOW_INTERVALS = 5;
+
+  public static final String HOT_THRESHOLD = "metric.reporter.capacity.rollup.hot.threshold";
+  private static final double DEFAULT_HOT_THRESHOLD = 0.8;
+
+  public static final String HOT_INTERVALS = "metric.reporter.capacity.rollup.hot.intervals";
+  private static final int DEFAULT_HOT_INTERVALS = 3;
+
+  private static final String ROLLUP = "execute-capacity-rollup";
+  private static final String MAX = Metric.joinNameFragments(ROLLUP, "max");
+  private static final String MEAN = Metric.joinNameFragments(ROLLUP, "mean");
+  private static final String P99 = Metric.joinNameFragments(ROLLUP, "p99");
+  private static final String HOT = Metric.joinNameFragments(ROLLUP, "hot");
+
+  private static final long NO_INTERVAL = Long.MIN_VALUE;
+
+  /**
+   * A ring of the capacities a task reported in recent intervals.
+   */
+  private class TaskWindow {
+
+    private final int taskId;
+    private final double[] capacities = new double[windowIntervals];
+    private final long[] intervals = new long[windowIntervals];
+
+    private TaskWindow(final int taskId) {
+      this.taskId = taskId;
+      Arrays.fill(intervals, NO_INTERVAL);
+    }
+
+    private void record(final long interval, final double capacity) {
+      final int slot = (int) (interval % windowIntervals);
+      capacities[slot] = capacity;
+      intervals[slot] = interval;
+    }
+
+    private double capacityAt(final long interval) {
+      final int slot = (int) (interval % windowIntervals);
+      return intervals[slot] == interval ? capacities[slot] : Double.NaN;
+    }
+
+    private double smoothedCapacity(final long lastInterval) {
+      double sum = 0;
+      int count = 0;
+      for (int slot = 0; slot < windowIntervals; slot++) {
+        if (intervals[slot] > lastInterval - windowIntervals && intervals[slot] <= lastInterval) {
+          sum += capacities[slot];
+          count++;
+        }
+      }
+      return count > 0 ? sum / count : Double.NaN;
+    }
+  }
+
+  /**
+   * The capacity windows of the tasks of a single component.
+   */
+  private class ComponentWindows {
+
+    private TaskWindow[] tasks = new TaskWindow[0];
+    private double[] scratch = new double[0];
+    private long currentInterval = NO_INTERVAL;
+    private int hotIntervals;
+
+    private TaskWindow task(final int taskId) {
+      for (final TaskWindow task : tasks) {
+        if (task.taskId == taskId) {
+          return task;
+        }
+      }
+      final TaskWindow task = new TaskWindow(taskId);
+      tasks = Arrays.copyOf(tasks, tasks.length + 1);
+      tasks[tasks.length - 1] = task;
+      scratch = new double[tasks.length];
+      return task;
+    }
+
+    private ImmutableList<Metric> rollup(final String component, final long interval, final long timestamp) {
+
+      int live = 0;
+      double max = 0;
+      double sum = 0;
+      double currentMax = 0;
+
+      for (final TaskWindow task : tasks) {
+        final double smoothed = task.smoothedCapacity(interval);
+        if (!Double.isNaN(smoothed)) {
+          tasks[live] = task;
+          scratch[live++] = smoothed;
+          max = Math.max(max, smoothed);
+          sum += smoothed;
+          final double current = task.capacityAt(interval);
+          currentMax = Double.isNaN(current) ? currentMax : Math.max(currentMax, current);
+        }
+      }
+
+      if (live < tasks.length) {
+        tasks = Arrays.copyOf(tasks, live);
+      }
+
+      if (live == 0) {
+        return ImmutableList.of();
+      }
+
+      Arrays.sort(scratch, 0, live);
+      final double p99 = scratch[(int) Math.ceil(0.99 * live) - 1];
+
+      hotIntervals = currentMax > hotThreshold ? hotIntervals + 1 : 0;
+      final boolean hot = hotIntervals >= requiredHotIntervals;
+      if (hot && hotIntervals == requiredHotIntervals) {
+        LOG.warn(String.format("Component %s has been over %.2f capacity for %d intervals",
+                               component,
+                               hotThreshold,
+                               hotIntervals));
+      }
+
+      return ImmutableList.of(new Metric(component, MAX, max, timestamp, TaskInfos.ALL_TASKS),
+                              new Metric(component, MEAN, sum / live, timestamp, TaskInfos.ALL_TASKS),
+                              new Metric(component, P99, p99, timestamp, TaskInfos.ALL_TASKS),
+                              new Metric(component, HOT, hot ? 1 : 0, timestamp, TaskInfos.ALL_TASKS));
+    }
+  }
+
+  /**
+   * The rollup metrics of a component (or worker, see {@link MetricAggregator}) for a single interval.
+   */
+  public static class Rollup {
+
+    private final IMetricsConsumer.TaskInfo taskInfo;
+    private final ImmutableList<Metric> metrics;
+
+    Rollup(final IMetricsConsumer.TaskInfo taskInfo, final ImmutableList<Metric> metrics) {
+      this.taskInfo = taskInfo;
+      this.metrics = metrics;
+    }
+
+    /**
+     * @return information attributing the rollup metrics to the component (or worker) as a whole.
+     */
+    public IMetricsConsumer.TaskInfo getTaskInfo() {
+      return taskInfo;
+    }
+
+    public ImmutableList<Metric> getMetrics() {
+      return metrics;
+    }
+  }
+
+  private final int windowIntervals;
+  private final double hotThreshold;
+  private final int requiredHotIntervals;
+  private final Map<String, ComponentWindows> components = Maps.newHashMap();
+
+  public CapacityAggregator(final int windowIntervals, final double hotThreshold, final int requiredHotIntervals) {
+    this.windowIntervals = windowIntervals;
+    this.hotThreshold = hotThreshold;
+    this.requiredHotIntervals = requiredHotIntervals;
+  }
+
+  /**
+   * Creates a {@link CapacityAggregator} configured according to the specified configuration, provided
+   * {@value #ROLLUP_ENABLED} is set.
+   *
+   * @param stormConf configuration parameters
+   * @return A new {@link CapacityAggregator} instance, or null if capacity rollups are not enabled.
+   */
+  public static CapacityAggregator from(final Map stormConf) {
+
+    if (!stormConf.containsKey(ROLLUP_ENABLED) || !Boolean.parseBoolean(stormConf.get(ROLLUP_ENABLED).toString())) {
+      return null;
+    }
+
+    return new CapacityAggregator(stormConf.containsKey(WINDOW_INTERVALS) ?
+                                  Integer.parseInt(stormConf.get(WINDOW_INTERVALS).toString()) :
+                                  DEFAULT_WINDOW_INTERVALS,
+                                  stormConf.containsKey(HOT_THRESHOLD) ?
+                                  Double.parseDouble(stormConf.get(HOT_THRESHOLD).toString()) :
+                                  DEFAULT_HOT_THRESHOLD,
+                                  stormConf.containsKey(HOT_INTERVALS) ?
+                                  Integer.parseInt(stormConf.get(HOT_INTERVALS).toString()) :
+                                  DEFAULT_HOT_INTERVALS);
+  }
+
+  /**
+   * Records the total capacity of a task for the interval it was reported for.
+   *
+   * @param component the (clean) component name of the task.
+   * @param capacity  the task's total capacity.
+   * @param taskInfo  information about the task.
+   * @return the component's rollup for its previous interval, if the task is the first to report a later interval, or
+   * null otherwise.
+   */
+  public synchronized Rollup record(final String component,
+                                    final double capacity,
+                                    final IMetricsConsumer.TaskInfo taskInfo) {
+
+    ComponentWindows windows = components.get(component);
+    if (windows == null) {
+      windows = new ComponentWindows();
+      components.put(component, windows);
+    }
+
+    final int intervalSecs = Math.max(1, taskInfo.updateIntervalSecs);
+    final long interval = taskInfo.timestamp / intervalSecs;
+    Rollup rollup = null;
+
+    if (interval > windows.currentInterval) {
+      if (windows.currentInterval != NO_INTERVAL) {
+        final long timestamp = windows.currentInterval * intervalSecs;
+        final ImmutableList<Metric> metrics = windows.rollup(component, windows.currentInterval, timestamp);
+        if (!metrics.isEmpty()) {
+          rollup = new Rollup(TaskInfos.componentLevel(taskInfo, timestamp), metrics);
+        }
+      }
+      windows.currentInterval = interval;
+    }
+
+    if (interval > windows.currentInterval - windowIntervals) {
+      windows.task(taskInfo.srcTaskId).record(interval, capacity);
+    }
+
+    return rollup;
+  }
+}
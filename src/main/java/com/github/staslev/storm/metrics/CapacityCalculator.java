@@ -1,12 +1,11 @@
 package com.github.staslev.storm.metrics;
 
 import com.google.common.base.Function;
-import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import org.apache.storm.metric.api.IMetricsConsumer;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -19,45 +18,128 @@ public class CapacityCalculator {
   private static final String EXECUTE_COUNT = "execute-count";
   private static final String EXECUTE_LATENCY = "execute-latency";
   private static final String CAPACITY = "execute-capacity";
+  private static final String TOTAL_CAPACITY = "execute-capacity-total";
 
-  private static final Predicate<Metric> isExecuteCountMetric = new Predicate<Metric>() {
-    @Override
-    public boolean apply(final Metric metric) {
-      return metric.getMetricName().contains(EXECUTE_COUNT);
+  /**
+   * Collects the execute-count and execute-latency values reported by a single task, one value at a time, so that its
+   * capacity can be calculated without materializing the task's metrics first.
+   * <br/>
+   * Storm reports these values per input stream (e.g., execute-count.spout_default), so capacity is calculated per
+   * input stream by joining the execute-count and execute-latency values reported for the same stream, as well as for
+   * the task as a whole, by summing the capacity across all of its input streams.
+   */
+  public static class Collector {
+
+    private static final int INITIAL_STREAMS = 4;
+
+    private String[] countOperations = new String[INITIAL_STREAMS];
+    private double[] counts = new double[INITIAL_STREAMS];
+    private String[] latencyOperations = new String[INITIAL_STREAMS];
+    private double[] latencies = new double[INITIAL_STREAMS];
+    private int streams;
+
+    private static int streamOffset(final String operation, final String prefix) {
+      return Math.min(operation.indexOf(prefix) + prefix.length() + 1, operation.length());
+    }
+
+    private static boolean sameStream(final String countOperation, final String latencyOperation) {
+      final int countOffset = streamOffset(countOperation, EXECUTE_COUNT);
+      final int latencyOffset = streamOffset(latencyOperation, EXECUTE_LATENCY);
+      final int length = countOperation.length() - countOffset;
+      return length == latencyOperation.length() - latencyOffset &&
+             countOperation.regionMatches(countOffset, latencyOperation, latencyOffset, length);
+    }
+
+    private int stream(final String countOperation, final String latencyOperation) {
+      for (int i = 0; i < streams; i++) {
+        if (countOperation != null && latencyOperations[i] != null && countOperations[i] == null &&
+            sameStream(countOperation, latencyOperations[i])) {
+          return i;
+        }
+        if (latencyOperation != null && countOperations[i] != null && latencyOperations[i] == null &&
+            sameStream(countOperations[i], latencyOperation)) {
+          return i;
+        }
+      }
+      if (streams == countOperations.length) {
+        countOperations = Arrays.copyOf(countOperations, streams * 2);
+        counts = Arrays.copyOf(counts, streams * 2);
+        latencyOperations = Arrays.copyOf(latencyOperations, streams * 2);
+        latencies = Arrays.copyOf(latencies, streams * 2);
+      }
+      return streams++;
     }
-  };
 
-  private static final Predicate<Metric> isExecuteLatencyMetric = new Predicate<Metric>() {
-    @Override
-    public boolean apply(final Metric metric) {
-      return metric.getMetricName().contains(EXECUTE_LATENCY);
+    /**
+     * Offers a metric value to this collector, which only keeps execute-count and execute-latency values.
+     *
+     * @param operation a clean operation name.
+     * @param value     the metric value.
+     */
+    public void offer(final String operation, final double value) {
+      if (operation.contains(EXECUTE_COUNT)) {
+        final int stream = stream(operation, null);
+        countOperations[stream] = operation;
+        counts[stream] = value;
+      } else if (operation.contains(EXECUTE_LATENCY)) {
+        final int stream = stream(null, operation);
+        latencyOperations[stream] = operation;
+        latencies[stream] = value;
+      }
     }
-  };
-
-  private static Optional<Metric> calculateCapacityMetric(final String component,
-                                                          final Optional<Metric> count,
-                                                          final Optional<Metric> latency,
-                                                          final int updateIntervalSecs) {
-    if (count.isPresent() && latency.isPresent()) {
-
-      final String executeOperation = count.get().getOperationAfterString(EXECUTE_COUNT);
-      final String latencyOperation = latency.get().getOperationAfterString(EXECUTE_LATENCY);
-
-      if (executeOperation.equals(latencyOperation)) {
-        double capacity =
-                count.get().getValue() * latency.get().getValue() / (updateIntervalSecs * 1000);
-        return Optional.of(new Metric(component, Metric.joinNameFragments(CAPACITY, executeOperation), capacity));
-      } else {
-        return Optional.absent();
+
+    /**
+     * Computes the capacity metrics according to the formula
+     * capacity = execute-count * execute-latency / time-window-ms, for every input stream both execute-count and
+     * execute-latency values were offered for, as well as the total capacity across these streams.
+     *
+     * @param component the component the offered values were reported by.
+     * @param taskInfo  information about the task the offered values were reported by, and the time window they
+     *                  were reported for.
+     * @return The capacity metrics, per input stream followed by the total, or an empty list if none could be
+     * calculated.
+     */
+    public ImmutableList<Metric> capacityMetrics(final String component, final IMetricsConsumer.TaskInfo taskInfo) {
+
+      final ImmutableList.Builder<Metric> capacityMetrics = ImmutableList.builder();
+      double totalCapacity = 0;
+      boolean calculated = false;
+
+      for (int i = 0; i < streams; i++) {
+        if (countOperations[i] != null && latencyOperations[i] != null) {
+          final double capacity = counts[i] * latencies[i] / (taskInfo.updateIntervalSecs * 1000);
+          final String stream = countOperations[i].substring(streamOffset(countOperations[i], EXECUTE_COUNT));
+          capacityMetrics.add(new Metric(component,
+                                         Metric.joinNameFragments(CAPACITY, stream),
+                                         capacity,
+                                         taskInfo.timestamp,
+                                         taskInfo.srcTaskId,
+                                         null,
+                                         MetricKey.of(taskInfo,
+                                                      component,
+                                                      CAPACITY,
+                                                      stream.isEmpty() ? null : stream)));
+          totalCapacity += capacity;
+          calculated = true;
+        }
+      }
+
+      if (calculated) {
+        capacityMetrics.add(new Metric(component,
+                                       TOTAL_CAPACITY,
+                                       totalCapacity,
+                                       taskInfo.timestamp,
+                                       taskInfo.srcTaskId));
       }
-    } else {
-      return Optional.absent();
+
+      return capacityMetrics.build();
     }
   }
 
   /**
-   * Goes over the specified metrics and if both execute-count and execute-latency are present,
-   * computes the capacity metric according to the formula capacity = execute-count * execute-latency / time-window-ms
+   * Goes over the specified metrics and for every input stream both execute-count and execute-latency are present for,
+   * computes the capacity metric according to the formula capacity = execute-count * execute-latency / time-window-ms,
+   * as well as the total capacity across all input streams.
    *
    * @param component2metrics metrics keyed by component name.
    * @param taskInfo          additional task information pertaining to the reporting task.
@@ -66,25 +148,23 @@ public class CapacityCalculator {
   public static ImmutableList<Metric> calculateCapacityMetrics(final Map<String, List<Metric>> component2metrics,
                                                                final IMetricsConsumer.TaskInfo taskInfo) {
 
-    final Function<Map.Entry<String, List<Metric>>, Optional<Metric>> toCapacityMetric =
-            new Function<Map.Entry<String, List<Metric>>, Optional<Metric>>() {
+    final Function<Map.Entry<String, List<Metric>>, List<Metric>> toCapacityMetrics =
+            new Function<Map.Entry<String, List<Metric>>, List<Metric>>() {
               @Override
-              public Optional<Metric> apply(final Map.Entry<String, List<Metric>> componentMetrics) {
+              public List<Metric> apply(final Map.Entry<String, List<Metric>> componentMetrics) {
 
-                final String component = componentMetrics.getKey();
-                final FluentIterable<Metric> metrics = FluentIterable.from(componentMetrics.getValue());
-                final Optional<Metric> count = metrics.firstMatch(isExecuteCountMetric);
-                final Optional<Metric> latency = metrics.firstMatch(isExecuteLatencyMetric);
+                final Collector collector = new Collector();
+                for (final Metric metric : componentMetrics.getValue()) {
+                  collector.offer(metric.getOperation(), metric.getValue());
+                }
 
-                return calculateCapacityMetric(component, count, latency, taskInfo.updateIntervalSecs);
+                return collector.capacityMetrics(componentMetrics.getKey(), taskInfo);
               }
             };
 
     return FluentIterable
             .from(component2metrics.entrySet())
-            .transform(toCapacityMetric)
-            .filter(Metric.Option.isPresent)
-            .transform(Metric.Option.getValue)
+            .transformAndConcat(toCapacityMetrics)
             .toList();
   }
 }
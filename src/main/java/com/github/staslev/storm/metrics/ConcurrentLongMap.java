@@ -0,0 +1,165 @@
+package com.github.staslev.storm.metrics;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent map keyed by primitive longs, meant for read-mostly caches on hot paths.
+ * <br/>
+ * Reads are lock-free and allocation free (keys are never boxed), writes are serialized. Buckets hold immutable
+ * chains of nodes, so a write replaces a bucket's chain rather than modifying it in place.
+ *
+ * @param <V> the type of the mapped values.
+ */
+public class ConcurrentLongMap<V> {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private static final class Node<V> {
+
+    private final long key;
+    private final V value;
+    private final Node<V> next;
+
+    private Node(final long key, final V value, final Node<V> next) {
+      this.key = key;
+      this.value = value;
+      this.next = next;
+    }
+  }
+
+  private volatile AtomicReferenceArray<Node<V>> table = new AtomicReferenceArray<Node<V>>(INITIAL_CAPACITY);
+  private volatile int size;
+
+  private static int index(final long key, final int length) {
+    long hash = key;
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    return (int) hash & (length - 1);
+  }
+
+  private static <V> Node<V> find(final Node<V> head, final long key) {
+    for (Node<V> node = head; node != null; node = node.next) {
+      if (node.key == key) {
+        return node;
+      }
+    }
+    return null;
+  }
+
+  private static <V> Node<V> without(final Node<V> head, final Node<V> removed) {
+    return head == removed ? head.next : new Node<V>(head.key, head.value, without(head.next, removed));
+  }
+
+  /**
+   * @param key the key whose value is to be returned.
+   * @return the value mapped to the specified key, or null if there is none.
+   */
+  public V get(final long key) {
+    final AtomicReferenceArray<Node<V>> table = this.table;
+    final Node<V> node = find(table.get(index(key, table.length())), key);
+    return node != null ? node.value : null;
+  }
+
+  /**
+   * Maps the specified key to the specified value, replacing the value it was previously mapped to (if any).
+   *
+   * @return the value previously mapped to the specified key, or null if there was none.
+   */
+  public synchronized V put(final long key, final V value) {
+    final V previous = remove(key);
+    insert(key, value);
+    return previous;
+  }
+
+  /**
+   * Maps the specified key to the specified value, unless it is already mapped to a value.
+   *
+   * @return the value the specified key is already mapped to, or null if there was none (and the key is now mapped
+   * to the specified value).
+   */
+  public synchronized V putIfAbsent(final long key, final V value) {
+    final V existing = get(key);
+    if (existing == null) {
+      insert(key, value);
+    }
+    return existing;
+  }
+
+  /**
+   * Removes the mapping for the specified key (if any).
+   *
+   * @return the value previously mapped to the specified key, or null if there was none.
+   */
+  public synchronized V remove(final long key) {
+    final AtomicReferenceArray<Node<V>> table = this.table;
+    final int index = index(key, table.length());
+    final Node<V> head = table.get(index);
+    final Node<V> node = find(head, key);
+    if (node == null) {
+      return null;
+    }
+    table.set(index, without(head, node));
+    size--;
+    return node.value;
+  }
+
+  /**
+   * Removes the mapping for the specified key, provided it is mapped to the specified value.
+   *
+   * @return true if the mapping was removed, false otherwise.
+   */
+  public synchronized boolean remove(final long key, final V value) {
+    if (value != null && value.equals(get(key))) {
+      remove(key);
+      return true;
+    }
+    return false;
+  }
+
+  private void insert(final long key, final V value) {
+    AtomicReferenceArray<Node<V>> table = this.table;
+    if (size >= table.length() * 3 / 4) {
+      table = resize(table);
+    }
+    final int index = index(key, table.length());
+    table.set(index, new Node<V>(key, value, table.get(index)));
+    size++;
+  }
+
+  private AtomicReferenceArray<Node<V>> resize(final AtomicReferenceArray<Node<V>> table) {
+    final AtomicReferenceArray<Node<V>> resized = new AtomicReferenceArray<Node<V>>(table.length() * 2);
+    for (int i = 0; i < table.length(); i++) {
+      for (Node<V> node = table.get(i); node != null; node = node.next) {
+        final int index = index(node.key, resized.length());
+        resized.set(index, new Node<V>(node.key, node.value, resized.get(index)));
+      }
+    }
+    this.table = resized;
+    return resized;
+  }
+
+  /**
+   * @return the number of mappings in this map.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return a snapshot of the values in this map.
+   */
+  public List<V> values() {
+    final AtomicReferenceArray<Node<V>> table = this.table;
+    final List<V> values = Lists.newArrayListWithCapacity(size);
+    for (int i = 0; i < table.length(); i++) {
+      for (Node<V> node = table.get(i); node != null; node = node.next) {
+        values.add(node.value);
+      }
+    }
+    return values;
+  }
+}
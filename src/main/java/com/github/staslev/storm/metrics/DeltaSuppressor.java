@@ -0,0 +1,187 @@
+package com.github.staslev.storm.metrics;
+
+import com.github.staslev.storm.metrics.yammer.StaleGaugeSweeper;
+
+import java.util.Map;
+
+/**
+ * Suppresses series whose value has not changed (by more than a configured epsilon) since they were last processed,
+ * e.g., the failed counts and emit counts of idle streams, which Storm reports every interval regardless.
+ * <br/>
+ * A suppressed series is still processed every {@value #HEARTBEAT_INTERVALS} intervals, so that backends can tell an
+ * unchanged series from one that stopped reporting. The heartbeat should be shorter than the time after which
+ * processors consider series stale (see {@link com.github.staslev.storm.metrics.yammer.StaleGaugeSweeper}).
+ * <br/>
+ * The last processed value of each series is kept in an open addressing table, keyed by the series'
+ * {@link MetricKey} (which is hashed and compared using ids only), with the values and suppression counts held in
+ * primitive arrays, so that checking a series allocates nothing. Series that have not been checked for twice the
+ * heartbeat (e.g., those of tasks that were reassigned) are evicted from the table, which is swept once in that time,
+ * as well as before it grows.
+ */
+public class DeltaSuppressor {
+
+  public static final String SUPPRESSION_ENABLED = "metric.reporter.delta.suppression.enabled";
+
+  public static final String EPSILON = "metric.reporter.delta.suppression.epsilon";
+  private static final double DEFAULT_EPSILON = 0;
+
+  public static final String HEARTBEAT_INTERVALS = "metric.reporter.delta.suppression.heartbeat.intervals";
+  private static final int DEFAULT_HEARTBEAT_INTERVALS = 5;
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final double epsilon;
+  private final int heartbeatIntervals;
+  private final long evictAfterMs;
+
+  private MetricKey[] keys = new MetricKey[INITIAL_CAPACITY];
+  private double[] values = new double[INITIAL_CAPACITY];
+  private int[] suppressed = new int[INITIAL_CAPACITY];
+  private long[] lastChecked = new long[INITIAL_CAPACITY];
+  private int size;
+  private long nextSweep;
+
+  /**
+   * @param epsilon            the maximal change (in absolute value) a series can go through and still be suppressed.
+   * @param heartbeatIntervals the number of intervals after which a suppressed series is processed anyway.
+   */
+  public DeltaSuppressor(final double epsilon, final int heartbeatIntervals) {
+    this(epsilon, heartbeatIntervals, 0);
+  }
+
+  /**
+   * @param epsilon            the maximal change (in absolute value) a series can go through and still be suppressed.
+   * @param heartbeatIntervals the number of intervals after which a suppressed series is processed anyway.
+   * @param evictAfterMs       the time (in milliseconds) after which a series that has not been checked is evicted, 0
+   *                           to never evict series.
+   */
+  public DeltaSuppressor(final double epsilon, final int heartbeatIntervals, final long evictAfterMs) {
+    this.epsilon = epsilon;
+    this.heartbeatIntervals = heartbeatIntervals;
+    this.evictAfterMs = evictAfterMs;
+  }
+
+  /**
+   * Creates a {@link DeltaSuppressor} configured according to the specified configuration, provided
+   * {@value #SUPPRESSION_ENABLED} is set.
+   *
+   * @param stormConf configuration parameters
+   * @return A new {@link DeltaSuppressor} instance, or null if delta suppression is not enabled.
+   */
+  public static DeltaSuppressor from(final Map stormConf) {
+
+    if (!stormConf.containsKey(SUPPRESSION_ENABLED) ||
+        !Boolean.parseBoolean(stormConf.get(SUPPRESSION_ENABLED).toString())) {
+      return null;
+    }
+
+    final int heartbeatIntervals = stormConf.containsKey(HEARTBEAT_INTERVALS) ?
+                                   Integer.parseInt(stormConf.get(HEARTBEAT_INTERVALS).toString()) :
+                                   DEFAULT_HEARTBEAT_INTERVALS;
+
+    return new DeltaSuppressor(stormConf.containsKey(EPSILON) ?
+                               Double.parseDouble(stormConf.get(EPSILON).toString()) :
+                               DEFAULT_EPSILON,
+                               heartbeatIntervals,
+                               2L * Math.max(1, heartbeatIntervals) * StaleGaugeSweeper.reportIntervalMs(stormConf));
+  }
+
+  private static int slot(final MetricKey key, final MetricKey[] keys) {
+    final int mask = keys.length - 1;
+    int slot = (key.hashCode() ^ (key.hashCode() >>> 16)) & mask;
+    while (keys[slot] != null && !keys[slot].equals(key)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private boolean isEvicted(final long lastChecked, final long now) {
+    return evictAfterMs > 0 && now - lastChecked > evictAfterMs;
+  }
+
+  /**
+   * Rehashes the table into a table of the specified capacity, leaving out the series that should be evicted.
+   */
+  private void rebuild(final int capacity, final long now) {
+
+    final MetricKey[] oldKeys = keys;
+    final double[] oldValues = values;
+    final int[] oldSuppressed = suppressed;
+    final long[] oldLastChecked = lastChecked;
+
+    keys = new MetricKey[capacity];
+    values = new double[capacity];
+    suppressed = new int[capacity];
+    lastChecked = new long[capacity];
+    size = 0;
+
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != null && !isEvicted(oldLastChecked[i], now)) {
+        final int slot = slot(oldKeys[i], keys);
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+        suppressed[slot] = oldSuppressed[i];
+        lastChecked[slot] = oldLastChecked[i];
+        size++;
+      }
+    }
+  }
+
+  private void sweepIfNecessary(final long now) {
+    if (evictAfterMs > 0 && now >= nextSweep) {
+      if (nextSweep > 0) {
+        rebuild(keys.length, now);
+      }
+      nextSweep = now + evictAfterMs;
+    }
+  }
+
+  private boolean isUnchanged(final double last, final double value) {
+    return Double.compare(last, value) == 0 || Math.abs(value - last) <= epsilon;
+  }
+
+  /**
+   * Checks whether a series should be processed, and if so, records its value as the series' last processed value.
+   *
+   * @param key   the series' key.
+   * @param value the series' current value.
+   * @return true if the series should be processed, false if it should be suppressed.
+   */
+  public boolean shouldProcess(final MetricKey key, final double value) {
+    return shouldProcess(key, value, System.currentTimeMillis());
+  }
+
+  synchronized boolean shouldProcess(final MetricKey key, final double value, final long now) {
+
+    sweepIfNecessary(now);
+
+    final int slot = slot(key, keys);
+
+    if (keys[slot] == null) {
+      keys[slot] = key;
+      values[slot] = value;
+      suppressed[slot] = 0;
+      lastChecked[slot] = now;
+      if (++size > keys.length / 2) {
+        if (evictAfterMs > 0) {
+          rebuild(keys.length, now);
+        }
+        if (size > keys.length / 4) {
+          rebuild(keys.length * 2, now);
+        }
+      }
+      return true;
+    }
+
+    lastChecked[slot] = now;
+
+    if (isUnchanged(values[slot], value) && suppressed[slot] < heartbeatIntervals - 1) {
+      suppressed[slot]++;
+      return false;
+    }
+
+    values[slot] = value;
+    suppressed[slot] = 0;
+    return true;
+  }
+}
@@ -41,14 +41,67 @@ public class Metric {
 
   public static final String NAME_FRAGMENT_SEPARATOR = ".";
 
+  /**
+   * The timestamp of metrics whose source timestamp is unknown.
+   */
+  public static final long NO_TIMESTAMP = -1;
+
+  /**
+   * The task id of metrics whose source task is unknown.
+   */
+  public static final int NO_TASK = Integer.MIN_VALUE;
+
   private final String component;
   private final String operation;
   private final double value;
+  private final long timestamp;
+  private final int taskId;
+
+  private String metricName;
+  private MetricKey key;
 
   public Metric(final String component, final String operation, final double value) {
+    this(component, operation, value, NO_TIMESTAMP, NO_TASK);
+  }
+
+  /**
+   * @param component the component the metric was reported by.
+   * @param operation the metric's operation name.
+   * @param value     the metric's value.
+   * @param timestamp the time (in seconds) the metric was sampled at by its source.
+   * @param taskId    the id of the task the metric was reported by.
+   */
+  public Metric(final String component,
+                final String operation,
+                final double value,
+                final long timestamp,
+                final int taskId) {
     this.component = component;
     this.operation = operation;
     this.value = value;
+    this.timestamp = timestamp;
+    this.taskId = taskId;
+  }
+
+  Metric(final String component,
+         final String operation,
+         final double value,
+         final long timestamp,
+         final int taskId,
+         final String metricName) {
+    this(component, operation, value, timestamp, taskId);
+    this.metricName = metricName;
+  }
+
+  Metric(final String component,
+         final String operation,
+         final double value,
+         final long timestamp,
+         final int taskId,
+         final String metricName,
+         final MetricKey key) {
+    this(component, operation, value, timestamp, taskId, metricName);
+    this.key = key;
   }
 
   /**
@@ -59,9 +112,21 @@ public class Metric {
    * present in the operation string, the operation string is returned as is.
    */
   public String getOperationAfterString(String after) {
-    return !getOperation().contains(after) ?
-           getOperation() :
-           getOperation().substring(getOperation().indexOf(after) + after.length() + 1);
+    return operationAfterString(getOperation(), after);
+  }
+
+  /**
+   * Returns the portion of an operation string after a given string literal.
+   *
+   * @param operation the operation string.
+   * @param after     the string literal to skip.
+   * @return the portion of the operation string after a given string literal. If the provided string literal is not
+   * present in the operation string, the operation string is returned as is.
+   */
+  public static String operationAfterString(final String operation, final String after) {
+    return !operation.contains(after) ?
+           operation :
+           operation.substring(operation.indexOf(after) + after.length() + 1);
   }
 
   /**
@@ -93,7 +158,10 @@ public class Metric {
   }
 
   public String getMetricName() {
-    return joinNameFragments(getComponent(), getOperation());
+    if (metricName == null) {
+      metricName = joinNameFragments(getComponent(), getOperation());
+    }
+    return metricName;
   }
 
   public double getValue() {
@@ -107,4 +175,34 @@ public class Metric {
   public String getOperation() {
     return operation;
   }
+
+  /**
+   * @return the time (in seconds) the metric was sampled at by its source, or {@value #NO_TIMESTAMP} if unknown.
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * @param fallback the timestamp to return if the metric's source timestamp is unknown.
+   * @return the time (in seconds) the metric was sampled at by its source, or the fallback timestamp if unknown.
+   */
+  public long getTimestampOr(final long fallback) {
+    return timestamp != NO_TIMESTAMP ? timestamp : fallback;
+  }
+
+  /**
+   * @return the id of the task the metric was reported by, or {@link #NO_TASK} if unknown.
+   */
+  public int getTaskId() {
+    return taskId;
+  }
+
+  /**
+   * @return the metric's structured key, or null if the metric was created without one (see
+   * {@link MetricKey#of(Metric, org.apache.storm.metric.api.IMetricsConsumer.TaskInfo)}).
+   */
+  public MetricKey getKey() {
+    return key;
+  }
 }
@@ -0,0 +1,297 @@
+package com.github.staslev.storm.metrics;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rolls up the metrics reported by the tasks of each component, either across all of the component's tasks
+ * ({@value #COMPONENT_LEVEL} level) or across the component's tasks in each worker ({@value #WORKER_LEVEL} level),
+ * so that processors are handed a handful of series per component rather than a series per task.
+ * <br/>
+ * Each operation is rolled up into one or more aggregates (see {@link Aggregate}), e.g., execute-count.default.sum
+ * and execute-count.default.mean, and the raw per task metrics are dropped, unless they match one of the patterns
+ * listed under {@value #RAW_METRICS} (see {@link MetricMatcher} for the supported patterns).
+ * <br/>
+ * Values are accumulated in primitive arrays, with a slot per operation. The rollup for a given interval is emitted
+ * once the first task of the component (or worker) reports a later interval, and is attributed to the component
+ * (see {@link TaskInfos#componentLevel}) or worker (see {@link TaskInfos#workerLevel}) as a whole. Metrics reported
+ * for an interval that has already been rolled up are dropped.
+ * <br/><br/>
+ * NOTE: Rollups only cover the tasks reporting to this metrics consumer task, i.e., all of the topology's tasks only
+ * if the metrics consumer's parallelism is 1.
+ */
+public class MetricAggregator {
+
+  public static final Logger LOG = LoggerFactory.getLogger(MetricAggregator.class);
+
+  public static final String AGGREGATION_LEVEL = "metric.reporter.aggregation.level";
+  public static final String COMPONENT_LEVEL = "component";
+  public static final String WORKER_LEVEL = "worker";
+
+  /**
+   * A list (or a comma separated string) of {@link Aggregate} names, e.g., "sum,max", defaults to sum and mean.
+   */
+  public static final String AGGREGATES = "metric.reporter.aggregation.aggregates";
+  private static final List<Aggregate> DEFAULT_AGGREGATES = ImmutableList.of(Aggregate.SUM, Aggregate.MEAN);
+
+  public static final String RAW_METRICS = "metric.reporter.aggregation.raw.metrics";
+
+  private static final long NO_INTERVAL = Long.MIN_VALUE;
+
+  /**
+   * The aggregates an operation can be rolled up into, each emitted as the operation name followed by the
+   * aggregate's name (e.g., execute-count.default.sum).
+   */
+  public enum Aggregate {
+
+    SUM {
+      @Override
+      double value(final double sum, final double min, final double max, final int count) {
+        return sum;
+      }
+    },
+    MIN {
+      @Override
+      double value(final double sum, final double min, final double max, final int count) {
+        return min;
+      }
+    },
+    MAX {
+      @Override
+      double value(final double sum, final double min, final double max, final int count) {
+        return max;
+      }
+    },
+    MEAN {
+      @Override
+      double value(final double sum, final double min, final double max, final int count) {
+        return sum / count;
+      }
+    };
+
+    private final String suffix = name().toLowerCase();
+
+    abstract double value(final double sum, final double min, final double max, final int count);
+  }
+
+  /**
+   * The accumulated values of the operations of a single component (or worker), for its current interval.
+   */
+  private class Accumulators {
+
+    private final Map<String, Integer> slots = Maps.newHashMap();
+    private String[][] names = new String[0][];
+    private String[][] keyNames = new String[0][];
+    private String[] streams = new String[0];
+    private double[] sums = new double[0];
+    private double[] mins = new double[0];
+    private double[] maxs = new double[0];
+    private int[] counts = new int[0];
+    private long currentInterval = NO_INTERVAL;
+
+    private int slot(final Metric metric) {
+
+      final String operation = metric.getOperation();
+      final Integer slot = slots.get(operation);
+      if (slot != null) {
+        return slot;
+      }
+
+      final int newSlot = counts.length;
+      final int size = newSlot + 1;
+      names = Arrays.copyOf(names, size);
+      keyNames = Arrays.copyOf(keyNames, size);
+      streams = Arrays.copyOf(streams, size);
+      sums = Arrays.copyOf(sums, size);
+      mins = Arrays.copyOf(mins, size);
+      maxs = Arrays.copyOf(maxs, size);
+      counts = Arrays.copyOf(counts, size);
+
+      final MetricKey key = metric.getKey();
+      names[newSlot] = new String[aggregates.length];
+      keyNames[newSlot] = new String[aggregates.length];
+      for (int i = 0; i < aggregates.length; i++) {
+        names[newSlot][i] = Metric.joinNameFragments(operation, aggregates[i].suffix);
+        keyNames[newSlot][i] = Metric.joinNameFragments(key != null ? key.getName() : operation, aggregates[i].suffix);
+      }
+      streams[newSlot] = key != null ? key.getStream() : null;
+      slots.put(operation, newSlot);
+      return newSlot;
+    }
+
+    private void accumulate(final Metric metric) {
+      final int slot = slot(metric);
+      final double value = metric.getValue();
+      if (counts[slot] == 0) {
+        sums[slot] = value;
+        mins[slot] = value;
+        maxs[slot] = value;
+      } else {
+        sums[slot] += value;
+        mins[slot] = Math.min(mins[slot], value);
+        maxs[slot] = Math.max(maxs[slot], value);
+      }
+      counts[slot]++;
+    }
+
+    /**
+     * Rollups are keyed like the metrics they roll up, with the aggregate's name appended to the operation's name
+     * (rather than its stream), e.g., execute-count.sum of the default stream.
+     */
+    private ImmutableList<Metric> rollup(final String component, final IMetricsConsumer.TaskInfo rollupTaskInfo) {
+
+      final ImmutableList.Builder<Metric> metrics = ImmutableList.builder();
+
+      for (int slot = 0; slot < counts.length; slot++) {
+        if (counts[slot] > 0) {
+          for (int i = 0; i < aggregates.length; i++) {
+            metrics.add(new Metric(component,
+                                   names[slot][i],
+                                   aggregates[i].value(sums[slot], mins[slot], maxs[slot], counts[slot]),
+                                   rollupTaskInfo.timestamp,
+                                   TaskInfos.ALL_TASKS,
+                                   null,
+                                   MetricKey.of(rollupTaskInfo, component, keyNames[slot][i], streams[slot])));
+          }
+          counts[slot] = 0;
+        }
+      }
+
+      return metrics.build();
+    }
+  }
+
+  private final boolean workerLevel;
+  private final Aggregate[] aggregates;
+  private final MetricMatcher rawMetrics;
+  private final Map<String, Accumulators> accumulators = Maps.newHashMap();
+
+  /**
+   * @param workerLevel whether to roll up per worker, rather than across all of the component's tasks.
+   * @param aggregates  the aggregates to roll operations up into.
+   * @param rawMetrics  the metrics to emit as is, in addition to being rolled up.
+   */
+  public MetricAggregator(final boolean workerLevel, final List<Aggregate> aggregates, final MetricMatcher rawMetrics) {
+    this.workerLevel = workerLevel;
+    this.aggregates = aggregates.toArray(new Aggregate[aggregates.size()]);
+    this.rawMetrics = rawMetrics;
+  }
+
+  private static List<String> values(final Map stormConf, final String key) {
+    final Object values = stormConf.get(key);
+    final List<String> result = Lists.newArrayList();
+    if (values instanceof List) {
+      for (final Object value : (List) values) {
+        result.add(value.toString());
+      }
+    } else if (values != null) {
+      result.add(values.toString());
+    }
+    return result;
+  }
+
+  /**
+   * Creates a {@link MetricAggregator} configured according to the specified configuration, provided
+   * {@value #AGGREGATION_LEVEL} is set.
+   *
+   * @param stormConf configuration parameters
+   * @return A new {@link MetricAggregator} instance, or null if aggregation is not enabled.
+   */
+  public static MetricAggregator from(final Map stormConf) {
+
+    if (!stormConf.containsKey(AGGREGATION_LEVEL)) {
+      return null;
+    }
+
+    final String level = stormConf.get(AGGREGATION_LEVEL).toString();
+    if (!level.equals(COMPONENT_LEVEL) && !level.equals(WORKER_LEVEL)) {
+      throw new IllegalArgumentException(String.format("Unknown aggregation level %s, expected %s or %s",
+                                                       level,
+                                                       COMPONENT_LEVEL,
+                                                       WORKER_LEVEL));
+    }
+
+    final List<Aggregate> aggregates = Lists.newArrayList();
+    for (final String value : values(stormConf, AGGREGATES)) {
+      for (final String aggregate : value.split(",")) {
+        aggregates.add(Aggregate.valueOf(aggregate.trim().toUpperCase()));
+      }
+    }
+
+    return new MetricAggregator(level.equals(WORKER_LEVEL),
+                                aggregates.isEmpty() ? DEFAULT_AGGREGATES : aggregates,
+                                new MetricMatcher(values(stormConf, RAW_METRICS),
+                                                  ImmutableList.<String>of(),
+                                                  MetricMatcher.DEFAULT_MATCH_CACHE_SIZE));
+  }
+
+  /**
+   * @param metric a metric reported by a task.
+   * @return true if the metric should be processed as is, in addition to being rolled up, false otherwise.
+   */
+  public boolean isRaw(final Metric metric) {
+    return rawMetrics.apply(metric);
+  }
+
+  /**
+   * Records the metrics a task reported for a single interval.
+   *
+   * @param component the (clean) component name of the task.
+   * @param metrics   the task's metrics.
+   * @param taskInfo  information about the task.
+   * @return the component's (or worker's) rollup for its previous interval, if the task is the first to report a
+   * later interval, or null otherwise.
+   */
+  public synchronized CapacityAggregator.Rollup record(final String component,
+                                                       final List<Metric> metrics,
+                                                       final IMetricsConsumer.TaskInfo taskInfo) {
+
+    final String key = workerLevel ?
+                       taskInfo.srcWorkerHost + ':' + taskInfo.srcWorkerPort + '/' + component :
+                       component;
+    Accumulators componentAccumulators = accumulators.get(key);
+    if (componentAccumulators == null) {
+      componentAccumulators = new Accumulators();
+      accumulators.put(key, componentAccumulators);
+    }
+
+    final int intervalSecs = Math.max(1, taskInfo.updateIntervalSecs);
+    final long interval = taskInfo.timestamp / intervalSecs;
+    CapacityAggregator.Rollup rollup = null;
+
+    if (interval > componentAccumulators.currentInterval) {
+      if (componentAccumulators.currentInterval != NO_INTERVAL) {
+        final long timestamp = componentAccumulators.currentInterval * intervalSecs;
+        final IMetricsConsumer.TaskInfo rollupTaskInfo = workerLevel ?
+                                                         TaskInfos.workerLevel(taskInfo, timestamp) :
+                                                         TaskInfos.componentLevel(taskInfo, timestamp);
+        final ImmutableList<Metric> rollupMetrics = componentAccumulators.rollup(component, rollupTaskInfo);
+        if (!rollupMetrics.isEmpty()) {
+          rollup = new CapacityAggregator.Rollup(rollupTaskInfo, rollupMetrics);
+        }
+      }
+      componentAccumulators.currentInterval = interval;
+    }
+
+    if (interval == componentAccumulators.currentInterval) {
+      for (final Metric metric : metrics) {
+        componentAccumulators.accumulate(metric);
+      }
+    } else {
+      LOG.debug("Dropping {} metrics of task {} reported late for interval {}",
+                metrics.size(),
+                taskInfo.srcTaskId,
+                interval);
+    }
+
+    return rollup;
+  }
+}
@@ -0,0 +1,67 @@
+package com.github.staslev.storm.metrics;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns the values of metric dimensions (component names, hosts, operation names, streams, etc.) as small integer
+ * ids, so that {@link MetricKey}s can be hashed and compared without touching strings.
+ * <br/>
+ * Ids are shared by all dimensions and are never reclaimed, which is fine for the (bounded) set of names a topology
+ * reports, but not for unbounded ones.
+ */
+public final class MetricDimensions {
+
+  /**
+   * The id of an absent (null or blank) dimension value.
+   */
+  public static final int NONE = -1;
+
+  private static final ConcurrentMap<String, Integer> IDS = new ConcurrentHashMap<String, Integer>();
+  private static volatile String[] values = new String[1024];
+  private static int nextId;
+
+  private MetricDimensions() {
+  }
+
+  /**
+   * @param value a dimension value.
+   * @return the value's id, or {@link #NONE} if the value is null or blank.
+   */
+  public static int id(final String value) {
+
+    if (StringUtils.isBlank(value)) {
+      return NONE;
+    }
+
+    final Integer id = IDS.get(value);
+    return id != null ? id : intern(value);
+  }
+
+  private static synchronized int intern(final String value) {
+
+    final Integer existingId = IDS.get(value);
+    if (existingId != null) {
+      return existingId;
+    }
+
+    final int id = nextId++;
+    if (id == values.length) {
+      values = Arrays.copyOf(values, values.length * 2);
+    }
+    values[id] = value;
+    IDS.put(value, id);
+    return id;
+  }
+
+  /**
+   * @param id a dimension value id, as returned by {@link #id}.
+   * @return the dimension value, or null if the id is {@link #NONE}.
+   */
+  public static String value(final int id) {
+    return id == NONE ? null : values[id];
+  }
+}
@@ -0,0 +1,170 @@
+package com.github.staslev.storm.metrics;
+
+import org.apache.storm.metric.api.IMetricsConsumer;
+
+/**
+ * The structured identity of a metric: the task that reported it (worker host and port, component and task id), the
+ * name of the operation it measures, and the stream (or any other sub-key) the operation was reported for, if any.
+ * <br/>
+ * String dimensions are held as {@link MetricDimensions} ids, so keys are cheap to hash, compare and group by, and
+ * flat names (e.g., Graphite's dot separated paths) are just one way of rendering them, see {@link #flatten()}.
+ */
+public final class MetricKey {
+
+  private final int hostId;
+  private final int port;
+  private final int componentId;
+  private final int taskId;
+  private final int nameId;
+  private final int streamId;
+  private final int hash;
+
+  private String operation;
+
+  public MetricKey(final int hostId,
+                   final int port,
+                   final int componentId,
+                   final int taskId,
+                   final int nameId,
+                   final int streamId) {
+    this.hostId = hostId;
+    this.port = port;
+    this.componentId = componentId;
+    this.taskId = taskId;
+    this.nameId = nameId;
+    this.streamId = streamId;
+
+    int hash = hostId;
+    hash = 31 * hash + port;
+    hash = 31 * hash + componentId;
+    hash = 31 * hash + taskId;
+    hash = 31 * hash + nameId;
+    this.hash = 31 * hash + streamId;
+  }
+
+  /**
+   * @param taskInfo  information about the task that reported the metric.
+   * @param component the (clean) component name.
+   * @param name      the (clean) operation name.
+   * @param stream    the (clean) stream or sub-key name, or null if there is none.
+   * @return the key of the specified metric.
+   */
+  public static MetricKey of(final IMetricsConsumer.TaskInfo taskInfo,
+                             final String component,
+                             final String name,
+                             final String stream) {
+    return new MetricKey(MetricDimensions.id(taskInfo.srcWorkerHost),
+                         taskInfo.srcWorkerPort,
+                         MetricDimensions.id(component),
+                         taskInfo.srcTaskId,
+                         MetricDimensions.id(name),
+                         MetricDimensions.id(stream));
+  }
+
+  /**
+   * @param metric   a metric.
+   * @param taskInfo information about the task that reported the metric.
+   * @return the metric's key, derived from its component and operation if it does not carry one.
+   */
+  public static MetricKey of(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+    final MetricKey key = metric.getKey();
+    return key != null ? key : of(taskInfo, metric.getComponent(), metric.getOperation(), null);
+  }
+
+  public int getHostId() {
+    return hostId;
+  }
+
+  public String getHost() {
+    return MetricDimensions.value(hostId);
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public int getComponentId() {
+    return componentId;
+  }
+
+  public String getComponent() {
+    return MetricDimensions.value(componentId);
+  }
+
+  public int getTaskId() {
+    return taskId;
+  }
+
+  public int getNameId() {
+    return nameId;
+  }
+
+  /**
+   * @return the operation name, without the stream.
+   */
+  public String getName() {
+    return MetricDimensions.value(nameId);
+  }
+
+  public int getStreamId() {
+    return streamId;
+  }
+
+  /**
+   * @return the stream (or sub-key) name, or null if there is none.
+   */
+  public String getStream() {
+    return MetricDimensions.value(streamId);
+  }
+
+  /**
+   * @return the operation name, followed by the stream (if any), as in {@link Metric#getOperation()}.
+   */
+  public String getOperation() {
+    if (operation == null) {
+      operation = streamId == MetricDimensions.NONE ? getName() : Metric.joinNameFragments(getName(), getStream());
+    }
+    return operation;
+  }
+
+  /**
+   * Renders the key as a dot separated name, i.e., WorkerHost.WorkerPort.ComponentName.TaskId.OperationName[.Stream].
+   *
+   * @return the flattened key.
+   */
+  public String flatten() {
+    return Metric.joinNameFragments(getHost(),
+                                    TaskInfos.port(port),
+                                    getComponent(),
+                                    TaskInfos.taskId(taskId),
+                                    getOperation());
+  }
+
+  @Override
+  public boolean equals(final Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof MetricKey)) {
+      return false;
+    }
+    final MetricKey key = (MetricKey) other;
+    return hash == key.hash &&
+           hostId == key.hostId &&
+           port == key.port &&
+           componentId == key.componentId &&
+           taskId == key.taskId &&
+           nameId == key.nameId &&
+           streamId == key.streamId;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return flatten();
+  }
+}
@@ -1,29 +1,201 @@
 package com.github.staslev.storm.metrics;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
- * Matches a metric full name (component and operation) according to a specified regular expression.
+ * Matches a metric full name (component and operation) against a list of allowed and a list of denied patterns.
+ * A metric is matched if its name matches at least one allowed pattern and none of the denied patterns.
+ * <br/>
+ * A pattern may be prefixed with {@value #PREFIX}, {@value #GLOB} or {@value #REGEX} to denote its type, a pattern
+ * with no such prefix is considered to be a regular expression. Glob patterns support the <code>*</code> (any
+ * sequence of characters, dots included) and <code>?</code> (any single character) wildcards. Regular expressions
+ * are matched as a single alternation, except for those with back references or named groups, whose group numbers
+ * (or names) would change (or clash) within the alternation, and which are matched on their own.
+ * <br/>
+ * Since the set of distinct metric names is small and stable, the verdict for each full metric name is cached.
  * Implements the {@link Predicate} interface in order to be compliant with Guava.
  */
 public class MetricMatcher implements Predicate<Metric> {
 
-  private final Pattern compile;
+  public static final String ALLOWED_METRICS = "metric.reporter.metrics.allowed";
+  public static final String DENIED_METRICS = "metric.reporter.metrics.denied";
+
+  public static final String MATCH_CACHE_SIZE = "metric.reporter.match.cache.size";
+  static final int DEFAULT_MATCH_CACHE_SIZE = 10000;
+
+  public static final String PREFIX = "prefix:";
+  public static final String GLOB = "glob:";
+  public static final String REGEX = "regex:";
+
+  /**
+   * A trie of name prefixes, matching any name that starts with one of its prefixes.
+   */
+  private static class PrefixTrie {
+
+    private final Map<Character, PrefixTrie> children = Maps.newHashMap();
+    private boolean terminal;
+
+    void add(final String prefix) {
+      PrefixTrie node = this;
+      for (int i = 0; i < prefix.length(); i++) {
+        PrefixTrie child = node.children.get(prefix.charAt(i));
+        if (child == null) {
+          child = new PrefixTrie();
+          node.children.put(prefix.charAt(i), child);
+        }
+        node = child;
+      }
+      node.terminal = true;
+    }
+
+    boolean matchesPrefixOf(final String name) {
+      PrefixTrie node = this;
+      for (int i = 0; i < name.length() && !node.terminal; i++) {
+        node = node.children.get(name.charAt(i));
+        if (node == null) {
+          return false;
+        }
+      }
+      return node.terminal;
+    }
+  }
+
+  /**
+   * A list of prefix, glob and regex patterns compiled into a single prefix trie and a single regular expression (along
+   * with the regular expressions that cannot be part of it).
+   */
+  private static class Patterns {
+
+    private static final Pattern GROUP_REFERENCES = Pattern.compile("\\\\(?:[1-9]|k<)|\\(\\?<[a-zA-Z]");
+
+    private final PrefixTrie prefixes = new PrefixTrie();
+    private final Pattern expressions;
+    private final List<Pattern> standaloneExpressions = Lists.newArrayList();
+
+    Patterns(final List<String> patterns) {
+
+      final List<String> regexes = Lists.newArrayList();
+
+      for (final String pattern : patterns) {
+        if (pattern.startsWith(PREFIX)) {
+          prefixes.add(pattern.substring(PREFIX.length()));
+        } else if (pattern.startsWith(GLOB)) {
+          regexes.add(globToRegex(pattern.substring(GLOB.length())));
+        } else {
+          final String regex = pattern.startsWith(REGEX) ? pattern.substring(REGEX.length()) : pattern;
+          if (GROUP_REFERENCES.matcher(regex).find()) {
+            standaloneExpressions.add(Pattern.compile(regex));
+          } else {
+            regexes.add(regex);
+          }
+        }
+      }
+
+      expressions = regexes.isEmpty() ? null : Pattern.compile("(?:" + Joiner.on(")|(?:").join(regexes) + ")");
+    }
+
+    private static String globToRegex(final String glob) {
+      final StringBuilder regex = new StringBuilder();
+      for (final String literal : glob.split("(?=[*?])|(?<=[*?])")) {
+        if (literal.equals("*")) {
+          regex.append(".*");
+        } else if (literal.equals("?")) {
+          regex.append('.');
+        } else if (!literal.isEmpty()) {
+          regex.append(Pattern.quote(literal));
+        }
+      }
+      return regex.toString();
+    }
+
+    boolean matches(final String metricName) {
+      if (prefixes.matchesPrefixOf(metricName) ||
+          (expressions != null && expressions.matcher(metricName).matches())) {
+        return true;
+      }
+      for (final Pattern expression : standaloneExpressions) {
+        if (expression.matcher(metricName).matches()) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private final Patterns allowed;
+  private final Patterns denied;
+  private final LoadingCache<String, Boolean> verdicts;
 
   MetricMatcher(final String metricsRegex) {
-    compile = Pattern.compile(metricsRegex);
+    this(ImmutableList.of(metricsRegex), ImmutableList.<String>of(), DEFAULT_MATCH_CACHE_SIZE);
+  }
+
+  MetricMatcher(final List<String> allowedPatterns, final List<String> deniedPatterns, final int cacheSize) {
+    allowed = new Patterns(allowedPatterns);
+    denied = new Patterns(deniedPatterns);
+    verdicts = CacheBuilder.newBuilder().maximumSize(cacheSize).build(new CacheLoader<String, Boolean>() {
+      @Override
+      public Boolean load(final String metricName) {
+        return allowed.matches(metricName) && !denied.matches(metricName);
+      }
+    });
+  }
+
+  private static List<String> patterns(final Map stormConf, final String key) {
+    final Object patterns = stormConf.get(key);
+    final List<String> result = Lists.newArrayList();
+    if (patterns instanceof List) {
+      for (final Object pattern : (List) patterns) {
+        result.add(pattern.toString());
+      }
+    } else if (patterns != null) {
+      result.add(patterns.toString());
+    }
+    return result;
+  }
+
+  /**
+   * Creates a {@link MetricMatcher} allowing the metrics that match the specified regular expression, as well as any
+   * of the patterns listed under {@value #ALLOWED_METRICS}, as long as they do not match any of the patterns listed
+   * under {@value #DENIED_METRICS}.
+   *
+   * @param allowedMetricNames a regular expression matching allowed metric names.
+   * @param stormConf          configuration parameters
+   * @return A new {@link MetricMatcher} instance.
+   */
+  static MetricMatcher from(final String allowedMetricNames, final Map stormConf) {
+
+    final List<String> allowedPatterns = patterns(stormConf, ALLOWED_METRICS);
+    allowedPatterns.add(0, allowedMetricNames);
+
+    return new MetricMatcher(allowedPatterns,
+                             patterns(stormConf, DENIED_METRICS),
+                             stormConf.containsKey(MATCH_CACHE_SIZE) ?
+                             Integer.parseInt(stormConf.get(MATCH_CACHE_SIZE).toString()) :
+                             DEFAULT_MATCH_CACHE_SIZE);
   }
 
-  private boolean match(final Metric metric) {
-    return compile
-            .matcher(metric.getMetricName())
-            .matches();
+  /**
+   * @param metricName a full metric name (see {@link Metric#getMetricName()}).
+   * @return true if the metric name is allowed, false otherwise.
+   */
+  public boolean matches(final String metricName) {
+    return verdicts.getUnchecked(metricName);
   }
 
   @Override
   public boolean apply(final Metric metric) {
-    return match(metric);
+    return matches(metric.getMetricName());
   }
 }
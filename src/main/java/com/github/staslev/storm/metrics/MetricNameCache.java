@@ -0,0 +1,146 @@
+package com.github.staslev.storm.metrics;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.util.Map;
+
+/**
+ * A bounded, concurrent cache of the metric names {@link MetricReporter} derives from the raw names reported by Storm.
+ * <br/>
+ * Storm reports the very same component, data point and sub-key names every interval, so instead of cleaning and
+ * joining them over and over again, the resulting names (including the full metric name) are resolved once and
+ * reused from then on.
+ */
+public class MetricNameCache {
+
+  public static final String NAME_CACHE_SIZE = "metric.reporter.name.cache.size";
+  private static final int DEFAULT_NAME_CACHE_SIZE = 10000;
+
+  /**
+   * A pair of names, keying the caches of names joined from two others.
+   */
+  private static final class NamePair {
+
+    private final String first;
+    private final String second;
+
+    private NamePair(final String first, final String second) {
+      this.first = first;
+      this.second = second;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof NamePair)) {
+        return false;
+      }
+      final NamePair namePair = (NamePair) o;
+      return first.equals(namePair.first) && second.equals(namePair.second);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * first.hashCode() + second.hashCode();
+    }
+  }
+
+  private final int maximumSize;
+
+  private final LoadingCache<String, String> cleanNames;
+
+  private final LoadingCache<NamePair, String> subNames;
+
+  private final LoadingCache<NamePair, String> fullNames;
+
+  /**
+   * @param maximumSize the maximum number of names held by each of the cache's levels (clean names, operation names
+   *                    and full metric names).
+   */
+  public MetricNameCache(final int maximumSize) {
+    this.maximumSize = maximumSize;
+
+    cleanNames = newCache(new CacheLoader<String, String>() {
+      @Override
+      public String load(final String rawName) {
+        return Metric.cleanNameFragment(rawName);
+      }
+    });
+
+    subNames = newCache(new CacheLoader<NamePair, String>() {
+      @Override
+      public String load(final NamePair rawNames) {
+        return Metric.joinNameFragments(operation(rawNames.first), Metric.cleanNameFragment(rawNames.second));
+      }
+    });
+
+    fullNames = newCache(new CacheLoader<NamePair, String>() {
+      @Override
+      public String load(final NamePair names) {
+        return Metric.joinNameFragments(names.first, names.second);
+      }
+    });
+  }
+
+  /**
+   * Creates a {@link MetricNameCache} sized according to the specified configuration.
+   *
+   * @param stormConf configuration parameters
+   * @return A new {@link MetricNameCache} instance.
+   */
+  public static MetricNameCache from(final Map stormConf) {
+    return new MetricNameCache(stormConf.containsKey(NAME_CACHE_SIZE) ?
+                               Integer.parseInt(stormConf.get(NAME_CACHE_SIZE).toString()) :
+                               DEFAULT_NAME_CACHE_SIZE);
+  }
+
+  private <K, V> LoadingCache<K, V> newCache(final CacheLoader<K, V> loader) {
+    return CacheBuilder.newBuilder().maximumSize(maximumSize).build(loader);
+  }
+
+  /**
+   * @param srcComponentId a raw component name, as reported by Storm.
+   * @return The clean component name.
+   */
+  public String component(final String srcComponentId) {
+    return cleanNames.getUnchecked(srcComponentId);
+  }
+
+  /**
+   * @param dataPointName a raw data point name, as reported by Storm.
+   * @return The clean operation name.
+   */
+  public String operation(final String dataPointName) {
+    return cleanNames.getUnchecked(dataPointName);
+  }
+
+  /**
+   * @param dataPointName a raw data point name, as reported by Storm.
+   * @param subName       a raw sub-key of a data point whose value is a Map.
+   * @return The clean operation name, joining the data point name and its sub-key.
+   */
+  public String operation(final String dataPointName, final Object subName) {
+    return subNames.getUnchecked(new NamePair(dataPointName, subName.toString()));
+  }
+
+  /**
+   * @param subName a raw sub-key of a data point whose value is a Map (e.g., a stream name).
+   * @return The clean sub-key name.
+   */
+  public String stream(final Object subName) {
+    return cleanNames.getUnchecked(subName.toString());
+  }
+
+  /**
+   * @param component a clean component name.
+   * @param operation a clean operation name.
+   * @return The full metric name, as returned by {@link Metric#getMetricName()}.
+   */
+  public String metricName(final String component, final String operation) {
+    return fullNames.getUnchecked(new NamePair(component, operation));
+  }
+}
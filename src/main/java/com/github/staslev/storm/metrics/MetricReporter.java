@@ -1,16 +1,19 @@
 package com.github.staslev.storm.metrics;
 
+import com.github.staslev.storm.metrics.yammer.YammerFacadeMetric;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import org.apache.storm.metric.api.IMetricsConsumer;
 import org.apache.storm.task.IErrorReporter;
 import org.apache.storm.task.TopologyContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -20,60 +23,169 @@ import java.util.Map;
  * undesired metrics.
  * <br/>
  * This metric consumer also reports a capacity metric, computed for each taskId based on the number of executions
- * and per-execution latency reported by Storm internals.
+ * and per-execution latency reported by Storm internals, and optionally, component level capacity rollups (see
+ * {@link CapacityAggregator}). Metrics may optionally be rolled up to component or worker level before being
+ * processed (see {@link MetricAggregator}), and series whose value has not changed may optionally be suppressed (see
+ * {@link DeltaSuppressor}).
+ * <br/>
+ * Data points may optionally be handed off to dedicated processing threads (see {@link AsyncDispatcher}), so that a
+ * slow {@link StormMetricProcessor} does not stall the metrics consumer. Processors that are {@link Closeable} are
+ * closed when the metrics consumer is cleaned up, releasing any reporters they share (see
+ * {@link com.github.staslev.storm.metrics.yammer.ReporterScheduler}).
  * <br/><br/><url>Inspired by <url>https://github.com/endgameinc/storm-metrics-statsd</url>
  */
 public class MetricReporter implements IMetricsConsumer {
 
+  public static final Logger LOG = LoggerFactory.getLogger(MetricReporter.class);
+
   private MetricMatcher allowedMetrics;
   private StormMetricProcessor stormMetricProcessor;
+  private MetricNameCache metricNames;
+  private AsyncDispatcher asyncDispatcher;
+  private CapacityAggregator capacityAggregator;
+  private MetricAggregator metricAggregator;
+  private DeltaSuppressor deltaSuppressor;
 
   private double value(final Object value) {
     return ((Number) value).doubleValue();
   }
 
-  private Map<String, List<Metric>> toMetricsByComponent(final Collection<DataPoint> dataPoints,
-                                                         final TaskInfo taskInfo) {
+  /**
+   * Visits the data points reported by a single task in place, without building intermediate collections along the
+   * way. Each numeric leaf is offered to the capacity calculation, and provided it is allowed, handed to the
+   * {@link StormMetricProcessor}, either directly or as part of a batch if the processor supports batches.
+   * {@link Metric} instances are only created for allowed metrics, and carry a {@link MetricKey} that separates the
+   * data point name from its sub-key (e.g., the stream), if any.
+   */
+  private class DataPointsVisitor {
 
-    final Map<String, List<Metric>> component2metrics = Maps.newHashMap();
+    private final TaskInfo taskInfo;
+    private final String component;
+    private final int hostId;
+    private final int componentId;
+    private final CapacityCalculator.Collector capacity = new CapacityCalculator.Collector();
+    private final List<Metric> batch;
+    private final List<Metric> aggregated;
 
-    for (final DataPoint dataPoint : dataPoints) {
-      final String component = Metric.cleanNameFragment(taskInfo.srcComponentId);
+    private DataPointsVisitor(final TaskInfo taskInfo) {
+      this.taskInfo = taskInfo;
+      this.component = metricNames.component(taskInfo.srcComponentId);
+      this.hostId = MetricDimensions.id(taskInfo.srcWorkerHost);
+      this.componentId = MetricDimensions.id(component);
+      this.batch = stormMetricProcessor instanceof BatchStormMetricProcessor ? Lists.<Metric>newArrayList() : null;
+      this.aggregated = metricAggregator != null ? Lists.<Metric>newArrayList() : null;
+    }
+
+    private void visit(final String dataPointName, final Object value) {
+      if (value instanceof Number) {
+        final String operation = metricNames.operation(dataPointName);
+        visitLeaf(operation, operation, null, value(value));
+      } else if (value instanceof Map) {
+        for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+          final Object subName = entry.getKey();
+          final Object subValue = entry.getValue();
+          if (subValue instanceof Number) {
+            visitLeaf(metricNames.operation(dataPointName, subName),
+                      metricNames.operation(dataPointName),
+                      metricNames.stream(subName),
+                      value(subValue));
+          } else if (subValue instanceof Map) {
+            visit(Metric.joinNameFragments(dataPointName, subName), subValue);
+          }
+        }
+      }
+    }
+
+    private void visitLeaf(final String operation, final String name, final String stream, final double value) {
+
+      capacity.offer(operation, value);
+
+      final String metricName = metricNames.metricName(component, operation);
+      if (allowedMetrics.matches(metricName)) {
+        final MetricKey key = new MetricKey(hostId,
+                                            taskInfo.srcWorkerPort,
+                                            componentId,
+                                            taskInfo.srcTaskId,
+                                            MetricDimensions.id(name),
+                                            MetricDimensions.id(stream));
+        emit(new Metric(component, operation, value, taskInfo.timestamp, taskInfo.srcTaskId, metricName, key));
+      }
+    }
+
+    private void emit(final Metric metric) {
+      if (aggregated != null) {
+        aggregated.add(metric);
+        if (!metricAggregator.isRaw(metric)) {
+          return;
+        }
+      }
+      if (!shouldProcess(metric, taskInfo)) {
+        return;
+      }
+      if (batch != null) {
+        batch.add(metric);
+      } else {
+        stormMetricProcessor.process(metric, taskInfo);
+      }
+    }
+
+    private void finish() {
+
+      final ImmutableList<Metric> capacityMetrics = capacity.capacityMetrics(component, taskInfo);
+      for (final Metric capacityMetric : capacityMetrics) {
+        if (allowedMetrics.apply(capacityMetric)) {
+          emit(capacityMetric);
+        }
+      }
+
+      if (batch != null && !batch.isEmpty()) {
+        ((BatchStormMetricProcessor) stormMetricProcessor).process(batch, taskInfo);
+      }
 
-      if (!component2metrics.containsKey(component)) {
-        component2metrics.put(component, new LinkedList<Metric>());
+      if (capacityAggregator != null && !capacityMetrics.isEmpty()) {
+        final CapacityAggregator.Rollup rollup =
+                capacityAggregator.record(component, Iterables.getLast(capacityMetrics).getValue(), taskInfo);
+        if (rollup != null) {
+          processAllowed(rollup.getMetrics(), rollup.getTaskInfo());
+        }
       }
 
-      component2metrics.get(component).addAll(extractMetrics(dataPoint, component));
+      if (aggregated != null && !aggregated.isEmpty()) {
+        final CapacityAggregator.Rollup rollup = metricAggregator.record(component, aggregated, taskInfo);
+        if (rollup != null) {
+          process(rollup.getMetrics(), rollup.getTaskInfo());
+        }
+      }
     }
+  }
+
+  private void processAllowed(final List<Metric> metrics, final TaskInfo taskInfo) {
+
+    process(FluentIterable.from(metrics).filter(allowedMetrics).toList(), taskInfo);
+  }
 
-    return component2metrics;
+  private boolean shouldProcess(final Metric metric, final TaskInfo taskInfo) {
+    return deltaSuppressor == null || deltaSuppressor.shouldProcess(MetricKey.of(metric, taskInfo), metric.getValue());
   }
 
-  private List<Metric> extractMetrics(final DataPoint dataPoint, final String component) {
-
-    List<Metric> metrics = Lists.newArrayList();
-
-    if (dataPoint.value instanceof Number) {
-      metrics.add(new Metric(component, Metric.cleanNameFragment(dataPoint.name), value(dataPoint.value)));
-    } else if (dataPoint.value instanceof Map) {
-      @SuppressWarnings("rawtypes")
-      final Map map = (Map) dataPoint.value;
-      for (final Object subName : map.keySet()) {
-        final Object subValue = map.get(subName);
-        if (subValue instanceof Number) {
-          metrics.add(new Metric(component,
-                                 Metric.joinNameFragments(Metric.cleanNameFragment(dataPoint.name),
-                                                          Metric.cleanNameFragment(subName.toString())),
-                                 value(subValue)));
-        } else if (subValue instanceof Map) {
-          metrics.addAll(extractMetrics(new DataPoint(Metric.joinNameFragments(dataPoint.name, subName), subValue),
-                                        component));
+  private void process(final List<Metric> metrics, final TaskInfo taskInfo) {
+
+    final List<Metric> changed = deltaSuppressor != null ? Lists.<Metric>newArrayList() : metrics;
+    if (deltaSuppressor != null) {
+      for (final Metric metric : metrics) {
+        if (shouldProcess(metric, taskInfo)) {
+          changed.add(metric);
         }
       }
     }
 
-    return metrics;
+    if (stormMetricProcessor instanceof BatchStormMetricProcessor) {
+      ((BatchStormMetricProcessor) stormMetricProcessor).process(changed, taskInfo);
+    } else {
+      for (final Metric metric : changed) {
+        stormMetricProcessor.process(metric, taskInfo);
+      }
+    }
   }
 
   @Override
@@ -84,25 +196,66 @@ public class MetricReporter implements IMetricsConsumer {
 
     @SuppressWarnings("unchecked")
     final MetricReporterConfig config = MetricReporterConfig.from((List<String>) registrationArgument);
-    allowedMetrics = new MetricMatcher(config.getAllowedMetricNames());
+    allowedMetrics = MetricMatcher.from(config.getAllowedMetricNames(), stormConf);
+    metricNames = MetricNameCache.from(stormConf);
+    capacityAggregator = CapacityAggregator.from(stormConf);
+    metricAggregator = MetricAggregator.from(stormConf);
+    deltaSuppressor = DeltaSuppressor.from(stormConf);
     stormMetricProcessor = config.getStormMetricProcessor(stormConf);
+    asyncDispatcher = AsyncDispatcher.from(new AsyncDispatcher.Handler() {
+                                             @Override
+                                             public void handle(final TaskInfo taskInfo,
+                                                                final Collection<DataPoint> dataPoints) {
+                                               process(taskInfo, dataPoints);
+                                             }
+                                           },
+                                           stormConf,
+                                           Integer.toString(context.getThisTaskId()));
   }
 
-  @Override
-  public void handleDataPoints(final TaskInfo taskInfo, final Collection<DataPoint> dataPoints) {
+  private void process(final TaskInfo taskInfo, final Collection<DataPoint> dataPoints) {
 
-    final Map<String, List<Metric>> component2metrics = toMetricsByComponent(dataPoints, taskInfo);
-    final ImmutableList<Metric> capacityMetrics = CapacityCalculator.calculateCapacityMetrics(component2metrics,
-                                                                                              taskInfo);
-    final Iterable<Metric> providedMetrics = Iterables.concat(component2metrics.values());
-    final Iterable<Metric> allMetrics = Iterables.concat(providedMetrics, capacityMetrics);
+    final DataPointsVisitor visitor = new DataPointsVisitor(taskInfo);
+    DataPointsVisitor workerVisitor = null;
 
-    for (final Metric metric : FluentIterable.from(allMetrics).filter(allowedMetrics).toList()) {
-      stormMetricProcessor.process(metric, taskInfo);
+    for (final DataPoint dataPoint : dataPoints) {
+      if (YammerFacadeMetric.WORKER_FACADE_METRIC_NAME.equals(dataPoint.name)) {
+        // merged across the component's executors in the worker, so not attributed to the reporting task.
+        if (workerVisitor == null) {
+          workerVisitor = new DataPointsVisitor(TaskInfos.workerLevel(taskInfo, taskInfo.timestamp));
+        }
+        workerVisitor.visit(YammerFacadeMetric.FACADE_METRIC_NAME, dataPoint.value);
+      } else {
+        visitor.visit(dataPoint.name, dataPoint.value);
+      }
+    }
+
+    visitor.finish();
+    if (workerVisitor != null) {
+      workerVisitor.finish();
+    }
+  }
+
+  @Override
+  public void handleDataPoints(final TaskInfo taskInfo, final Collection<DataPoint> dataPoints) {
+    if (asyncDispatcher != null) {
+      asyncDispatcher.dispatch(taskInfo, dataPoints);
+    } else {
+      process(taskInfo, dataPoints);
     }
   }
 
   @Override
   public void cleanup() {
+    if (asyncDispatcher != null) {
+      asyncDispatcher.shutdown();
+    }
+    if (stormMetricProcessor instanceof Closeable) {
+      try {
+        ((Closeable) stormMetricProcessor).close();
+      } catch (final IOException e) {
+        LOG.warn("Unable to close metric processor", e);
+      }
+    }
   }
 }
\ No newline at end of file
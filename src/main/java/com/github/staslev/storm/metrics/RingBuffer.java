@@ -0,0 +1,111 @@
+package com.github.staslev.storm.metrics;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free, multi-producer multi-consumer ring buffer.
+ * <br/>
+ * Each slot carries a sequence number which tells producers and consumers whether the slot is free to be written or
+ * ready to be read, so that claiming a slot only takes a single CAS on the tail (for producers) or the head (for
+ * consumers) position.
+ *
+ * @param <E> the type of the elements held in this buffer.
+ */
+public class RingBuffer<E> {
+
+  private final Object[] elements;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * @param capacity the buffer's capacity, rounded up to the next power of two.
+   */
+  public RingBuffer(final int capacity) {
+    final int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    elements = new Object[size];
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    mask = size - 1;
+  }
+
+  /**
+   * Inserts an element, provided the buffer is not full.
+   *
+   * @param element the element to insert.
+   * @return true if the element was inserted, false if the buffer is full.
+   */
+  public boolean offer(final E element) {
+    while (true) {
+      final long position = tail.get();
+      final int index = (int) position & mask;
+      final long available = sequences.get(index) - position;
+      if (available == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements[index] = element;
+          sequences.set(index, position + 1);
+          return true;
+        }
+      } else if (available < 0) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Removes the oldest element, provided the buffer is not empty.
+   *
+   * @return the oldest element, or null if the buffer is empty.
+   */
+  @SuppressWarnings("unchecked")
+  public E poll() {
+    while (true) {
+      final long position = head.get();
+      final int index = (int) position & mask;
+      final long available = sequences.get(index) - (position + 1);
+      if (available == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          final E element = (E) elements[index];
+          elements[index] = null;
+          sequences.set(index, position + mask + 1);
+          return element;
+        }
+      } else if (available < 0) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Removes up to a given number of the oldest elements and adds them to a given collection.
+   *
+   * @param collection  the collection to add the removed elements to.
+   * @param maxElements the maximum number of elements to remove.
+   * @return the number of elements removed.
+   */
+  public int drainTo(final Collection<? super E> collection, final int maxElements) {
+    int drained = 0;
+    E element;
+    while (drained < maxElements && (element = poll()) != null) {
+      collection.add(element);
+      drained++;
+    }
+    return drained;
+  }
+
+  /**
+   * @return the (approximate) number of elements in this buffer.
+   */
+  public int size() {
+    return (int) Math.max(0, Math.min(tail.get() - head.get(), capacity()));
+  }
+
+  public int capacity() {
+    return elements.length;
+  }
+}
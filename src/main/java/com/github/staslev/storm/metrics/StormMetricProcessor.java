@@ -10,6 +10,9 @@ import org.apache.storm.metric.api.IMetricsConsumer;
  * NOTE: The implementing class must take into account that the reporting granularity is taskId,
  * that is, it should make sure it does not overwrite values by aggregating incoming value incorrectly (for instance,
  * aggregating per workerHost-port-componentId is wrong, since the various tasks might overwrite each other's values.
+ * <br/><br/>
+ * Processors that group or index metrics may use the metric's structured {@link MetricKey} (see
+ * {@link MetricKey#of(Metric, IMetricsConsumer.TaskInfo)}) rather than its flattened component and operation names.
  */
 public interface StormMetricProcessor {
 
@@ -0,0 +1,79 @@
+package com.github.staslev.storm.metrics;
+
+import org.apache.storm.metric.api.IMetricsConsumer;
+
+/**
+ * Creates the {@link IMetricsConsumer.TaskInfo} instances metrics aggregated across tasks are processed with.
+ * <br/>
+ * Metrics aggregated across the tasks of a component are attributed to a worker host of {@value #ALL}, a worker port
+ * of {@value #ALL_PORTS} and a task id of {@value #ALL_TASKS}, so that processors can tell them apart from metrics
+ * reported by actual tasks. Metrics aggregated across the tasks of a component in a single worker keep the worker's
+ * host and port, and are only attributed to a task id of {@value #ALL_TASKS}.
+ */
+public class TaskInfos {
+
+  public static final String ALL = "all";
+  public static final int ALL_PORTS = -1;
+  public static final int ALL_TASKS = -1;
+
+  private TaskInfos() {
+  }
+
+  /**
+   * @param taskInfo  information about a task of the component.
+   * @param timestamp the timestamp (in seconds) of the aggregated metrics.
+   * @return information attributing metrics to all tasks of a component, across all workers.
+   */
+  public static IMetricsConsumer.TaskInfo componentLevel(final IMetricsConsumer.TaskInfo taskInfo,
+                                                         final long timestamp) {
+    return new IMetricsConsumer.TaskInfo(ALL,
+                                         ALL_PORTS,
+                                         taskInfo.srcComponentId,
+                                         ALL_TASKS,
+                                         timestamp,
+                                         taskInfo.updateIntervalSecs);
+  }
+
+  /**
+   * @param taskInfo  information about a task of the component.
+   * @param timestamp the timestamp (in seconds) of the aggregated metrics.
+   * @return information attributing metrics to all tasks of a component in the task's worker.
+   */
+  public static IMetricsConsumer.TaskInfo workerLevel(final IMetricsConsumer.TaskInfo taskInfo,
+                                                      final long timestamp) {
+    return new IMetricsConsumer.TaskInfo(taskInfo.srcWorkerHost,
+                                         taskInfo.srcWorkerPort,
+                                         taskInfo.srcComponentId,
+                                         ALL_TASKS,
+                                         timestamp,
+                                         taskInfo.updateIntervalSecs);
+  }
+
+  /**
+   * @return the worker port as it should appear in metric names.
+   */
+  public static String port(final IMetricsConsumer.TaskInfo taskInfo) {
+    return port(taskInfo.srcWorkerPort);
+  }
+
+  /**
+   * @return the worker port as it should appear in metric names.
+   */
+  public static String port(final int port) {
+    return port == ALL_PORTS ? ALL : Integer.toString(port);
+  }
+
+  /**
+   * @return the task id as it should appear in metric names.
+   */
+  public static String taskId(final IMetricsConsumer.TaskInfo taskInfo) {
+    return taskId(taskInfo.srcTaskId);
+  }
+
+  /**
+   * @return the task id as it should appear in metric names.
+   */
+  public static String taskId(final int taskId) {
+    return taskId == ALL_TASKS ? ALL : Integer.toString(taskId);
+  }
+}
@@ -0,0 +1,140 @@
+package com.github.staslev.storm.metrics.graphite;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The wire formats a {@link GraphiteSender} can encode batches of metrics in.
+ * <br/>
+ * Metric paths are expected to be UTF-8 encoded, and optionally followed by a field name (e.g., "value", "count")
+ * which must be plain ASCII.
+ */
+public enum GraphiteProtocol {
+
+  /**
+   * Carbon's pickle protocol (usually served on port 2004), each batch is a length prefixed, protocol 2 pickled list of
+   * (path, (timestamp, value)) tuples.
+   */
+  PICKLE {
+    private static final byte PROTO = (byte) 0x80;
+    private static final byte EMPTY_LIST = ']';
+    private static final byte MARK = '(';
+    private static final byte BINUNICODE = 'X';
+    private static final byte BININT = 'J';
+    private static final byte BINFLOAT = 'G';
+    private static final byte TUPLE2 = (byte) 0x86;
+    private static final byte APPENDS = 'e';
+    private static final byte STOP = '.';
+
+    private static final int HEADER_SIZE = 4;
+
+    @Override
+    void startBatch(final ByteBuffer buffer) {
+      buffer.putInt(0);
+      buffer.put(PROTO).put((byte) 2).put(EMPTY_LIST).put(MARK);
+    }
+
+    @Override
+    int maxEncodedSize(final byte[] path, final String field) {
+      return path.length + (field != null ? field.length() + 1 : 0) + 32;
+    }
+
+    @Override
+    void encode(final ByteBuffer buffer,
+                final byte[] path,
+                final String field,
+                final double value,
+                final long timestamp) {
+
+      buffer.put(BINUNICODE);
+      buffer.order(ByteOrder.LITTLE_ENDIAN).putInt(path.length + (field != null ? field.length() + 1 : 0));
+      putPath(buffer, path, field);
+
+      if (timestamp <= Integer.MAX_VALUE) {
+        buffer.put(BININT).putInt((int) timestamp);
+      } else {
+        buffer.put(BINFLOAT).order(ByteOrder.BIG_ENDIAN).putDouble(timestamp);
+      }
+      buffer.order(ByteOrder.BIG_ENDIAN);
+
+      buffer.put(BINFLOAT).putDouble(value);
+      buffer.put(TUPLE2).put(TUPLE2);
+    }
+
+    @Override
+    void endBatch(final ByteBuffer buffer) {
+      buffer.put(APPENDS).put(STOP);
+      buffer.putInt(0, buffer.position() - HEADER_SIZE);
+    }
+  },
+
+  /**
+   * Carbon's plaintext protocol (usually served on port 2003), each metric is a "path value timestamp" line.
+   */
+  PLAINTEXT {
+    @Override
+    void startBatch(final ByteBuffer buffer) {
+    }
+
+    @Override
+    int maxEncodedSize(final byte[] path, final String field) {
+      return path.length + (field != null ? field.length() + 1 : 0) + 64;
+    }
+
+    @Override
+    void encode(final ByteBuffer buffer,
+                final byte[] path,
+                final String field,
+                final double value,
+                final long timestamp) {
+      putPath(buffer, path, field);
+      buffer.put((byte) ' ');
+      putAscii(buffer, Double.toString(value));
+      buffer.put((byte) ' ');
+      putAscii(buffer, Long.toString(timestamp));
+      buffer.put((byte) '\n');
+    }
+
+    @Override
+    void endBatch(final ByteBuffer buffer) {
+    }
+  };
+
+  private static void putAscii(final ByteBuffer buffer, final String ascii) {
+    for (int i = 0; i < ascii.length(); i++) {
+      buffer.put((byte) ascii.charAt(i));
+    }
+  }
+
+  private static void putPath(final ByteBuffer buffer, final byte[] path, final String field) {
+    buffer.put(path);
+    if (field != null) {
+      buffer.put((byte) '.');
+      putAscii(buffer, field);
+    }
+  }
+
+  /**
+   * Starts a new batch at the buffer's position.
+   */
+  abstract void startBatch(final ByteBuffer buffer);
+
+  /**
+   * @return an upper bound on the number of bytes {@link #encode} may take for the specified path.
+   */
+  abstract int maxEncodedSize(final byte[] path, final String field);
+
+  /**
+   * Encodes a single metric into the current batch.
+   */
+  abstract void encode(final ByteBuffer buffer,
+                       final byte[] path,
+                       final String field,
+                       final double value,
+                       final long timestamp);
+
+  /**
+   * Completes the current batch, after which the buffer (flipped) holds exactly the bytes to send.
+   */
+  abstract void endBatch(final ByteBuffer buffer);
+}
@@ -0,0 +1,228 @@
+package com.github.staslev.storm.metrics.graphite;
+
+import com.github.staslev.storm.metrics.BatchStormMetricProcessor;
+import com.github.staslev.storm.metrics.ConcurrentLongMap;
+import com.github.staslev.storm.metrics.Metric;
+import com.github.staslev.storm.metrics.RingBuffer;
+import com.github.staslev.storm.metrics.StormMetricProcessor;
+import com.github.staslev.storm.metrics.TaskInfos;
+import com.github.staslev.storm.metrics.yammer.SimpleGraphiteStormMetricProcessor;
+import com.github.staslev.storm.metrics.yammer.SimpleStormMetricProcessor;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link StormMetricProcessor} that pushes every metric to Graphite as it's processed, stamped with the time Storm
+ * sampled it at (see {@link Metric#getTimestamp()}), rather than updating a gauge in
+ * {@link StormMetricProcessor#METRICS_REGISTRY} to be reported periodically.
+ * <br/>
+ * Since no gauge is overwritten in between reports, intervals that arrive close together or late are neither lost
+ * nor misplaced. Metric paths are the same as those of {@link SimpleGraphiteStormMetricProcessor}, i.e.,
+ * Storm.TopologyName.WorkerHost.WorkerPort.ComponentName.TaskId.OperationName.value, and the Graphite connection is
+ * configured using the same parameters (see
+ * {@link SimpleGraphiteStormMetricProcessor#newGraphiteSender(Map, String)}).
+ * <br/>
+ * Processing only resolves the metrics' paths and hands them off to a dedicated sender thread, via a bounded
+ * {@link RingBuffer} (see {@link #PUSH_QUEUE_CAPACITY}), so that a slow or unreachable Graphite never blocks the
+ * metrics consumer. The sender thread flushes every batch it takes to Graphite. Batches handed off while the buffer is
+ * full are dropped, and counted under {@link #DROPPED_SAMPLES}.
+ */
+public class GraphitePushStormMetricProcessor implements BatchStormMetricProcessor, Closeable {
+
+  public static final Logger LOG = LoggerFactory.getLogger(GraphitePushStormMetricProcessor.class);
+
+  private static final String FIELD = "value";
+
+  /**
+   * The number of processed batches of metrics that may await the sender thread.
+   */
+  public static final String PUSH_QUEUE_CAPACITY = "metric.reporter.graphite.push.queue.capacity";
+  private static final int DEFAULT_PUSH_QUEUE_CAPACITY = 1024;
+
+  public static final MetricName DROPPED_SAMPLES = new MetricName("MetricReporter", "graphite", "push-dropped-samples");
+
+  private static final int DRAIN_BATCH_SIZE = 64;
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long SHUTDOWN_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
+  /**
+   * A metric, ready to be sent.
+   */
+  private static final class Sample {
+
+    private final byte[] path;
+    private final double value;
+    private final long timestamp;
+
+    private Sample(final byte[] path, final double value, final long timestamp) {
+      this.path = path;
+      this.value = value;
+      this.timestamp = timestamp;
+    }
+  }
+
+  /**
+   * Sends the samples handed off to it, and replays spilled ones, until the processor is closed.
+   */
+  private class Sender implements Runnable {
+
+    private final List<Sample[]> batches = Lists.newArrayListWithCapacity(DRAIN_BATCH_SIZE);
+
+    @Override
+    public void run() {
+      while (running || queue.size() > 0) {
+        if (queue.drainTo(batches, DRAIN_BATCH_SIZE) == 0) {
+          graphiteSender.replay();
+          LockSupport.parkNanos(IDLE_PARK_NANOS);
+          continue;
+        }
+        try {
+          for (final Sample[] batch : batches) {
+            for (final Sample sample : batch) {
+              graphiteSender.send(sample.path, FIELD, sample.value, sample.timestamp);
+            }
+          }
+          graphiteSender.flush();
+          graphiteSender.replay();
+        } catch (final Exception e) {
+          LOG.error("Unable to send metrics to Graphite", e);
+        }
+        batches.clear();
+      }
+      graphiteSender.close();
+    }
+  }
+
+  /**
+   * The encoded paths of the metrics of a single task, along with the identity of the task they were created for.
+   */
+  private static final class TaskPaths {
+
+    private final String host;
+    private final int port;
+    private final ConcurrentMap<String, byte[]> paths = new ConcurrentHashMap<String, byte[]>();
+
+    private TaskPaths(final IMetricsConsumer.TaskInfo taskInfo) {
+      this.host = taskInfo.srcWorkerHost;
+      this.port = taskInfo.srcWorkerPort;
+    }
+
+    private boolean isFor(final IMetricsConsumer.TaskInfo taskInfo) {
+      return port == taskInfo.srcWorkerPort && host.equals(taskInfo.srcWorkerHost);
+    }
+  }
+
+  private final String prefix;
+  private final GraphiteSender graphiteSender;
+  private final ConcurrentLongMap<TaskPaths> taskPaths = new ConcurrentLongMap<TaskPaths>();
+  private final RingBuffer<Sample[]> queue;
+  private final Counter droppedSamples;
+  private final Thread sender;
+  private volatile boolean running = true;
+
+  public GraphitePushStormMetricProcessor(final Map config) {
+
+    final String topologyName = SimpleStormMetricProcessor.topologyName(config);
+    prefix = Metric.joinNameFragments("Storm", topologyName);
+
+    graphiteSender = SimpleGraphiteStormMetricProcessor.newGraphiteSender(config, topologyName);
+
+    queue = new RingBuffer<Sample[]>(config.containsKey(PUSH_QUEUE_CAPACITY) ?
+                                     Integer.parseInt(config.get(PUSH_QUEUE_CAPACITY).toString()) :
+                                     DEFAULT_PUSH_QUEUE_CAPACITY);
+    droppedSamples = METRICS_REGISTRY.newCounter(DROPPED_SAMPLES);
+
+    sender = new Thread(new Sender(), "metric-reporter-graphite-push-" + topologyName);
+    sender.setDaemon(true);
+    sender.start();
+  }
+
+  private byte[] path(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+
+    TaskPaths paths = taskPaths.get(taskInfo.srcTaskId);
+    if (paths == null || !paths.isFor(taskInfo)) {
+      paths = new TaskPaths(taskInfo);
+      taskPaths.put(taskInfo.srcTaskId, paths);
+    }
+
+    byte[] path = paths.paths.get(metric.getMetricName());
+    if (path == null) {
+      path = GraphiteSender.encodePath(Metric.joinNameFragments(prefix,
+                                                                taskInfo.srcWorkerHost,
+                                                                TaskInfos.port(taskInfo),
+                                                                metric.getComponent(),
+                                                                TaskInfos.taskId(taskInfo),
+                                                                metric.getOperation()));
+      paths.paths.put(metric.getMetricName(), path);
+    }
+    return path;
+  }
+
+  @Override
+  public MetricName name(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+    return new MetricName(Metric.joinNameFragments(taskInfo.srcWorkerHost,
+                                                   TaskInfos.port(taskInfo),
+                                                   metric.getComponent()),
+                          TaskInfos.taskId(taskInfo),
+                          metric.getOperation());
+  }
+
+  @Override
+  public void process(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+    process(ImmutableList.of(metric), taskInfo);
+  }
+
+  @Override
+  public void process(final Collection<Metric> metrics, final IMetricsConsumer.TaskInfo taskInfo) {
+
+    final Sample[] batch = new Sample[metrics.size()];
+    int size = 0;
+    for (final Metric metric : metrics) {
+      try {
+        final byte[] path = path(metric, taskInfo);
+        batch[size++] = new Sample(path, metric.getValue(), metric.getTimestampOr(taskInfo.timestamp));
+      } catch (final Exception e) {
+        LOG.error(String.format("Unable to process metric %s", name(metric, taskInfo).toString()), e);
+      }
+    }
+
+    if (size == 0) {
+      return;
+    }
+    if (!running || !queue.offer(size == batch.length ? batch : Arrays.copyOf(batch, size))) {
+      droppedSamples.inc(size);
+    }
+  }
+
+  /**
+   * Stops the sender thread once the metrics already handed off to it have been sent, and closes the connection to
+   * Graphite.
+   */
+  @Override
+  public void close() {
+    running = false;
+    try {
+      sender.join(SHUTDOWN_TIMEOUT_MS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (sender.isAlive()) {
+      LOG.warn("Graphite sender thread did not stop within {} ms", SHUTDOWN_TIMEOUT_MS);
+    }
+  }
+}
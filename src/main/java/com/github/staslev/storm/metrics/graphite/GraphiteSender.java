@@ -0,0 +1,252 @@
+package com.github.staslev.storm.metrics.graphite;
+
+import com.github.staslev.storm.metrics.StormMetricProcessor;
+import com.google.common.base.Charsets;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends metrics to a Graphite (carbon) server in batches, over a single persistent connection.
+ * <br/>
+ * Metrics are encoded according to the configured {@link GraphiteProtocol} into a reusable direct buffer, and a batch
+ * is sent whenever it reaches the configured size, or is explicitly {@link #flush() flushed}. A failed send closes the
+ * connection and drops the batch, after which reconnection attempts are backed off exponentially (batches are dropped
+ * in the meantime). When a {@link GraphiteSpill} is provided, batches that cannot be sent are spilled rather than
+ * dropped, and {@link #replay() replayed} once the connection is back.
+ * <br/>
+ * The number of bytes and batches sent, the number of batches dropped, and the send latency are reported via
+ * {@link StormMetricProcessor#METRICS_REGISTRY}.
+ * <br/><br/>
+ * NOTE: This class is not thread safe, it's meant to be driven by a single reporting thread.
+ */
+public class GraphiteSender {
+
+  public static final Logger LOG = LoggerFactory.getLogger(GraphiteSender.class);
+
+  public static final MetricName BYTES_SENT = new MetricName("MetricReporter", "graphite", "bytes-sent");
+  public static final MetricName BATCHES_SENT = new MetricName("MetricReporter", "graphite", "batches-sent");
+  public static final MetricName BATCHES_DROPPED = new MetricName("MetricReporter", "graphite", "batches-dropped");
+  public static final MetricName SEND_LATENCY = new MetricName("MetricReporter", "graphite", "send-latency");
+
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+  private static final int CONNECT_TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(5);
+  private static final long INITIAL_BACKOFF_MS = TimeUnit.SECONDS.toMillis(1);
+  private static final long MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(1);
+
+  private final InetSocketAddress address;
+  private final GraphiteProtocol protocol;
+  private final int batchSize;
+
+  private final Counter bytesSent;
+  private final Counter batchesSent;
+  private final Counter batchesDropped;
+  private final Timer sendLatency;
+
+  private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+  private int batchCount;
+
+  private final GraphiteSpill spill;
+  private final byte[][] batchPaths;
+  private final String[] batchFields;
+  private final double[] batchValues;
+  private final long[] batchTimestamps;
+
+  private SocketChannel channel;
+  private long backoffMs = INITIAL_BACKOFF_MS;
+  private long reconnectAt;
+
+  public GraphiteSender(final String host, final int port, final GraphiteProtocol protocol, final int batchSize) {
+    this(host, port, protocol, batchSize, null);
+  }
+
+  public GraphiteSender(final String host,
+                        final int port,
+                        final GraphiteProtocol protocol,
+                        final int batchSize,
+                        final GraphiteSpill spill) {
+    this.spill = spill;
+    this.batchPaths = spill != null ? new byte[batchSize][] : null;
+    this.batchFields = spill != null ? new String[batchSize] : null;
+    this.batchValues = spill != null ? new double[batchSize] : null;
+    this.batchTimestamps = spill != null ? new long[batchSize] : null;
+    this.address = new InetSocketAddress(host, port);
+    this.protocol = protocol;
+    this.batchSize = batchSize;
+    this.bytesSent = StormMetricProcessor.METRICS_REGISTRY.newCounter(BYTES_SENT);
+    this.batchesSent = StormMetricProcessor.METRICS_REGISTRY.newCounter(BATCHES_SENT);
+    this.batchesDropped = StormMetricProcessor.METRICS_REGISTRY.newCounter(BATCHES_DROPPED);
+    this.sendLatency =
+            StormMetricProcessor.METRICS_REGISTRY.newTimer(SEND_LATENCY, TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Encodes a metric path the way it should be passed to {@link #send}, i.e., UTF-8 encoded, with spaces replaced by
+   * dashes.
+   *
+   * @param path a metric path.
+   * @return the encoded path.
+   */
+  public static byte[] encodePath(final String path) {
+    return path.replace(' ', '-').getBytes(Charsets.UTF_8);
+  }
+
+  /**
+   * Adds a metric to the current batch, sending the batch if it has reached the configured batch size.
+   *
+   * @param path      the metric's path, as returned by {@link #encodePath}.
+   * @param field     an (ASCII) field name to be appended to the metric's path, or null if there is none.
+   * @param value     the metric's value.
+   * @param timestamp the metric's timestamp (in seconds).
+   */
+  public void send(final byte[] path, final String field, final double value, final long timestamp) {
+
+    final int maxEncodedSize = protocol.maxEncodedSize(path, field) + 16;
+
+    if (batchCount > 0 && buffer.remaining() < maxEncodedSize) {
+      flush();
+    }
+
+    if (batchCount == 0) {
+      ensureCapacity(maxEncodedSize);
+      buffer.clear();
+      protocol.startBatch(buffer);
+    }
+
+    protocol.encode(buffer, path, field, value, timestamp);
+
+    if (spill != null) {
+      batchPaths[batchCount] = path;
+      batchFields[batchCount] = field;
+      batchValues[batchCount] = value;
+      batchTimestamps[batchCount] = timestamp;
+    }
+
+    if (++batchCount >= batchSize) {
+      flush();
+    }
+  }
+
+  /**
+   * Sends the current batch, if it's not empty.
+   */
+  public void flush() {
+
+    if (batchCount == 0) {
+      return;
+    }
+
+    protocol.endBatch(buffer);
+    buffer.flip();
+    final int count = batchCount;
+    batchCount = 0;
+
+    if (!isConnected()) {
+      dropBatch(count);
+      return;
+    }
+
+    final long start = System.nanoTime();
+    try {
+      final int bytes = buffer.remaining();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      sendLatency.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      bytesSent.inc(bytes);
+      batchesSent.inc();
+    } catch (final IOException e) {
+      LOG.warn(String.format("Unable to send metrics to %s, reconnecting in %d ms", address, backoffMs), e);
+      disconnect();
+      dropBatch(count);
+    }
+  }
+
+  private void dropBatch(final int count) {
+    if (spill == null) {
+      batchesDropped.inc();
+      return;
+    }
+    for (int i = 0; i < count; i++) {
+      spill.spill(batchPaths[i], batchFields[i], batchValues[i], batchTimestamps[i]);
+      batchPaths[i] = null;
+    }
+  }
+
+  /**
+   * Replays spilled metrics (if any) at the spill's replay rate, provided the connection is (back) up.
+   */
+  public void replay() {
+    if (spill != null && spill.hasBacklog() && isConnected()) {
+      final int replayed = spill.replay(this);
+      LOG.debug("Replayed {} spilled metrics", replayed);
+    }
+  }
+
+  private void ensureCapacity(final int size) {
+    if (buffer.capacity() < size) {
+      buffer = ByteBuffer.allocateDirect(Math.max(size, buffer.capacity() * 2));
+    }
+  }
+
+  boolean isConnected() {
+
+    if (channel != null) {
+      return true;
+    }
+
+    final long now = System.currentTimeMillis();
+    if (now < reconnectAt) {
+      return false;
+    }
+
+    try {
+      channel = SocketChannel.open();
+      channel.socket().connect(address, CONNECT_TIMEOUT_MS);
+      channel.socket().setTcpNoDelay(true);
+      backoffMs = INITIAL_BACKOFF_MS;
+      LOG.info("Connected to Graphite at {}", address);
+      return true;
+    } catch (final IOException e) {
+      LOG.warn(String.format("Unable to connect to Graphite at %s, retrying in %d ms", address, backoffMs), e);
+      disconnect();
+      return false;
+    }
+  }
+
+  private void disconnect() {
+    closeChannel();
+    reconnectAt = System.currentTimeMillis() + backoffMs;
+    backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+  }
+
+  private void closeChannel() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (final IOException e) {
+        LOG.debug("Unable to close connection to Graphite", e);
+      }
+      channel = null;
+    }
+  }
+
+  /**
+   * Sends the current batch, closes the connection and the spill (if any).
+   */
+  public void close() {
+    flush();
+    closeChannel();
+    if (spill != null) {
+      spill.close();
+    }
+  }
+}
@@ -0,0 +1,484 @@
+package com.github.staslev.storm.metrics.graphite;
+
+import com.github.staslev.storm.metrics.StormMetricProcessor;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local, disk-backed queue of metrics that could not be sent to Graphite, to be replayed once the connection is
+ * back (see {@link GraphiteSender}).
+ * <br/>
+ * Metrics are appended to fixed size, memory-mapped segment files, in a compact binary format: each segment starts
+ * with a magic number, followed by records that either define a metric path (an id, interned per segment, followed
+ * by the UTF-8 encoded path), or hold a single value (a path id, a timestamp and a value). Segments are replayed
+ * oldest first, i.e., in the order metrics were spilled, at a configurable rate, and deleted once fully replayed.
+ * When the configured size cap is reached, the oldest segment is dropped.
+ * <br/>
+ * Segments left behind by a previous worker (e.g., one that crashed during an outage) are replayed as well. Each
+ * spill locks its own sub directory, so that several spills can share the same configured directory.
+ * <br/>
+ * The number of spilled bytes awaiting replay, the replay lag (the age, in seconds, of the oldest metric awaiting
+ * replay) and the number of dropped segments are reported via {@link StormMetricProcessor#METRICS_REGISTRY}, scoped
+ * by the spill's directory.
+ * <br/><br/>
+ * NOTE: This class is not thread safe, it's meant to be driven by a single reporting thread.
+ */
+public class GraphiteSpill {
+
+  public static final Logger LOG = LoggerFactory.getLogger(GraphiteSpill.class);
+
+  /**
+   * The directory to spill to, spilling is disabled unless set.
+   */
+  public static final String SPILL_DIR = "metric.reporter.graphite.spill.dir";
+
+  public static final String MAX_SPILL_BYTES = "metric.reporter.graphite.spill.max.bytes";
+  private static final long DEFAULT_MAX_SPILL_BYTES = 256L * 1024 * 1024;
+
+  public static final String SEGMENT_BYTES = "metric.reporter.graphite.spill.segment.bytes";
+  private static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+
+  /**
+   * The maximal number of metrics replayed per second.
+   */
+  public static final String REPLAY_RATE = "metric.reporter.graphite.spill.replay.rate";
+  private static final int DEFAULT_REPLAY_RATE = 10000;
+
+  public static final MetricName SPILL_BYTES = new MetricName("MetricReporter", "graphite", "spill-bytes");
+  public static final MetricName REPLAY_LAG = new MetricName("MetricReporter", "graphite", "replay-lag-sec");
+  public static final MetricName DROPPED_SEGMENTS =
+          new MetricName("MetricReporter", "graphite", "spill-dropped-segments");
+
+  private static final int MAGIC = 0x53504c31;
+  private static final int HEADER_SIZE = 4;
+  private static final byte END = 0;
+  private static final byte NAME = 1;
+  private static final byte VALUE = 2;
+  private static final int NAME_RECORD_OVERHEAD = 1 + 4 + 2;
+  private static final int VALUE_RECORD_SIZE = 1 + 4 + 8 + 8;
+  private static final int MAX_NAME_LENGTH = 0xFFFF;
+
+  private static final String LOCK_FILE = "lock";
+  private static final String SEGMENT_SUFFIX = ".spill";
+  private static final long MAX_REPLAY_BURST_MS = TimeUnit.MINUTES.toMillis(1);
+
+  /**
+   * A memory-mapped segment file, along with its write (limit) and read positions.
+   */
+  private static class Segment {
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final Map<String, Integer> nameIds = Maps.newHashMap();
+    private final List<byte[]> names = Lists.newArrayList();
+    private int limit = HEADER_SIZE;
+    private int readPosition = HEADER_SIZE;
+
+    private Segment(final File file, final int size) throws IOException {
+      this.file = file;
+      final boolean exists = file.exists();
+      final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+      try {
+        if (!exists) {
+          randomAccessFile.setLength(size);
+        }
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, randomAccessFile.length());
+      } finally {
+        randomAccessFile.close();
+      }
+      if (!exists) {
+        buffer.putInt(0, MAGIC);
+      } else if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+        throw new IOException(String.format("%s is not a spill segment", file));
+      } else {
+        limit = recordsEnd();
+      }
+    }
+
+    private int recordSize(final int position) {
+      switch (buffer.get(position)) {
+        case NAME:
+          return position + NAME_RECORD_OVERHEAD <= buffer.capacity() ?
+                 NAME_RECORD_OVERHEAD + (buffer.getShort(position + 5) & 0xFFFF) :
+                 -1;
+        case VALUE:
+          return VALUE_RECORD_SIZE;
+        case END:
+        default:
+          return -1;
+      }
+    }
+
+    private int recordsEnd() {
+      int position = HEADER_SIZE;
+      while (position < buffer.capacity()) {
+        final int recordSize = recordSize(position);
+        if (recordSize < 0 || position + recordSize > buffer.capacity()) {
+          break;
+        }
+        position += recordSize;
+      }
+      return position;
+    }
+
+    private int recordSize(final String name, final int nameLength) {
+      return nameIds.containsKey(name) ? VALUE_RECORD_SIZE : NAME_RECORD_OVERHEAD + nameLength + VALUE_RECORD_SIZE;
+    }
+
+    private boolean hasRoomFor(final int bytes) {
+      return limit + bytes <= buffer.capacity();
+    }
+
+    /**
+     * Writes a record's payload before its type, so that a partially written record is never read.
+     */
+    private void append(final String name, final double value, final long timestamp) {
+
+      Integer nameId = nameIds.get(name);
+      if (nameId == null) {
+        final byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+        nameId = nameIds.size();
+        buffer.putInt(limit + 1, nameId);
+        buffer.putShort(limit + 5, (short) nameBytes.length);
+        buffer.position(limit + NAME_RECORD_OVERHEAD);
+        buffer.put(nameBytes);
+        buffer.put(limit, NAME);
+        limit += NAME_RECORD_OVERHEAD + nameBytes.length;
+        nameIds.put(name, nameId);
+      }
+
+      buffer.putInt(limit + 1, nameId);
+      buffer.putLong(limit + 5, timestamp);
+      buffer.putDouble(limit + 13, value);
+      buffer.put(limit, VALUE);
+      limit += VALUE_RECORD_SIZE;
+    }
+
+    private boolean hasUnread() {
+      return readPosition < limit;
+    }
+
+    private long nextTimestamp() {
+      int position = readPosition;
+      while (position < limit && buffer.get(position) == NAME) {
+        position += recordSize(position);
+      }
+      return position < limit ? buffer.getLong(position + 5) : Long.MAX_VALUE;
+    }
+
+    private void readName() {
+      final byte[] name = new byte[buffer.getShort(readPosition + 5) & 0xFFFF];
+      buffer.position(readPosition + NAME_RECORD_OVERHEAD);
+      buffer.get(name);
+      names.add(name);
+      readPosition += NAME_RECORD_OVERHEAD + name.length;
+    }
+
+    private void delete() {
+      if (!file.delete()) {
+        LOG.warn("Unable to delete spill segment {}", file);
+      }
+    }
+  }
+
+  private final File directory;
+  private final FileLock lock;
+  private final int segmentBytes;
+  private final int maxSegments;
+  private final int replayRate;
+
+  private final Deque<Segment> segments = new ArrayDeque<Segment>();
+  private Segment active;
+  private long nextSequence;
+  private long lastReplayAt = System.currentTimeMillis();
+
+  private volatile long spillBytes;
+  private volatile long oldestTimestamp = Long.MAX_VALUE;
+  private final MetricName droppedSegmentsName;
+  private final MetricName spillBytesName;
+  private final MetricName replayLagName;
+  private final Counter droppedSegments;
+
+  public GraphiteSpill(final File parentDirectory,
+                       final long maxSpillBytes,
+                       final int segmentBytes,
+                       final int replayRate) throws IOException {
+
+    this.segmentBytes = segmentBytes;
+    this.maxSegments = (int) Math.max(1, maxSpillBytes / segmentBytes);
+    this.replayRate = replayRate;
+
+    File directory = null;
+    FileLock lock = null;
+    for (int i = 0; lock == null; i++) {
+      directory = new File(parentDirectory, Integer.toString(i));
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException(String.format("Unable to create spill directory %s", directory));
+      }
+      lock = tryLock(new File(directory, LOCK_FILE));
+    }
+    this.directory = directory;
+    this.lock = lock;
+
+    recoverSegments();
+
+    final String scope = parentDirectory.getName() + "-" + directory.getName();
+    droppedSegmentsName = scoped(DROPPED_SEGMENTS, scope);
+    spillBytesName = scoped(SPILL_BYTES, scope);
+    replayLagName = scoped(REPLAY_LAG, scope);
+    droppedSegments = StormMetricProcessor.METRICS_REGISTRY.newCounter(droppedSegmentsName);
+    StormMetricProcessor.METRICS_REGISTRY.newGauge(spillBytesName, new Gauge<Long>() {
+      @Override
+      public Long value() {
+        return spillBytes;
+      }
+    });
+    StormMetricProcessor.METRICS_REGISTRY.newGauge(replayLagName, new Gauge<Long>() {
+      @Override
+      public Long value() {
+        return getReplayLagSecs(System.currentTimeMillis());
+      }
+    });
+  }
+
+  /**
+   * Creates a {@link GraphiteSpill} configured according to the specified configuration, provided
+   * {@value #SPILL_DIR} is set.
+   *
+   * @param config configuration parameters
+   * @param scope  a sub directory of the configured directory to spill to.
+   * @return A new {@link GraphiteSpill} instance, or null if spilling is not enabled.
+   */
+  public static GraphiteSpill from(final Map config, final String scope) {
+
+    if (!config.containsKey(SPILL_DIR)) {
+      return null;
+    }
+
+    try {
+      return new GraphiteSpill(new File(config.get(SPILL_DIR).toString(), scope),
+                               config.containsKey(MAX_SPILL_BYTES) ?
+                               Long.parseLong(config.get(MAX_SPILL_BYTES).toString()) :
+                               DEFAULT_MAX_SPILL_BYTES,
+                               config.containsKey(SEGMENT_BYTES) ?
+                               Integer.parseInt(config.get(SEGMENT_BYTES).toString()) :
+                               DEFAULT_SEGMENT_BYTES,
+                               config.containsKey(REPLAY_RATE) ?
+                               Integer.parseInt(config.get(REPLAY_RATE).toString()) :
+                               DEFAULT_REPLAY_RATE);
+    } catch (final IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static MetricName scoped(final MetricName name, final String scope) {
+    return new MetricName(name.getGroup(), name.getType(), name.getName(), scope);
+  }
+
+  private static FileLock tryLock(final File lockFile) throws IOException {
+    final FileChannel channel = new RandomAccessFile(lockFile, "rw").getChannel();
+    try {
+      final FileLock lock = channel.tryLock();
+      if (lock != null) {
+        return lock;
+      }
+    } catch (final OverlappingFileLockException e) {
+      // locked by another spill in this JVM
+    }
+    channel.close();
+    return null;
+  }
+
+  private void recoverSegments() throws IOException {
+
+    final File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(final File dir, final String name) {
+        return name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    Arrays.sort(files);
+
+    for (final File file : files) {
+      try {
+        final Segment segment = new Segment(file, segmentBytes);
+        if (segment.limit > HEADER_SIZE) {
+          segments.addLast(segment);
+          spillBytes += segment.limit - HEADER_SIZE;
+        } else {
+          segment.delete();
+        }
+      } catch (final IOException e) {
+        LOG.warn(String.format("Ignoring spill segment %s", file), e);
+      }
+      final String sequence = file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length());
+      nextSequence = Math.max(nextSequence, Long.parseLong(sequence) + 1);
+    }
+
+    if (!segments.isEmpty()) {
+      LOG.info("Recovered {} spilled bytes from {}", spillBytes, directory);
+      updateOldestTimestamp();
+    }
+  }
+
+  private Segment newSegment() throws IOException {
+
+    while (segments.size() >= maxSegments) {
+      final Segment dropped = segments.pollFirst();
+      spillBytes -= dropped.limit - dropped.readPosition;
+      dropped.delete();
+      droppedSegments.inc();
+      LOG.warn("Spill size cap reached, dropped segment {}", dropped.file);
+    }
+
+    final Segment segment = new Segment(new File(directory, String.format("%020d%s", nextSequence++, SEGMENT_SUFFIX)),
+                                        segmentBytes);
+    segments.addLast(segment);
+    return segment;
+  }
+
+  private void updateOldestTimestamp() {
+    long oldest = Long.MAX_VALUE;
+    for (final Segment segment : segments) {
+      if (segment.hasUnread()) {
+        oldest = segment.nextTimestamp();
+        break;
+      }
+    }
+    oldestTimestamp = oldest;
+  }
+
+  /**
+   * Appends a metric to the spill, see {@link GraphiteSender#send} for the meaning of the parameters.
+   */
+  public void spill(final byte[] path, final String field, final double value, final long timestamp) {
+
+    final String pathName = new String(path, Charsets.UTF_8);
+    final String name = field != null ? pathName + "." + field : pathName;
+    final int nameLength = name.getBytes(Charsets.UTF_8).length;
+
+    if (nameLength > MAX_NAME_LENGTH ||
+        HEADER_SIZE + NAME_RECORD_OVERHEAD + nameLength + VALUE_RECORD_SIZE > segmentBytes) {
+      LOG.warn("Unable to spill metric {}, its name is too long", name);
+      return;
+    }
+
+    try {
+      if (active == null || !active.hasRoomFor(active.recordSize(name, nameLength))) {
+        active = newSegment();
+      }
+      final int before = active.limit;
+      active.append(name, value, timestamp);
+      spillBytes += active.limit - before;
+      oldestTimestamp = Math.min(oldestTimestamp, timestamp);
+    } catch (final IOException e) {
+      LOG.error(String.format("Unable to spill metric %s", name), e);
+    }
+  }
+
+  /**
+   * @return true if there are spilled metrics awaiting replay.
+   */
+  public boolean hasBacklog() {
+    return spillBytes > 0;
+  }
+
+  /**
+   * Replays spilled metrics, oldest first, through the specified sender, for as long as it remains connected and the
+   * replay rate allows.
+   *
+   * @param sender the sender to replay metrics through.
+   * @return the number of metrics replayed.
+   */
+  public int replay(final GraphiteSender sender) {
+
+    final long now = System.currentTimeMillis();
+    final long budget = replayRate * Math.min(now - lastReplayAt, MAX_REPLAY_BURST_MS) / 1000;
+    lastReplayAt = now;
+
+    int replayed = 0;
+    while (replayed < budget && !segments.isEmpty() && sender.isConnected()) {
+      final Segment segment = segments.peekFirst();
+      if (segment.hasUnread()) {
+        final int position = segment.readPosition;
+        if (segment.buffer.get(position) == NAME) {
+          segment.readName();
+        } else {
+          segment.readPosition += VALUE_RECORD_SIZE;
+          sender.send(segment.names.get(segment.buffer.getInt(position + 1)),
+                      null,
+                      segment.buffer.getDouble(position + 13),
+                      segment.buffer.getLong(position + 5));
+          replayed++;
+        }
+        spillBytes -= segment.readPosition - position;
+      } else {
+        segments.pollFirst();
+        segment.delete();
+        if (segment == active) {
+          active = null;
+        }
+      }
+    }
+    sender.flush();
+
+    updateOldestTimestamp();
+    return replayed;
+  }
+
+  /**
+   * @return the number of spilled bytes awaiting replay.
+   */
+  public long getSpillBytes() {
+    return spillBytes;
+  }
+
+  /**
+   * @param now the current time (in milliseconds).
+   * @return the age (in seconds) of the oldest metric awaiting replay, or 0 if there is none.
+   */
+  public long getReplayLagSecs(final long now) {
+    final long oldest = oldestTimestamp;
+    return oldest == Long.MAX_VALUE ? 0 : Math.max(0, TimeUnit.MILLISECONDS.toSeconds(now) - oldest);
+  }
+
+  /**
+   * Flushes spilled metrics to disk and releases the spill's directory, along with the spill's own metrics.
+   */
+  public void close() {
+    StormMetricProcessor.METRICS_REGISTRY.removeMetric(droppedSegmentsName);
+    StormMetricProcessor.METRICS_REGISTRY.removeMetric(spillBytesName);
+    StormMetricProcessor.METRICS_REGISTRY.removeMetric(replayLagName);
+
+    for (final Segment segment : segments) {
+      segment.buffer.force();
+    }
+    try {
+      lock.release();
+      lock.channel().close();
+    } catch (final IOException e) {
+      LOG.debug("Unable to release spill directory lock", e);
+    }
+  }
+}
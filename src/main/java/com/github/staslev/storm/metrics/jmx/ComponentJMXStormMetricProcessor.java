@@ -0,0 +1,217 @@
+package com.github.staslev.storm.metrics.jmx;
+
+import com.github.staslev.storm.metrics.BatchStormMetricProcessor;
+import com.github.staslev.storm.metrics.Metric;
+import com.github.staslev.storm.metrics.StormMetricProcessor;
+import com.github.staslev.storm.metrics.TaskInfos;
+import com.github.staslev.storm.metrics.yammer.ReporterScheduler;
+import com.github.staslev.storm.metrics.yammer.StaleGaugeSweeper;
+import com.google.common.base.Supplier;
+import com.yammer.metrics.core.MetricName;
+import org.apache.storm.Config;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link StormMetricProcessor} that exposes metrics via JMX with a single MBean per component, named
+ * storm:topology=TopologyName,component=ComponentName, rather than an MBean per task and operation (see
+ * {@link com.github.staslev.storm.metrics.yammer.SimpleJMXStormMetricProcessor}).
+ * <br/>
+ * Each of the component's operations is an attribute, whose value is a table of the latest value reported by each
+ * of the component's tasks (see {@link ComponentMBean}). A component's MBean is registered when its first metric is
+ * processed, after which processing a metric merely sets a value, and the tables are only built when attributes are
+ * read. Values of tasks which have not reported within {@value StaleGaugeSweeper#STALE_GAUGE_INTERVALS} report
+ * intervals are dropped.
+ * <br/>
+ * MBeans are shared by all instances of this processor in a worker (i.e., by all metrics consumer tasks in it) that
+ * expose the same topology, and are unregistered once the last of them is closed (see
+ * {@link ReporterScheduler#share}). An MBean that fails to register is retried at most once per
+ * {@value #REGISTRATION_RETRY_MS} ms, meanwhile its component's metrics are kept (but not exposed).
+ */
+public class ComponentJMXStormMetricProcessor implements BatchStormMetricProcessor, Closeable {
+
+  public static final Logger LOG = LoggerFactory.getLogger(ComponentJMXStormMetricProcessor.class);
+
+  private static final String DEFAULT_TOPOLOGY_NAME = "default";
+
+  private static final long REGISTRATION_RETRY_MS = 60 * 1000;
+
+  /**
+   * The MBeans of a topology's components, per topology.
+   */
+  private static final ConcurrentMap<String, ComponentMBeans> COMPONENT_MBEANS =
+          new ConcurrentHashMap<String, ComponentMBeans>();
+
+  /**
+   * The MBeans of a single topology's components, shared by the processors exposing the topology. MBeans are only
+   * published (i.e., returned by {@link #registered}) once registered, MBeans which failed to register are pending
+   * until their registration is retried.
+   */
+  private static final class ComponentMBeans implements Closeable {
+
+    private final String topologyName;
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    private final ConcurrentMap<String, ComponentMBean> registered = new ConcurrentHashMap<String, ComponentMBean>();
+    private final Map<String, ComponentMBean> pending = new HashMap<String, ComponentMBean>();
+    private final Map<String, Long> retryAtMs = new HashMap<String, Long>();
+
+    private ComponentMBeans(final String topologyName) {
+      this.topologyName = topologyName;
+    }
+
+    private synchronized ComponentMBean register(final String component, final long staleAfterMs) {
+
+      final ComponentMBean registeredComponentMBean = registered.get(component);
+      if (registeredComponentMBean != null) {
+        return registeredComponentMBean;
+      }
+
+      final long now = System.currentTimeMillis();
+      final ComponentMBean pendingComponentMBean = pending.get(component);
+      if (pendingComponentMBean != null && now < retryAtMs.get(component)) {
+        return pendingComponentMBean;
+      }
+
+      final ComponentMBean componentMBean =
+              pendingComponentMBean != null ? pendingComponentMBean : new ComponentMBean(component, staleAfterMs);
+      try {
+        final ObjectName objectName = objectName(topologyName, component);
+        if (mBeanServer.isRegistered(objectName)) {
+          mBeanServer.unregisterMBean(objectName);
+        }
+        mBeanServer.registerMBean(componentMBean, objectName);
+        registered.put(component, componentMBean);
+        pending.remove(component);
+        retryAtMs.remove(component);
+        LOG.info("Registered MBean {}", objectName);
+      } catch (final JMException e) {
+        if (pendingComponentMBean == null) {
+          LOG.error(String.format("Unable to register MBean for component %s, retrying every %d ms",
+                                  component,
+                                  REGISTRATION_RETRY_MS), e);
+        } else {
+          LOG.warn("Still unable to register MBean for component {}: {}", component, e.toString());
+        }
+        pending.put(component, componentMBean);
+        retryAtMs.put(component, now + REGISTRATION_RETRY_MS);
+      }
+      return componentMBean;
+    }
+
+    /**
+     * Unregisters the topology's MBeans.
+     */
+    @Override
+    public synchronized void close() {
+      COMPONENT_MBEANS.remove(topologyName, this);
+      for (final String component : registered.keySet()) {
+        try {
+          mBeanServer.unregisterMBean(objectName(topologyName, component));
+        } catch (final JMException e) {
+          LOG.warn(String.format("Unable to unregister MBean for component %s", component), e);
+        }
+      }
+      registered.clear();
+      pending.clear();
+      retryAtMs.clear();
+    }
+  }
+
+  private final String topologyName;
+  private final ComponentMBeans componentMBeans;
+  private final ReporterScheduler.Handle componentMBeansHandle;
+  private final long staleAfterMs;
+
+  public ComponentJMXStormMetricProcessor(final Map config) {
+    this.topologyName = config.containsKey(Config.TOPOLOGY_NAME) ?
+                        config.get(Config.TOPOLOGY_NAME).toString() :
+                        DEFAULT_TOPOLOGY_NAME;
+    this.staleAfterMs = StaleGaugeSweeper.staleAfterMs(config);
+
+    componentMBeansHandle = ReporterScheduler.share("jmx-components-" + topologyName, new Supplier<Closeable>() {
+      @Override
+      public Closeable get() {
+        final ComponentMBeans newComponentMBeans = new ComponentMBeans(topologyName);
+        COMPONENT_MBEANS.put(topologyName, newComponentMBeans);
+        return newComponentMBeans;
+      }
+    });
+    this.componentMBeans = COMPONENT_MBEANS.get(topologyName);
+  }
+
+  private static String quoteIfNeeded(final String value) {
+    for (int i = 0; i < value.length(); i++) {
+      switch (value.charAt(i)) {
+        case ',':
+        case '=':
+        case ':':
+        case '"':
+        case '*':
+        case '?':
+        case '\n':
+          return ObjectName.quote(value);
+        default:
+      }
+    }
+    return value;
+  }
+
+  private static ObjectName objectName(final String topologyName, final String component) throws JMException {
+    return new ObjectName("storm:topology=" + quoteIfNeeded(topologyName) +
+                          ",component=" + quoteIfNeeded(component));
+  }
+
+  ObjectName objectName(final String component) throws JMException {
+    return objectName(topologyName, component);
+  }
+
+  private ComponentMBean componentMBean(final String component) {
+    final ComponentMBean componentMBean = componentMBeans.registered.get(component);
+    return componentMBean != null ? componentMBean : componentMBeans.register(component, staleAfterMs);
+  }
+
+  @Override
+  public MetricName name(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+    return new MetricName("storm",
+                          topologyName,
+                          metric.getComponent(),
+                          metric.getOperation(),
+                          taskInfo.srcWorkerHost + "-" + TaskInfos.port(taskInfo) + "-" + TaskInfos.taskId(taskInfo));
+  }
+
+  @Override
+  public void process(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+    try {
+      componentMBean(metric.getComponent()).update(metric.getOperation(), metric.getValue(), taskInfo);
+    } catch (final Exception e) {
+      LOG.error(String.format("Unable to process metric %s", name(metric, taskInfo).toString()), e);
+    }
+  }
+
+  @Override
+  public void process(final Collection<Metric> metrics, final IMetricsConsumer.TaskInfo taskInfo) {
+    for (final Metric metric : metrics) {
+      process(metric, taskInfo);
+    }
+  }
+
+  /**
+   * Releases this processor's reference to the topology's MBeans, unregistering them if it was the last one.
+   */
+  @Override
+  public void close() {
+    componentMBeansHandle.release();
+  }
+}
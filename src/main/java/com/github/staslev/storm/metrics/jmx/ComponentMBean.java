@@ -0,0 +1,197 @@
+package com.github.staslev.storm.metrics.jmx;
+
+import com.github.staslev.storm.metrics.ConcurrentLongMap;
+import com.github.staslev.storm.metrics.TaskInfos;
+import com.google.common.collect.Lists;
+import org.apache.storm.metric.api.IMetricsConsumer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.ReflectionException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenMBeanAttributeInfoSupport;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An MBean exposing the metrics of all tasks of a single component, with an attribute per operation, whose value is
+ * a table of the latest value reported by each task.
+ * <br/>
+ * Updates only set the value of the task's entry, the tables are built when attributes are read. Entries that have
+ * not been updated within the configured time are considered stale, and are removed when read.
+ */
+class ComponentMBean implements DynamicMBean {
+
+  private static final String[] ITEM_NAMES = {"task", "host", "port", "taskId", "value"};
+  private static final String[] INDEX_NAMES = {"task"};
+
+  private static final CompositeType TASK_VALUE_TYPE;
+  private static final TabularType TASK_VALUES_TYPE;
+
+  static {
+    try {
+      TASK_VALUE_TYPE = new CompositeType("TaskValue",
+                                          "The latest value reported by a task",
+                                          ITEM_NAMES,
+                                          new String[]{"host-port-task", "worker host", "worker port", "task id",
+                                                       "value"},
+                                          new OpenType<?>[]{SimpleType.STRING, SimpleType.STRING,
+                                                            SimpleType.INTEGER, SimpleType.INTEGER,
+                                                            SimpleType.DOUBLE});
+      TASK_VALUES_TYPE = new TabularType("TaskValues", "The latest values reported by tasks", TASK_VALUE_TYPE,
+                                         INDEX_NAMES);
+    } catch (final OpenDataException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /**
+   * The latest value of an operation reported by a task.
+   */
+  private static final class TaskValue {
+
+    private final String host;
+    private final int port;
+    private final int taskId;
+    private final String task;
+    private volatile double value;
+    private volatile long lastUpdated;
+
+    private TaskValue(final IMetricsConsumer.TaskInfo taskInfo) {
+      this.host = taskInfo.srcWorkerHost;
+      this.port = taskInfo.srcWorkerPort;
+      this.taskId = taskInfo.srcTaskId;
+      this.task = host + "-" + TaskInfos.port(taskInfo) + "-" + TaskInfos.taskId(taskInfo);
+    }
+
+    private boolean isFor(final IMetricsConsumer.TaskInfo taskInfo) {
+      return port == taskInfo.srcWorkerPort && host.equals(taskInfo.srcWorkerHost);
+    }
+  }
+
+  private final String component;
+  private final long staleAfterMs;
+  private final ConcurrentMap<String, ConcurrentLongMap<TaskValue>> operations =
+          new ConcurrentHashMap<String, ConcurrentLongMap<TaskValue>>();
+
+  ComponentMBean(final String component, final long staleAfterMs) {
+    this.component = component;
+    this.staleAfterMs = staleAfterMs;
+  }
+
+  void update(final String operation, final double value, final IMetricsConsumer.TaskInfo taskInfo) {
+
+    ConcurrentLongMap<TaskValue> taskValues = operations.get(operation);
+    if (taskValues == null) {
+      final ConcurrentLongMap<TaskValue> newTaskValues = new ConcurrentLongMap<TaskValue>();
+      taskValues = operations.putIfAbsent(operation, newTaskValues);
+      taskValues = taskValues != null ? taskValues : newTaskValues;
+    }
+
+    TaskValue taskValue = taskValues.get(taskInfo.srcTaskId);
+    if (taskValue == null || !taskValue.isFor(taskInfo)) {
+      taskValue = new TaskValue(taskInfo);
+      taskValues.put(taskInfo.srcTaskId, taskValue);
+    }
+
+    taskValue.value = value;
+    taskValue.lastUpdated = System.currentTimeMillis();
+  }
+
+  private TabularData taskValues(final ConcurrentLongMap<TaskValue> taskValues) throws OpenDataException {
+
+    final long now = System.currentTimeMillis();
+    final TabularDataSupport table = new TabularDataSupport(TASK_VALUES_TYPE);
+
+    for (final TaskValue taskValue : taskValues.values()) {
+      if (staleAfterMs > 0 && now - taskValue.lastUpdated > staleAfterMs) {
+        taskValues.remove(taskValue.taskId, taskValue);
+      } else {
+        table.put(new CompositeDataSupport(TASK_VALUE_TYPE,
+                                           ITEM_NAMES,
+                                           new Object[]{taskValue.task, taskValue.host, taskValue.port,
+                                                        taskValue.taskId, taskValue.value}));
+      }
+    }
+
+    return table;
+  }
+
+  @Override
+  public Object getAttribute(final String attribute) throws AttributeNotFoundException, MBeanException,
+                                                            ReflectionException {
+    final ConcurrentLongMap<TaskValue> taskValues = operations.get(attribute);
+    if (taskValues == null) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    try {
+      return taskValues(taskValues);
+    } catch (final OpenDataException e) {
+      throw new MBeanException(e);
+    }
+  }
+
+  @Override
+  public AttributeList getAttributes(final String[] attributes) {
+    final AttributeList attributeList = new AttributeList();
+    for (final String attribute : attributes) {
+      try {
+        attributeList.add(new Attribute(attribute, getAttribute(attribute)));
+      } catch (final Exception e) {
+        // attributes that cannot be read are omitted, as per the DynamicMBean contract
+      }
+    }
+    return attributeList;
+  }
+
+  @Override
+  public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException(String.format("%s is read only", attribute.getName()));
+  }
+
+  @Override
+  public AttributeList setAttributes(final AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(final String actionName, final Object[] params, final String[] signature)
+          throws ReflectionException {
+    throw new ReflectionException(new NoSuchMethodException(actionName));
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+
+    final List<MBeanAttributeInfo> attributes = Lists.newArrayList();
+    for (final Map.Entry<String, ConcurrentLongMap<TaskValue>> operation : operations.entrySet()) {
+      attributes.add(new OpenMBeanAttributeInfoSupport(operation.getKey(),
+                                                       operation.getKey(),
+                                                       TASK_VALUES_TYPE,
+                                                       true,
+                                                       false,
+                                                       false));
+    }
+
+    return new MBeanInfo(getClass().getName(),
+                         String.format("Metrics of component %s, per task", component),
+                         attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+                         null,
+                         null,
+                         null);
+  }
+}
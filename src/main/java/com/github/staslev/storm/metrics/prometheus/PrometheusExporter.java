@@ -0,0 +1,289 @@
+package com.github.staslev.storm.metrics.prometheus;
+
+import com.github.staslev.storm.metrics.ConcurrentLongMap;
+import com.github.staslev.storm.metrics.MetricDimensions;
+import com.github.staslev.storm.metrics.MetricKey;
+import com.github.staslev.storm.metrics.TaskInfos;
+import com.google.common.base.Charsets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Keeps the latest value of every series reported to it, and serves them over HTTP (at /metrics) in Prometheus'
+ * text exposition format.
+ * <br/>
+ * Series are grouped by operation name (each being a metric family named storm_&lt;name&gt;), with the stream (or
+ * sub-key) of a data point whose value is a Map as a label, so that the series of all streams share a family. Series
+ * are looked up by the interned ids of their {@link MetricKey}, so updates neither hash nor compare strings. Their
+ * names and labels are rendered once, when a series first appears. A scrape streams the series straight into a
+ * buffered response, without building the exposition in memory. Series that have not been updated within the
+ * configured time are considered stale, and are removed when scraped.
+ * <br/>
+ * Since the exporter owns a server socket, there is (at most) a single exporter per worker, see {@link #start}, which
+ * stops serving once closed.
+ */
+public class PrometheusExporter implements Closeable {
+
+  public static final Logger LOG = LoggerFactory.getLogger(PrometheusExporter.class);
+
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final int RESPONSE_BUFFER_SIZE = 64 * 1024;
+  private static final byte[] INF = "+Inf".getBytes(Charsets.US_ASCII);
+  private static final byte[] NEGATIVE_INF = "-Inf".getBytes(Charsets.US_ASCII);
+
+  private static PrometheusExporter exporter;
+
+  /**
+   * The latest value of a single series, along with its rendered name and labels.
+   */
+  private static final class Series {
+
+    private final MetricKey key;
+    private final byte[] nameAndLabels;
+    private volatile double value;
+    private volatile long lastUpdated;
+
+    private Series(final MetricKey key, final byte[] nameAndLabels) {
+      this.key = key;
+      this.nameAndLabels = nameAndLabels;
+    }
+  }
+
+  /**
+   * The series of a single operation name, keyed by their {@link MetricKey}, which is hashed and compared using ids
+   * only.
+   */
+  private static final class Family {
+
+    private final String name;
+    private final byte[] typeLine;
+    private final ConcurrentMap<MetricKey, Series> series = new ConcurrentHashMap<MetricKey, Series>();
+
+    private Family(final String name) {
+      this.name = name;
+      this.typeLine = ("# TYPE " + name + " gauge\n").getBytes(Charsets.UTF_8);
+    }
+  }
+
+  private final HttpServer server;
+  private final ExecutorService serverExecutor;
+  private final long staleAfterMs;
+  private final ConcurrentLongMap<Family> familiesByKey = new ConcurrentLongMap<Family>();
+  private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<String, Family>();
+
+  private PrometheusExporter(final int port, final long staleAfterMs) throws IOException {
+    this.staleAfterMs = staleAfterMs;
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.createContext("/metrics", new HttpHandler() {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        try {
+          exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+          exchange.sendResponseHeaders(200, 0);
+          final OutputStream response = new BufferedOutputStream(exchange.getResponseBody(), RESPONSE_BUFFER_SIZE);
+          write(response, System.currentTimeMillis());
+          response.close();
+        } catch (final IOException e) {
+          LOG.warn("Unable to serve metrics", e);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    this.serverExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable runnable) {
+        final Thread thread = new Thread(runnable, "metric-reporter-prometheus");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    server.setExecutor(serverExecutor);
+    server.start();
+    LOG.info("Serving Prometheus metrics on port {}", getPort());
+  }
+
+  /**
+   * Starts serving metrics on the specified port, unless an exporter has already been started.
+   *
+   * @param port         the port to listen on, 0 for an ephemeral port.
+   * @param staleAfterMs the time (in milliseconds) after which a series which has not been updated is stale, 0 to
+   *                     never consider series stale.
+   * @return the worker's exporter.
+   */
+  public static synchronized PrometheusExporter start(final int port, final long staleAfterMs) throws IOException {
+    if (exporter == null) {
+      exporter = new PrometheusExporter(port, staleAfterMs);
+    }
+    return exporter;
+  }
+
+  /**
+   * @return the port metrics are served on.
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Stops serving metrics, after which {@link #start} starts a new exporter.
+   */
+  @Override
+  public void close() {
+    synchronized (PrometheusExporter.class) {
+      if (exporter == this) {
+        exporter = null;
+      }
+    }
+    final int port = getPort();
+    server.stop(0);
+    serverExecutor.shutdown();
+    LOG.info("Stopped serving Prometheus metrics on port {}", port);
+  }
+
+  private static String sanitizeName(final String operation) {
+    final StringBuilder name = new StringBuilder("storm_");
+    for (int i = 0; i < operation.length(); i++) {
+      final char c = operation.charAt(i);
+      name.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' ? c : '_');
+    }
+    return name.toString();
+  }
+
+  private static void appendLabel(final StringBuilder labels, final String name, final String value) {
+    labels.append(labels.length() == 0 ? '{' : ',').append(name).append("=\"");
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c == '\\' || c == '"') {
+        labels.append('\\').append(c);
+      } else if (c == '\n') {
+        labels.append("\\n");
+      } else {
+        labels.append(c);
+      }
+    }
+    labels.append('"');
+  }
+
+  private static byte[] nameAndLabels(final String name, final String topology, final MetricKey key) {
+    final StringBuilder labels = new StringBuilder();
+    appendLabel(labels, "topology", topology);
+    appendLabel(labels, "component", key.getComponent());
+    appendLabel(labels, "task", TaskInfos.taskId(key.getTaskId()));
+    appendLabel(labels, "host", key.getHost());
+    appendLabel(labels, "port", TaskInfos.port(key.getPort()));
+    if (key.getStreamId() != MetricDimensions.NONE) {
+      appendLabel(labels, "stream", key.getStream());
+    }
+    return (name + labels.append("} ").toString()).getBytes(Charsets.UTF_8);
+  }
+
+  /**
+   * Families are looked up by the operation's name id, but are shared by all names that sanitize to the same family
+   * name, so that a family is never exposed twice.
+   */
+  private Family family(final MetricKey key) {
+
+    final long familyKey = key.getNameId();
+    final Family family = familiesByKey.get(familyKey);
+    if (family != null) {
+      return family;
+    }
+
+    final Family newFamily = new Family(sanitizeName(key.getName()));
+    final Family existingFamily = families.putIfAbsent(newFamily.name, newFamily);
+    final Family keyFamily = existingFamily != null ? existingFamily : newFamily;
+    familiesByKey.put(familyKey, keyFamily);
+    return keyFamily;
+  }
+
+  /**
+   * Sets the latest value of a series.
+   */
+  public void update(final String topology, final MetricKey key, final double value) {
+
+    final Family family = family(key);
+
+    Series series = family.series.get(key);
+    if (series == null) {
+      series = new Series(key, nameAndLabels(family.name, topology, key));
+      family.series.put(key, series);
+    }
+
+    series.value = value;
+    series.lastUpdated = System.currentTimeMillis();
+  }
+
+  /**
+   * Writes all (non stale) series in Prometheus' text exposition format.
+   *
+   * @param output the stream to write to.
+   * @param now    the current time (in milliseconds).
+   */
+  void write(final OutputStream output, final long now) throws IOException {
+
+    final byte[] digits = new byte[20];
+
+    for (final Family family : families.values()) {
+      boolean typeWritten = false;
+      for (final Series series : family.series.values()) {
+        if (staleAfterMs > 0 && now - series.lastUpdated > staleAfterMs) {
+          family.series.remove(series.key, series);
+          continue;
+        }
+        if (!typeWritten) {
+          output.write(family.typeLine);
+          typeWritten = true;
+        }
+        output.write(series.nameAndLabels);
+        writeValue(output, series.value, digits);
+        output.write('\n');
+      }
+    }
+  }
+
+  /**
+   * Writes integral values digit by digit, which is the common case for Storm's counts, and any other value using
+   * {@link Double#toString}.
+   */
+  private static void writeValue(final OutputStream output, final double value, final byte[] digits)
+          throws IOException {
+
+    if (Double.isInfinite(value)) {
+      output.write(value > 0 ? INF : NEGATIVE_INF);
+      return;
+    }
+
+    final long integral = (long) value;
+    if (integral != value || integral == Long.MIN_VALUE) {
+      output.write(Double.toString(value).getBytes(Charsets.US_ASCII));
+      return;
+    }
+
+    if (integral < 0) {
+      output.write('-');
+    }
+    long remaining = Math.abs(integral);
+    int position = digits.length;
+    do {
+      digits[--position] = (byte) ('0' + remaining % 10);
+      remaining /= 10;
+    } while (remaining > 0);
+    output.write(digits, position, digits.length - position);
+  }
+}
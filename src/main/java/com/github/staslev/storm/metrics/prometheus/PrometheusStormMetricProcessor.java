@@ -0,0 +1,132 @@
+package com.github.staslev.storm.metrics.prometheus;
+
+import com.github.staslev.storm.metrics.BatchStormMetricProcessor;
+import com.github.staslev.storm.metrics.Metric;
+import com.github.staslev.storm.metrics.MetricAggregator;
+import com.github.staslev.storm.metrics.MetricKey;
+import com.github.staslev.storm.metrics.StormMetricProcessor;
+import com.github.staslev.storm.metrics.TaskInfos;
+import com.github.staslev.storm.metrics.yammer.ReporterScheduler;
+import com.github.staslev.storm.metrics.yammer.StaleGaugeSweeper;
+import com.google.common.base.Supplier;
+import com.yammer.metrics.core.MetricName;
+import org.apache.storm.Config;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A {@link StormMetricProcessor} that exposes the latest value of each metric for Prometheus to scrape, via an HTTP
+ * endpoint served by the metrics consumer worker (see {@link PrometheusExporter}).
+ * <br/>
+ * Each metric is exposed as a series of the storm_&lt;name&gt; family, where name is the operation's name without its
+ * stream (see {@link MetricKey#getName()}), labeled with its topology, component, task, host, port and stream (if
+ * any), e.g., storm_execute_count{stream="default"}. Capacity metrics and {@link MetricAggregator} rollups are keyed
+ * the same way, e.g., storm_execute_capacity{stream="default"} and storm_execute_count_sum{stream="default"}, while
+ * metrics without a stream (e.g., storm_execute_capacity_total) have no stream label. Series of tasks which have not
+ * reported within {@value StaleGaugeSweeper#STALE_GAUGE_INTERVALS} report intervals are dropped.
+ * <br/>
+ * The exporter is shared by all processors in a worker (see {@link ReporterScheduler#share}), and stops serving once
+ * the last of them is closed. If the exporter cannot be started (e.g., since its port is taken by another worker on
+ * the same host), the error is logged and the processor exposes no metrics, rather than failing the metrics consumer.
+ */
+public class PrometheusStormMetricProcessor implements BatchStormMetricProcessor, Closeable {
+
+  public static final Logger LOG = LoggerFactory.getLogger(PrometheusStormMetricProcessor.class);
+
+  /**
+   * The port to serve metrics on, shared by all metrics consumer tasks in a worker.
+   */
+  public static final String PROMETHEUS_PORT = "metric.reporter.prometheus.port";
+  private static final int DEFAULT_PROMETHEUS_PORT = 9102;
+
+  private static final String DEFAULT_TOPOLOGY_NAME = "default";
+
+  private static final String EXPORTER_NAME = "prometheus";
+
+  private final String topologyName;
+  private final PrometheusExporter exporter;
+  private final ReporterScheduler.Handle exporterHandle;
+
+  public PrometheusStormMetricProcessor(final Map config) {
+
+    topologyName = config.containsKey(Config.TOPOLOGY_NAME) ?
+                   config.get(Config.TOPOLOGY_NAME).toString() :
+                   DEFAULT_TOPOLOGY_NAME;
+
+    final int port = config.containsKey(PROMETHEUS_PORT) ?
+                     Integer.parseInt(config.get(PROMETHEUS_PORT).toString()) :
+                     DEFAULT_PROMETHEUS_PORT;
+    final long staleAfterMs = StaleGaugeSweeper.staleAfterMs(config);
+
+    PrometheusExporter startedExporter = null;
+    ReporterScheduler.Handle startedExporterHandle = null;
+    try {
+      startedExporterHandle = ReporterScheduler.share(EXPORTER_NAME, new Supplier<PrometheusExporter>() {
+        @Override
+        public PrometheusExporter get() {
+          try {
+            return PrometheusExporter.start(port, staleAfterMs);
+          } catch (final IOException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      });
+      startedExporter = PrometheusExporter.start(port, staleAfterMs);
+    } catch (final Exception e) {
+      LOG.error(String.format("Unable to serve Prometheus metrics on port %d, metrics will not be exposed", port), e);
+    }
+    exporter = startedExporter;
+    exporterHandle = startedExporterHandle;
+  }
+
+  /**
+   * @return the port metrics are served on, or -1 if the exporter could not be started.
+   */
+  public int getPort() {
+    return exporter != null ? exporter.getPort() : -1;
+  }
+
+  @Override
+  public MetricName name(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+    return new MetricName(Metric.joinNameFragments(taskInfo.srcWorkerHost,
+                                                   TaskInfos.port(taskInfo),
+                                                   metric.getComponent()),
+                          TaskInfos.taskId(taskInfo),
+                          metric.getOperation());
+  }
+
+  @Override
+  public void process(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+    if (exporter == null) {
+      return;
+    }
+    try {
+      exporter.update(topologyName, MetricKey.of(metric, taskInfo), metric.getValue());
+    } catch (final Exception e) {
+      LOG.error(String.format("Unable to process metric %s", name(metric, taskInfo).toString()), e);
+    }
+  }
+
+  @Override
+  public void process(final Collection<Metric> metrics, final IMetricsConsumer.TaskInfo taskInfo) {
+    for (final Metric metric : metrics) {
+      process(metric, taskInfo);
+    }
+  }
+
+  /**
+   * Releases this processor's reference to the exporter, which stops serving if it was the last one.
+   */
+  @Override
+  public void close() {
+    if (exporterHandle != null) {
+      exporterHandle.release();
+    }
+  }
+}
@@ -0,0 +1,185 @@
+package com.github.staslev.storm.metrics.statsd;
+
+import com.github.staslev.storm.metrics.BatchStormMetricProcessor;
+import com.github.staslev.storm.metrics.Metric;
+import com.github.staslev.storm.metrics.StormMetricProcessor;
+import com.github.staslev.storm.metrics.TaskInfos;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+import org.apache.storm.Config;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A {@link StormMetricProcessor} that sends metrics as StatsD gauges over UDP, straight from the processing path,
+ * without going through {@link StormMetricProcessor#METRICS_REGISTRY} or a periodic reporter.
+ * <br/>
+ * Metrics are named according to the same hierarchy
+ * {@link com.github.staslev.storm.metrics.yammer.SimpleStormMetricProcessor} uses, i.e.,
+ * Storm.TopologyName.WorkerHost.WorkerPort.ComponentName.TaskId.OperationName, and the metrics of a batch are packed
+ * into as few datagrams as their maximal size allows.
+ * <br/>
+ * Datagrams are sent over a non-blocking channel, those that cannot be sent right away are dropped rather than block
+ * the caller. The number of dropped datagrams is reported via {@link StormMetricProcessor#METRICS_REGISTRY}. The
+ * channel is closed once the processor is closed.
+ */
+public class StatsdStormMetricProcessor implements BatchStormMetricProcessor, Closeable {
+
+  public static final Logger LOG = LoggerFactory.getLogger(StatsdStormMetricProcessor.class);
+
+  public static final String STATSD_HOST = "metric.reporter.statsd.host";
+  private static final String DEFAULT_STATSD_HOST = "localhost";
+
+  public static final String STATSD_PORT = "metric.reporter.statsd.port";
+  private static final int DEFAULT_STATSD_PORT = 8125;
+
+  /**
+   * The maximal size (in bytes) of a datagram, should not exceed the path MTU less the IP and UDP headers.
+   */
+  public static final String MAX_DATAGRAM_SIZE = "metric.reporter.statsd.max.datagram.size";
+  private static final int DEFAULT_MAX_DATAGRAM_SIZE = 1432;
+
+  public static final MetricName DROPPED_DATAGRAMS = new MetricName("MetricReporter", "statsd", "dropped-datagrams");
+
+  private static final String DEFAULT_TOPOLOGY_NAME = "default";
+
+  private final String topologyName;
+  private final int maxDatagramSize;
+  private final DatagramChannel channel;
+  private final Counter droppedDatagrams;
+
+  private final ThreadLocal<ByteBuffer> datagrams = new ThreadLocal<ByteBuffer>() {
+    @Override
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocateDirect(maxDatagramSize);
+    }
+  };
+
+  public StatsdStormMetricProcessor(final Map config) {
+
+    topologyName = config.containsKey(Config.TOPOLOGY_NAME) ?
+                   config.get(Config.TOPOLOGY_NAME).toString() :
+                   DEFAULT_TOPOLOGY_NAME;
+
+    maxDatagramSize = config.containsKey(MAX_DATAGRAM_SIZE) ?
+                      Integer.parseInt(config.get(MAX_DATAGRAM_SIZE).toString()) :
+                      DEFAULT_MAX_DATAGRAM_SIZE;
+
+    final String host = config.containsKey(STATSD_HOST) ? config.get(STATSD_HOST).toString() : DEFAULT_STATSD_HOST;
+    final int port = config.containsKey(STATSD_PORT) ?
+                     Integer.parseInt(config.get(STATSD_PORT).toString()) :
+                     DEFAULT_STATSD_PORT;
+
+    try {
+      channel = DatagramChannel.open();
+      channel.configureBlocking(false);
+      channel.connect(new InetSocketAddress(host, port));
+    } catch (final IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    droppedDatagrams = METRICS_REGISTRY.newCounter(DROPPED_DATAGRAMS);
+  }
+
+  private static String sanitize(final String nameFragment) {
+    return nameFragment.replace(':', '_').replace('|', '_').replace('@', '_').replace(' ', '-');
+  }
+
+  String path(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+    return sanitize(Metric.joinNameFragments("Storm",
+                                             topologyName,
+                                             taskInfo.srcWorkerHost,
+                                             TaskInfos.port(taskInfo),
+                                             metric.getComponent(),
+                                             TaskInfos.taskId(taskInfo),
+                                             metric.getOperation()));
+  }
+
+  /**
+   * StatsD treats signed gauge values as deltas, so a negative value is sent as a reset to 0 followed by the value.
+   */
+  private byte[] encode(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+    final String path = path(metric, taskInfo);
+    final String gauge = path + ":" + Double.toString(metric.getValue()) + "|g";
+    return (metric.getValue() >= 0 ? gauge : path + ":0|g\n" + gauge).getBytes(Charsets.UTF_8);
+  }
+
+  private void send(final ByteBuffer datagram) {
+    datagram.flip();
+    try {
+      if (channel.write(datagram) == 0) {
+        droppedDatagrams.inc();
+      }
+    } catch (final IOException e) {
+      droppedDatagrams.inc();
+      LOG.debug("Unable to send datagram", e);
+    }
+    datagram.clear();
+  }
+
+  @Override
+  public MetricName name(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+    return new MetricName(Metric.joinNameFragments(taskInfo.srcWorkerHost,
+                                                   TaskInfos.port(taskInfo),
+                                                   metric.getComponent()),
+                          TaskInfos.taskId(taskInfo),
+                          metric.getOperation());
+  }
+
+  @Override
+  public void process(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+    process(ImmutableList.of(metric), taskInfo);
+  }
+
+  @Override
+  public void process(final Collection<Metric> metrics, final IMetricsConsumer.TaskInfo taskInfo) {
+
+    final ByteBuffer datagram = datagrams.get();
+
+    for (final Metric metric : metrics) {
+      try {
+        final byte[] line = encode(metric, taskInfo);
+        if (line.length > maxDatagramSize) {
+          LOG.warn(String.format("Metric %s exceeds the maximal datagram size", path(metric, taskInfo)));
+          continue;
+        }
+        if (datagram.position() > 0 && datagram.remaining() < line.length + 1) {
+          send(datagram);
+        }
+        if (datagram.position() > 0) {
+          datagram.put((byte) '\n');
+        }
+        datagram.put(line);
+      } catch (final Exception e) {
+        LOG.error(String.format("Unable to process metric %s", path(metric, taskInfo)), e);
+      }
+    }
+
+    if (datagram.position() > 0) {
+      send(datagram);
+    }
+  }
+
+  /**
+   * Closes the channel datagrams are sent over.
+   */
+  @Override
+  public void close() {
+    try {
+      channel.close();
+    } catch (final IOException e) {
+      LOG.warn("Unable to close the StatsD channel", e);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * A settable gauge specialized for primitive double values.
+ * <br/>
+ * Unlike a {@link SettableGauge SettableGauge&lt;Double&gt;}, setting its value does not box it, the value is kept as
+ * its raw long bits and is only boxed once a reporter asks for it.
+ */
+public class DoubleGauge extends Gauge<Double> implements Timestamped {
+
+    private volatile long valueBits;
+    private volatile long lastUpdated;
+
+    public DoubleGauge(final double value) {
+        set(value);
+    }
+
+    public void set(final double value) {
+        this.valueBits = Double.doubleToRawLongBits(value);
+        this.lastUpdated = System.currentTimeMillis();
+    }
+
+    public double doubleValue() {
+        return Double.longBitsToDouble(valueBits);
+    }
+
+    @Override
+    public long getLastUpdated() {
+        return lastUpdated;
+    }
+
+    @Override
+    public Double value() {
+        return doubleValue();
+    }
+}
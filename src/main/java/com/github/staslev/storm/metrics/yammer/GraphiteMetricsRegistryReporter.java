@@ -0,0 +1,173 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import com.github.staslev.storm.metrics.graphite.GraphiteSender;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Metered;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricProcessor;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.MetricsRegistryListener;
+import com.yammer.metrics.core.Sampling;
+import com.yammer.metrics.core.Summarizable;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.stats.Snapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Periodically reports the metrics in a {@link MetricsRegistry} to Graphite via a {@link GraphiteSender}, using the
+ * same paths yammer's {@link com.yammer.metrics.reporting.GraphiteReporter} does, i.e.,
+ * prefix.group.type[.scope].name.field.
+ * <br/>
+ * Unlike yammer's reporter, metrics are neither sorted nor grouped before being reported, and their (encoded) paths
+ * are cached for as long as they are registered, so a report boils down to encoding values into batches.
+ */
+public class GraphiteMetricsRegistryReporter implements Runnable, Closeable, MetricProcessor<Long> {
+
+    public static final Logger LOG = LoggerFactory.getLogger(GraphiteMetricsRegistryReporter.class);
+
+    private final MetricsRegistry metricsRegistry;
+    private final GraphiteSender graphiteSender;
+    private final String prefix;
+    private final ConcurrentMap<MetricName, byte[]> paths = new ConcurrentHashMap<MetricName, byte[]>();
+    private final MetricsRegistryListener pathEvictor;
+
+    public GraphiteMetricsRegistryReporter(final MetricsRegistry metricsRegistry,
+                                           final GraphiteSender graphiteSender,
+                                           final String prefix) {
+        this.metricsRegistry = metricsRegistry;
+        this.graphiteSender = graphiteSender;
+        this.prefix = prefix != null ? prefix + "." : "";
+        pathEvictor = new MetricsRegistryListener() {
+            @Override
+            public void onMetricAdded(final MetricName name, final Metric metric) {
+            }
+
+            @Override
+            public void onMetricRemoved(final MetricName name) {
+                paths.remove(name);
+            }
+        };
+        metricsRegistry.addListener(pathEvictor);
+    }
+
+    private byte[] path(final MetricName name) {
+        byte[] path = paths.get(name);
+        if (path == null) {
+            final StringBuilder builder = new StringBuilder(prefix)
+                    .append(name.getGroup())
+                    .append('.')
+                    .append(name.getType())
+                    .append('.');
+            if (name.hasScope()) {
+                builder.append(name.getScope()).append('.');
+            }
+            path = GraphiteSender.encodePath(builder.append(name.getName()).toString());
+            paths.put(name, path);
+        }
+        return path;
+    }
+
+    /**
+     * Reports all metrics currently registered, timestamped with the specified epoch, followed by previously spilled
+     * metrics (if any).
+     *
+     * @param epoch the report's timestamp (in seconds).
+     */
+    public synchronized void report(final long epoch) {
+        for (final Map.Entry<MetricName, Metric> entry : metricsRegistry.allMetrics().entrySet()) {
+            try {
+                entry.getValue().processWith(this, entry.getKey(), epoch);
+            } catch (final Exception e) {
+                LOG.error(String.format("Unable to report metric %s", entry.getKey()), e);
+            }
+        }
+        graphiteSender.flush();
+        graphiteSender.replay();
+    }
+
+    @Override
+    public void run() {
+        try {
+            report(System.currentTimeMillis() / 1000);
+        } catch (final Exception e) {
+            LOG.error("Unable to report metrics to Graphite", e);
+        }
+    }
+
+    /**
+     * Stops listening to the registry, and closes the {@link GraphiteSender}, flushing whatever it has buffered.
+     */
+    @Override
+    public synchronized void close() {
+        metricsRegistry.removeListener(pathEvictor);
+        graphiteSender.close();
+    }
+
+    @Override
+    public void processGauge(final MetricName name, final Gauge<?> gauge, final Long epoch) {
+        if (gauge instanceof DoubleGauge) {
+            graphiteSender.send(path(name), "value", ((DoubleGauge) gauge).doubleValue(), epoch);
+        } else {
+            final Object value = gauge.value();
+            if (value instanceof Number) {
+                graphiteSender.send(path(name), "value", ((Number) value).doubleValue(), epoch);
+            }
+        }
+    }
+
+    @Override
+    public void processCounter(final MetricName name, final Counter counter, final Long epoch) {
+        graphiteSender.send(path(name), "count", counter.count(), epoch);
+    }
+
+    @Override
+    public void processMeter(final MetricName name, final Metered meter, final Long epoch) {
+        final byte[] path = path(name);
+        graphiteSender.send(path, "count", meter.count(), epoch);
+        graphiteSender.send(path, "meanRate", meter.meanRate(), epoch);
+        graphiteSender.send(path, "1MinuteRate", meter.oneMinuteRate(), epoch);
+        graphiteSender.send(path, "5MinuteRate", meter.fiveMinuteRate(), epoch);
+        graphiteSender.send(path, "15MinuteRate", meter.fifteenMinuteRate(), epoch);
+    }
+
+    @Override
+    public void processHistogram(final MetricName name, final Histogram histogram, final Long epoch) {
+        final byte[] path = path(name);
+        sendSummarizable(path, histogram, epoch);
+        sendSampling(path, histogram, epoch);
+    }
+
+    @Override
+    public void processTimer(final MetricName name, final Timer timer, final Long epoch) {
+        processMeter(name, timer, epoch);
+        final byte[] path = path(name);
+        sendSummarizable(path, timer, epoch);
+        sendSampling(path, timer, epoch);
+    }
+
+    private void sendSummarizable(final byte[] path, final Summarizable metric, final long epoch) {
+        graphiteSender.send(path, "min", metric.min(), epoch);
+        graphiteSender.send(path, "max", metric.max(), epoch);
+        graphiteSender.send(path, "mean", metric.mean(), epoch);
+        graphiteSender.send(path, "stddev", metric.stdDev(), epoch);
+    }
+
+    private void sendSampling(final byte[] path, final Sampling metric, final long epoch) {
+        final Snapshot snapshot = metric.getSnapshot();
+        graphiteSender.send(path, "median", snapshot.getMedian(), epoch);
+        graphiteSender.send(path, "75percentile", snapshot.get75thPercentile(), epoch);
+        graphiteSender.send(path, "95percentile", snapshot.get95thPercentile(), epoch);
+        graphiteSender.send(path, "98percentile", snapshot.get98thPercentile(), epoch);
+        graphiteSender.send(path, "99percentile", snapshot.get99thPercentile(), epoch);
+        graphiteSender.send(path, "999percentile", snapshot.get999thPercentile(), epoch);
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.stats.Snapshot;
+import com.yammer.metrics.stats.UniformSample;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A histogram of the values recorded within a single interval (e.g., a {@link YammerFacadeMetric} bucket), rather
+ * than over the lifetime of the process.
+ * <br/>
+ * Values are recorded into one of two buffers, and reading the histogram swaps them: recording carries on into the
+ * (cleared) other buffer, while the reader gets the buffer that was recorded into so far, once any recording that
+ * was in flight during the swap is done (see {@link WriterReaderPhaser}). Each buffer keeps the count, sum, min and
+ * max of its values, and a uniform sample of them for percentiles, so memory is constant regardless of the number of
+ * values recorded.
+ * <br/>
+ * Since yammer's registry has no extension point for new metric types, the histogram is registered as a gauge (of
+ * the number of values recorded in the current interval), see
+ * {@link StormYammerMetricsAdapter#createIntervalHistogram}.
+ */
+public class IntervalHistogram extends Gauge<Long> {
+
+    private static final int DEFAULT_SAMPLE_SIZE = 1028;
+
+    /**
+     * The values recorded within a single interval.
+     */
+    public static final class Interval {
+
+        private final UniformSample sample;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        private Interval(final int sampleSize) {
+            this.sample = new UniformSample(sampleSize);
+        }
+
+        private void update(final long value) {
+            sample.update(value);
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long current = min.get();
+            while (value < current && !min.compareAndSet(current, value)) {
+                current = min.get();
+            }
+            current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        private void clear() {
+            sample.clear();
+            count.set(0);
+            sum.set(0);
+            min.set(Long.MAX_VALUE);
+            max.set(Long.MIN_VALUE);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public double getMin() {
+            return getCount() > 0 ? min.get() : 0;
+        }
+
+        public double getMax() {
+            return getCount() > 0 ? max.get() : 0;
+        }
+
+        public double getMean() {
+            return getCount() > 0 ? sum.get() / (double) getCount() : 0;
+        }
+
+        public Snapshot getSnapshot() {
+            return sample.getSnapshot();
+        }
+    }
+
+    private final WriterReaderPhaser phaser = new WriterReaderPhaser();
+    private volatile Interval active;
+    private Interval standby;
+
+    public IntervalHistogram() {
+        this(DEFAULT_SAMPLE_SIZE);
+    }
+
+    /**
+     * @param sampleSize the number of values each interval samples for percentiles.
+     */
+    public IntervalHistogram(final int sampleSize) {
+        this.active = new Interval(sampleSize);
+        this.standby = new Interval(sampleSize);
+    }
+
+    /**
+     * Records a value into the current interval.
+     */
+    public void update(final long value) {
+        final long phase = phaser.writerEnter();
+        try {
+            active.update(value);
+        } finally {
+            phaser.writerExit(phase);
+        }
+    }
+
+    /**
+     * Ends the current interval, and starts a new one.
+     *
+     * @return the values recorded within the interval that ended, valid until the next swap.
+     */
+    public synchronized Interval swap() {
+
+        standby.clear();
+        final Interval ended = active;
+        active = standby;
+        standby = ended;
+        phaser.flipPhase();
+        return ended;
+    }
+
+    /**
+     * @return the number of values recorded within the current interval.
+     */
+    @Override
+    public Long value() {
+        return active.getCount();
+    }
+}
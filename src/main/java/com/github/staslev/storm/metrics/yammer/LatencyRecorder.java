@@ -0,0 +1,227 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import com.yammer.metrics.core.Gauge;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A high dynamic range recorder of latencies (in the spirit of HdrHistogram), reporting the latencies recorded within
+ * a single interval (e.g., a {@link YammerFacadeMetric} bucket) at a fixed relative precision, tails included.
+ * <br/>
+ * Latencies are counted in log-linear buckets: latencies below {@value #SUB_BUCKETS} microseconds have a bucket of
+ * their own, and every power of 2 above is split into {@value #HALF_SUB_BUCKETS} buckets, so the value reported for a
+ * latency (the highest latency its bucket holds) is within 1% of it. Latencies above the highest trackable latency
+ * are counted as the highest trackable latency.
+ * <br/>
+ * Recording a latency is a single increment of its bucket's count (plus the two increments of the
+ * {@link WriterReaderPhaser}), so it neither allocates nor locks, and is wait-free across threads. The counts are
+ * double buffered: reading the recorder swaps the buffers, recording carries on into the (cleared) other buffer,
+ * while the reader gets the buffer that was recorded into so far.
+ * <br/>
+ * Since yammer's registry has no extension point for new metric types, the recorder is registered as a gauge (of the
+ * number of latencies recorded in the current interval), see {@link StormYammerMetricsAdapter#createLatencyRecorder}.
+ */
+public class LatencyRecorder extends Gauge<Long> {
+
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    private static final long DEFAULT_HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    /**
+     * The latencies recorded within a single interval, reported in milliseconds.
+     */
+    public static final class Interval {
+
+        private final AtomicLongArray counts;
+        private long count;
+        private int highestIndex = -1;
+        private double sumMicros;
+
+        Interval(final int buckets) {
+            this.counts = new AtomicLongArray(buckets);
+        }
+
+        /**
+         * @return an empty interval, with as many buckets as this one, to {@link #add} intervals to.
+         */
+        Interval newInterval() {
+            return new Interval(counts.length());
+        }
+
+        /**
+         * Adds the latencies of another interval to this one, bucket by bucket, so that percentiles of the sum are
+         * exact (to the buckets' precision) rather than estimated from each interval's own percentiles.
+         * {@link #summarize()} must be called once all intervals have been added.
+         */
+        void add(final Interval interval) {
+            final int highestIndex = counts.length() - 1;
+            for (int index = 0; index <= interval.highestIndex; index++) {
+                final long bucketCount = interval.counts.get(index);
+                if (bucketCount > 0) {
+                    counts.addAndGet(Math.min(index, highestIndex), bucketCount);
+                }
+            }
+        }
+
+        void summarize() {
+            count = 0;
+            sumMicros = 0;
+            highestIndex = -1;
+            for (int index = 0; index < counts.length(); index++) {
+                final long bucketCount = counts.get(index);
+                if (bucketCount > 0) {
+                    count += bucketCount;
+                    sumMicros += bucketCount * (lowestValue(index) + highestValue(index)) / 2.0;
+                    highestIndex = index;
+                }
+            }
+        }
+
+        private void clear() {
+            for (int index = 0; index <= highestIndex; index++) {
+                counts.set(index, 0);
+            }
+            highestIndex = -1;
+            count = 0;
+            sumMicros = 0;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMax() {
+            return count > 0 ? highestValue(highestIndex) / MICROS_PER_MILLI : 0;
+        }
+
+        public double getMean() {
+            return count > 0 ? sumMicros / count / MICROS_PER_MILLI : 0;
+        }
+
+        /**
+         * @param percentile a percentile, between 0 and 100.
+         * @return the latency (in milliseconds) at the specified percentile.
+         */
+        public double getValueAtPercentile(final double percentile) {
+
+            if (count == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long cumulative = 0;
+            for (int index = 0; index <= highestIndex; index++) {
+                cumulative += counts.get(index);
+                if (cumulative >= rank) {
+                    return highestValue(index) / MICROS_PER_MILLI;
+                }
+            }
+            return getMax();
+        }
+    }
+
+    private final long highestTrackableMicros;
+    private final WriterReaderPhaser phaser = new WriterReaderPhaser();
+    private volatile Interval active;
+    private Interval standby;
+
+    public LatencyRecorder() {
+        this(DEFAULT_HIGHEST_TRACKABLE_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * @param highestTrackable the highest latency to track, higher latencies are counted as the highest.
+     * @param unit             the unit of the highest latency.
+     */
+    public LatencyRecorder(final long highestTrackable, final TimeUnit unit) {
+        this.highestTrackableMicros = Math.max(SUB_BUCKETS, unit.toMicros(highestTrackable));
+        final int buckets = index(highestTrackableMicros) + 1;
+        this.active = new Interval(buckets);
+        this.standby = new Interval(buckets);
+    }
+
+    static int index(final long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(micros) - (SUB_BUCKET_BITS - 1);
+        final int top = (int) (micros >>> shift);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (top - HALF_SUB_BUCKETS);
+    }
+
+    static long lowestValue(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        final long top = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return top << shift;
+    }
+
+    static long highestValue(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        return lowestValue(index) + (1L << shift) - 1;
+    }
+
+    /**
+     * Records a latency into the current interval.
+     *
+     * @param duration the latency.
+     * @param unit     the latency's unit.
+     */
+    public void update(final long duration, final TimeUnit unit) {
+        final long micros = Math.min(Math.max(0, unit.toMicros(duration)), highestTrackableMicros);
+        final long phase = phaser.writerEnter();
+        try {
+            active.counts.incrementAndGet(index(micros));
+        } finally {
+            phaser.writerExit(phase);
+        }
+    }
+
+    /**
+     * Records the latency since the specified time, e.g., <code>recorder.updateSince(startNanos)</code> where
+     * <code>startNanos</code> was taken using {@link System#nanoTime()}.
+     *
+     * @param startNanos the start time, in nanoseconds.
+     */
+    public void updateSince(final long startNanos) {
+        update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Ends the current interval, and starts a new one.
+     *
+     * @return the latencies recorded within the interval that ended, valid until the next swap.
+     */
+    public synchronized Interval swap() {
+        standby.clear();
+        final Interval ended = active;
+        active = standby;
+        standby = ended;
+        phaser.flipPhase();
+        ended.summarize();
+        return ended;
+    }
+
+    /**
+     * @return the number of latencies recorded within the current interval.
+     */
+    @Override
+    public Long value() {
+        final AtomicLongArray counts = active.counts;
+        long count = 0;
+        for (int index = 0; index < counts.length(); index++) {
+            count += counts.get(index);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,188 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the periodic reporters of all processors in a worker on a single, shared pool of daemon threads.
+ * <br/>
+ * Storm creates a processor for every metrics consumer task, but since processors report the very same
+ * {@link com.github.staslev.storm.metrics.StormMetricProcessor#METRICS_REGISTRY}, a worker only needs a single
+ * reporter of each kind. Reporters are therefore shared by name: the first processor to acquire a name creates (and
+ * schedules) the reporter, later processors merely reference it, and the reporter is stopped (and closed, if it is
+ * {@link Closeable}) once the last processor releases it (see {@link com.github.staslev.storm.metrics.MetricReporter}
+ * cleanup). The threads are stopped once no reporters are left.
+ * <br/>
+ * Each reporter's first run is delayed by a random fraction of its period, so that workers spread their reports over
+ * the period rather than all reporting at the same second.
+ */
+public class ReporterScheduler {
+
+    public static final Logger LOG = LoggerFactory.getLogger(ReporterScheduler.class);
+
+    private static final int THREADS = 2;
+
+    private static final Random JITTER = new Random();
+
+    private static final Map<String, SharedReporter> REPORTERS = Maps.newHashMap();
+
+    private static ScheduledExecutorService executor;
+
+    /**
+     * A reporter shared by the processors that acquired its name.
+     */
+    private static final class SharedReporter {
+
+        private final Object reporter;
+        private ScheduledFuture<?> future;
+        private int references = 1;
+
+        private SharedReporter(final Object reporter) {
+            this.reporter = reporter;
+        }
+    }
+
+    /**
+     * A processor's reference to a shared reporter.
+     */
+    public static final class Handle {
+
+        private final String name;
+        private boolean released;
+
+        private Handle(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Releases the reference to the reporter, stopping it if this was its last reference. Releasing a handle
+         * more than once has no effect.
+         */
+        public void release() {
+            synchronized (ReporterScheduler.class) {
+                if (!released) {
+                    released = true;
+                    ReporterScheduler.release(name);
+                }
+            }
+        }
+    }
+
+    private ReporterScheduler() {
+    }
+
+    private static ScheduledExecutorService executor() {
+        if (executor == null) {
+            final AtomicInteger threads = new AtomicInteger();
+            final ScheduledThreadPoolExecutor newExecutor = new ScheduledThreadPoolExecutor(THREADS,
+                                                                                            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread =
+                            new Thread(runnable, "metric-reporter-scheduler-" + threads.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            newExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            executor = newExecutor;
+        }
+        return executor;
+    }
+
+    private static SharedReporter reference(final String name) {
+        final SharedReporter sharedReporter = REPORTERS.get(name);
+        if (sharedReporter != null) {
+            sharedReporter.references++;
+        }
+        return sharedReporter;
+    }
+
+    /**
+     * Acquires a reference to the reporter of the specified name, creating and scheduling it if there is none.
+     *
+     * @param name     the reporter's name, identifying the reporters that can be shared.
+     * @param reporter creates the reporter, only called if there is no reporter of the specified name.
+     * @param periodMs the time (in milliseconds) between the end of a run and the start of the next one.
+     * @return a handle, to be released once the reporter is no longer required.
+     */
+    public static synchronized Handle schedule(final String name,
+                                               final Supplier<? extends Runnable> reporter,
+                                               final long periodMs) {
+
+        if (reference(name) == null) {
+            final Runnable newReporter = reporter.get();
+            final SharedReporter sharedReporter = new SharedReporter(newReporter);
+            final long initialDelayMs = periodMs + (long) (JITTER.nextDouble() * periodMs);
+            sharedReporter.future =
+                    executor().scheduleWithFixedDelay(newReporter, initialDelayMs, periodMs, TimeUnit.MILLISECONDS);
+            REPORTERS.put(name, sharedReporter);
+            LOG.info("Scheduled reporter {} every {} ms, starting in {} ms", name, periodMs, initialDelayMs);
+        }
+
+        return new Handle(name);
+    }
+
+    /**
+     * Acquires a reference to the (unscheduled) reporter of the specified name, e.g., a reporter that is driven by
+     * registry events rather than time, creating it if there is none.
+     *
+     * @param name     the reporter's name, identifying the reporters that can be shared.
+     * @param reporter creates the reporter, only called if there is no reporter of the specified name.
+     * @return a handle, to be released once the reporter is no longer required.
+     */
+    public static synchronized Handle share(final String name, final Supplier<? extends Closeable> reporter) {
+
+        if (reference(name) == null) {
+            REPORTERS.put(name, new SharedReporter(reporter.get()));
+            LOG.info("Started reporter {}", name);
+        }
+
+        return new Handle(name);
+    }
+
+    private static void release(final String name) {
+
+        final SharedReporter sharedReporter = REPORTERS.get(name);
+        if (sharedReporter == null || --sharedReporter.references > 0) {
+            return;
+        }
+
+        REPORTERS.remove(name);
+        if (sharedReporter.future != null) {
+            sharedReporter.future.cancel(false);
+        }
+        if (sharedReporter.reporter instanceof Closeable) {
+            try {
+                ((Closeable) sharedReporter.reporter).close();
+            } catch (final Exception e) {
+                LOG.warn(String.format("Unable to close reporter %s", name), e);
+            }
+        }
+        LOG.info("Stopped reporter {}", name);
+
+        if (REPORTERS.isEmpty() && executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return the number of reporters currently shared.
+     */
+    static synchronized int reporters() {
+        return REPORTERS.size();
+    }
+}
@@ -2,16 +2,24 @@ package com.github.staslev.storm.metrics.yammer;
 
 import com.yammer.metrics.core.Gauge;
 
-public class SettableGauge<T> extends Gauge<T> {
+public class SettableGauge<T> extends Gauge<T> implements Timestamped {
 
     protected volatile T value;
+    protected volatile long lastUpdated;
 
     public SettableGauge(T value) {
         this.value = value;
+        this.lastUpdated = System.currentTimeMillis();
     }
 
     public void setValue(T value) {
         this.value = value;
+        this.lastUpdated = System.currentTimeMillis();
+    }
+
+    @Override
+    public long getLastUpdated() {
+        return lastUpdated;
     }
 
     @Override
@@ -2,11 +2,29 @@ package com.github.staslev.storm.metrics.yammer;
 
 import com.github.staslev.storm.metrics.Metric;
 import com.github.staslev.storm.metrics.StormMetricProcessor;
-import com.yammer.metrics.reporting.GraphiteReporter;
+import com.github.staslev.storm.metrics.graphite.GraphiteProtocol;
+import com.github.staslev.storm.metrics.graphite.GraphiteSender;
+import com.github.staslev.storm.metrics.graphite.GraphiteSpill;
+import com.google.common.base.Supplier;
 
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * A {@link SimpleStormMetricProcessor} that periodically reports the gauges in
+ * {@link StormMetricProcessor#METRICS_REGISTRY} to Graphite, in batches, over a persistent connection
+ * (see {@link GraphiteSender}).
+ * <br/>
+ * The reporter is shared by all processors in a worker that report the same topology to the same Graphite server,
+ * and runs on the {@link ReporterScheduler}, so a worker reports its metrics once per period regardless of the
+ * number of metrics consumer tasks it runs.
+ * <br/>
+ * Batches are encoded using Graphite's plaintext protocol by default, as they have always been, set
+ * {@value #GRAPHITE_PROTOCOL} to "pickle" when reporting to Graphite's pickle port (usually 2004).
+ * <br/>
+ * Setting {@value GraphiteSpill#SPILL_DIR} keeps metrics reported while Graphite is unreachable on local disk until
+ * they can be replayed, see {@link GraphiteSpill}.
+ */
 public class SimpleGraphiteStormMetricProcessor extends SimpleStormMetricProcessor {
 
     public static final String REPORT_PERIOD_IN_SEC = "metric.reporter.graphite.report.period.sec";
@@ -18,39 +36,96 @@ public class SimpleGraphiteStormMetricProcessor extends SimpleStormMetricProcess
     public static final String GRAPHITE_PORT = "metric.reporter.graphite.report.port";
     private static final int DEFAULT_GRAPHITE_PORT = 2004;
 
-    @SuppressWarnings("FieldCanBeLocal")
-    private final GraphiteReporter graphiteReporter;
+    public static final String GRAPHITE_PROTOCOL = "metric.reporter.graphite.report.protocol";
+    private static final GraphiteProtocol DEFAULT_GRAPHITE_PROTOCOL = GraphiteProtocol.PLAINTEXT;
+
+    public static final String BATCH_SIZE = "metric.reporter.graphite.report.batch.size";
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final ReporterScheduler.Handle graphiteReporter;
 
     public SimpleGraphiteStormMetricProcessor(final Map config) {
         super(config);
 
-        try {
-            graphiteReporter = new GraphiteReporter(StormMetricProcessor.METRICS_REGISTRY,
-                    getGraphiteServerHost(),
-                    getGraphiteServerPort(),
-                    Metric.joinNameFragments("Storm", topologyName));
+        final String reporterName = "graphite-" + topologyName + "@" + getGraphiteServerHost() + ":" +
+                getGraphiteServerPort();
 
-            graphiteReporter.start(getGraphiteReportPeriod(), TimeUnit.SECONDS);
-        } catch (final Exception e) {
-            throw new RuntimeException(e);
-        }
+        graphiteReporter = ReporterScheduler.schedule(reporterName, new Supplier<GraphiteMetricsRegistryReporter>() {
+            @Override
+            public GraphiteMetricsRegistryReporter get() {
+                return new GraphiteMetricsRegistryReporter(StormMetricProcessor.METRICS_REGISTRY,
+                        newGraphiteSender(SimpleGraphiteStormMetricProcessor.this.config, topologyName),
+                        Metric.joinNameFragments("Storm", topologyName));
+            }
+        }, TimeUnit.SECONDS.toMillis(getGraphiteReportPeriod()));
     }
 
-    String getGraphiteServerHost() {
+    /**
+     * Creates a {@link GraphiteSender} to the Graphite server specified in the configuration (see
+     * {@value #GRAPHITE_HOST}, {@value #GRAPHITE_PORT}, {@value #GRAPHITE_PROTOCOL} and {@value #BATCH_SIZE}), which
+     * spills to {@link GraphiteSpill#from(Map, String)}, if enabled.
+     *
+     * @param config       configuration parameters
+     * @param topologyName the name of the topology whose metrics are to be sent.
+     * @return A new {@link GraphiteSender} instance.
+     */
+    public static GraphiteSender newGraphiteSender(final Map config, final String topologyName) {
+        return new GraphiteSender(getGraphiteServerHost(config),
+                getGraphiteServerPort(config),
+                getGraphiteProtocol(config),
+                getGraphiteBatchSize(config),
+                GraphiteSpill.from(config, topologyName));
+    }
+
+    private static String getGraphiteServerHost(final Map config) {
         return config.containsKey(GRAPHITE_HOST) ?
                 config.get(GRAPHITE_HOST).toString() :
                 DEFAULT_GRAPHITE_HOST;
     }
 
-    int getGraphiteServerPort() {
+    private static int getGraphiteServerPort(final Map config) {
         return config.containsKey(GRAPHITE_PORT) ?
                 Integer.parseInt(config.get(GRAPHITE_PORT).toString()) :
                 DEFAULT_GRAPHITE_PORT;
     }
 
+    private static GraphiteProtocol getGraphiteProtocol(final Map config) {
+        return config.containsKey(GRAPHITE_PROTOCOL) ?
+                GraphiteProtocol.valueOf(config.get(GRAPHITE_PROTOCOL).toString().toUpperCase()) :
+                DEFAULT_GRAPHITE_PROTOCOL;
+    }
+
+    private static int getGraphiteBatchSize(final Map config) {
+        return config.containsKey(BATCH_SIZE) ?
+                Integer.parseInt(config.get(BATCH_SIZE).toString()) :
+                DEFAULT_BATCH_SIZE;
+    }
+
+    String getGraphiteServerHost() {
+        return getGraphiteServerHost(config);
+    }
+
+    int getGraphiteServerPort() {
+        return getGraphiteServerPort(config);
+    }
+
     int getGraphiteReportPeriod() {
         return config.containsKey(REPORT_PERIOD_IN_SEC) ?
                 Integer.parseInt(config.get(REPORT_PERIOD_IN_SEC).toString()) :
                 DEFAULT_REPORT_PERIOD_SEC;
     }
+
+    GraphiteProtocol getGraphiteProtocol() {
+        return getGraphiteProtocol(config);
+    }
+
+    int getGraphiteBatchSize() {
+        return getGraphiteBatchSize(config);
+    }
+
+    @Override
+    public void close() {
+        graphiteReporter.release();
+        super.close();
+    }
 }
@@ -2,6 +2,8 @@ package com.github.staslev.storm.metrics.yammer;
 
 import com.github.staslev.storm.metrics.Metric;
 import com.github.staslev.storm.metrics.StormMetricProcessor;
+import com.github.staslev.storm.metrics.TaskInfos;
+import com.google.common.base.Supplier;
 import com.yammer.metrics.core.MetricName;
 import com.yammer.metrics.reporting.JmxReporter;
 import org.apache.storm.metric.api.IMetricsConsumer;
@@ -9,16 +11,35 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.management.ObjectName;
+import java.io.Closeable;
 import java.util.Map;
 
+/**
+ * A {@link SimpleStormMetricProcessor} that exposes the gauges in {@link StormMetricProcessor#METRICS_REGISTRY} via
+ * JMX, using a single {@link JmxReporter} per worker, shared by all processors in it (see {@link ReporterScheduler}).
+ */
 public class SimpleJMXStormMetricProcessor extends SimpleStormMetricProcessor {
 
     public static final Logger LOG = LoggerFactory.getLogger(SimpleJMXStormMetricProcessor.class);
 
+    private final ReporterScheduler.Handle jmxReporter;
+
     public SimpleJMXStormMetricProcessor(final Map config) {
         super(config);
-        new JmxReporter(StormMetricProcessor.METRICS_REGISTRY).start();
-        LOG.info("Metrics JMXReport started");
+        jmxReporter = ReporterScheduler.share("jmx", new Supplier<Closeable>() {
+            @Override
+            public Closeable get() {
+                final JmxReporter jmxReporter = new JmxReporter(StormMetricProcessor.METRICS_REGISTRY);
+                jmxReporter.start();
+                LOG.info("Metrics JMXReport started");
+                return new Closeable() {
+                    @Override
+                    public void close() {
+                        jmxReporter.shutdown();
+                    }
+                };
+            }
+        });
     }
 
     String mBeanName(Metric metric, IMetricsConsumer.TaskInfo taskInfo) {
@@ -26,9 +47,9 @@ public class SimpleJMXStormMetricProcessor extends SimpleStormMetricProcessor {
                 + ":topology=" + topologyName
                 + ",component=" + metric.getComponent()
                 + ",operation=" + ObjectName.quote(metric.getOperation())
-                + ",host-port-task=" + String.format("%s-%s-%s", taskInfo.srcWorkerHost
-                    ,taskInfo.srcWorkerPort
-                    ,taskInfo.srcTaskId);
+                + ",host-port-task=" + taskInfo.srcWorkerHost
+                    + "-" + TaskInfos.port(taskInfo)
+                    + "-" + TaskInfos.taskId(taskInfo);
     }
 
     @Override
@@ -39,4 +60,10 @@ public class SimpleJMXStormMetricProcessor extends SimpleStormMetricProcessor {
                 metric.getOperation(),
                 mBeanName(metric, taskInfo));
     }
+
+    @Override
+    public void close() {
+        jmxReporter.release();
+        super.close();
+    }
 }
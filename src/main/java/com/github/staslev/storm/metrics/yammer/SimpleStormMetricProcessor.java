@@ -1,14 +1,22 @@
 package com.github.staslev.storm.metrics.yammer;
 
+import com.github.staslev.storm.metrics.BatchStormMetricProcessor;
+import com.github.staslev.storm.metrics.ConcurrentLongMap;
 import com.github.staslev.storm.metrics.Metric;
 import com.github.staslev.storm.metrics.StormMetricProcessor;
+import com.github.staslev.storm.metrics.TaskInfos;
 import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistryListener;
 import org.apache.storm.Config;
 import org.apache.storm.metric.api.IMetricsConsumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A straight forward {@link StormMetricProcessor} implementation that reports values according to the following
@@ -23,12 +31,15 @@ import java.util.Map;
  *              -value
  * </pre>
  * <p/>
- * Aggregations (e.g., stats per component) are assumed to be the back-end's responsibility in this case.
+ * Aggregations (e.g., stats per component) are assumed to be the back-end's responsibility in this case, unless
+ * metrics are rolled up before being processed, see {@link com.github.staslev.storm.metrics.MetricAggregator}.
+ * <p/>
+ * Gauges of tasks that stop reporting are eventually evicted, see {@link StaleGaugeSweeper}.
  * <p/>
  * <br/>Client might want to implement a custom StormMetricGauge in order to employ the metric naming convention
  * that fits them best. This implementation is more of a showcase.
  */
-public class SimpleStormMetricProcessor implements StormMetricProcessor {
+public class SimpleStormMetricProcessor implements BatchStormMetricProcessor, Closeable {
 
     public static final Logger LOG = LoggerFactory.getLogger(SimpleStormMetricProcessor.class);
 
@@ -37,37 +48,179 @@ public class SimpleStormMetricProcessor implements StormMetricProcessor {
     final protected String topologyName;
     final protected Map config;
 
+    /**
+     * The gauges this processor updates for a single task, keyed by metric name (see {@link Metric#getMetricName()}),
+     * along with the identity of the task they were created for.
+     */
+    private static final class TaskGauges {
+
+        private final int taskId;
+        private final String host;
+        private final int port;
+        private final ConcurrentMap<String, GaugeHandle> gaugeHandles = new ConcurrentHashMap<String, GaugeHandle>();
+
+        private TaskGauges(final IMetricsConsumer.TaskInfo taskInfo) {
+            this.taskId = taskInfo.srcTaskId;
+            this.host = taskInfo.srcWorkerHost;
+            this.port = taskInfo.srcWorkerPort;
+        }
+
+        private boolean isFor(final IMetricsConsumer.TaskInfo taskInfo) {
+            return port == taskInfo.srcWorkerPort && host.equals(taskInfo.srcWorkerHost);
+        }
+    }
+
+    /**
+     * A cached handle to a gauge this processor updates.
+     */
+    private static final class GaugeHandle {
+
+        private final TaskGauges taskGauges;
+        private final String key;
+        private final DoubleGauge gauge;
+
+        private GaugeHandle(final TaskGauges taskGauges, final String key, final DoubleGauge gauge) {
+            this.taskGauges = taskGauges;
+            this.key = key;
+            this.gauge = gauge;
+        }
+    }
+
+    /**
+     * The gauges this processor updates, keyed by task id and metric name, so that updating an existing gauge does
+     * not involve building its name or looking it up in the registry. A batch of metrics resolves its task's gauges
+     * once, after which each metric is a single lookup and an in place update.
+     * Gauges removed from the registry (e.g., once stale) are removed from the cache as well.
+     */
+    private final ConcurrentLongMap<TaskGauges> taskGauges = new ConcurrentLongMap<TaskGauges>();
+    private final ConcurrentMap<MetricName, GaugeHandle> gaugeHandlesByName =
+            new ConcurrentHashMap<MetricName, GaugeHandle>();
+    private final MetricsRegistryListener gaugeHandleEvictor;
+    private final ReporterScheduler.Handle staleGaugeSweeper;
+
+    /**
+     * @param config configuration parameters
+     * @return the name of the topology whose metrics are processed, as it should appear in metric names.
+     */
+    public static String topologyName(final Map config) {
+        return config.containsKey(Config.TOPOLOGY_NAME) ?
+                config.get(Config.TOPOLOGY_NAME).toString() :
+                DEFAULT_TOPOLOGY_NAME;
+    }
+
     public SimpleStormMetricProcessor(final Map config) {
         this.config = config;
-        this.topologyName = config.containsKey(Config.TOPOLOGY_NAME) ?
-                        config.get(Config.TOPOLOGY_NAME).toString() :
-                        DEFAULT_TOPOLOGY_NAME;
+        this.topologyName = topologyName(config);
+        gaugeHandleEvictor = new MetricsRegistryListener() {
+            @Override
+            public void onMetricAdded(final MetricName name, final com.yammer.metrics.core.Metric metric) {
+            }
+
+            @Override
+            public void onMetricRemoved(final MetricName name) {
+                final GaugeHandle gaugeHandle = gaugeHandlesByName.remove(name);
+                if (gaugeHandle != null) {
+                    gaugeHandle.taskGauges.gaugeHandles.remove(gaugeHandle.key, gaugeHandle);
+                }
+            }
+        };
+        METRICS_REGISTRY.addListener(gaugeHandleEvictor);
+        staleGaugeSweeper = StaleGaugeSweeper.start(config);
     }
 
-    private SettableGauge<Double> createOrUpdateGauge(final Metric metric, final MetricName metricName) {
-        final SettableGauge<Double> settableGauge =
-                (SettableGauge<Double>) METRICS_REGISTRY.newGauge(metricName, new SettableGauge(metric.getValue()));
-        settableGauge.setValue(metric.getValue());
-        return settableGauge;
+    private TaskGauges taskGauges(final IMetricsConsumer.TaskInfo taskInfo) {
+
+        final TaskGauges existingTaskGauges = taskGauges.get(taskInfo.srcTaskId);
+        if (existingTaskGauges != null && existingTaskGauges.isFor(taskInfo)) {
+            return existingTaskGauges;
+        }
+
+        final TaskGauges newTaskGauges = new TaskGauges(taskInfo);
+        taskGauges.put(taskInfo.srcTaskId, newTaskGauges);
+        return newTaskGauges;
+    }
+
+    /**
+     * Registers a {@link DoubleGauge}, replacing any other kind of metric already registered under the same name
+     * (e.g., a {@link SettableGauge} left behind by a processor that shares the registry).
+     */
+    private static DoubleGauge registerGauge(final MetricName metricName, final double value) {
+
+        final com.yammer.metrics.core.Gauge<?> gauge = METRICS_REGISTRY.newGauge(metricName, new DoubleGauge(value));
+        if (gauge instanceof DoubleGauge) {
+            return (DoubleGauge) gauge;
+        }
+
+        LOG.warn("Replacing metric {} of type {} with a DoubleGauge", metricName, gauge.getClass().getName());
+        METRICS_REGISTRY.removeMetric(metricName);
+        final com.yammer.metrics.core.Gauge<?> replacement =
+                METRICS_REGISTRY.newGauge(metricName, new DoubleGauge(value));
+        if (!(replacement instanceof DoubleGauge)) {
+            throw new IllegalStateException(String.format("Unable to register a DoubleGauge as %s", metricName));
+        }
+        return (DoubleGauge) replacement;
+    }
+
+    private DoubleGauge createOrUpdateGauge(final TaskGauges taskGauges,
+                                            final Metric metric,
+                                            final IMetricsConsumer.TaskInfo taskInfo) {
+
+        final String key = metric.getMetricName();
+        final GaugeHandle gaugeHandle = taskGauges.gaugeHandles.get(key);
+
+        if (gaugeHandle != null) {
+            gaugeHandle.gauge.set(metric.getValue());
+            return gaugeHandle.gauge;
+        }
+
+        final MetricName metricName = name(metric, taskInfo);
+        final DoubleGauge gauge = registerGauge(metricName, metric.getValue());
+        gauge.set(metric.getValue());
+        final GaugeHandle newGaugeHandle = new GaugeHandle(taskGauges, key, gauge);
+        taskGauges.gaugeHandles.put(key, newGaugeHandle);
+        gaugeHandlesByName.put(metricName, newGaugeHandle);
+        return gauge;
     }
 
     @Override
     public MetricName name(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
         return new MetricName(Metric.joinNameFragments(taskInfo.srcWorkerHost,
-                        taskInfo.srcWorkerPort,
+                        TaskInfos.port(taskInfo),
                         metric.getComponent()),
-                        Integer.toString(taskInfo.srcTaskId),
+                        TaskInfos.taskId(taskInfo),
                         metric.getOperation());
     }
 
+    private void process(final TaskGauges taskGauges, final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+        try {
+            createOrUpdateGauge(taskGauges, metric, taskInfo);
+        } catch (final Exception e) {
+            LOG.error(String.format("Unable to process metric %s", name(metric, taskInfo).toString()), e);
+        }
+    }
+
     @Override
     public void process(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+        process(taskGauges(taskInfo), metric, taskInfo);
+    }
 
-        final MetricName metricName = name(metric, taskInfo);
-        try {
-            createOrUpdateGauge(metric, metricName);
-        } catch (final Exception e) {
-            LOG.error(String.format("Unable to process metric %s", metricName.toString()), e);
+    @Override
+    public void process(final Collection<Metric> metrics, final IMetricsConsumer.TaskInfo taskInfo) {
+        final TaskGauges taskGauges = taskGauges(taskInfo);
+        for (final Metric metric : metrics) {
+            process(taskGauges, metric, taskInfo);
+        }
+    }
+
+    /**
+     * Releases the shared reporters this processor uses (see {@link ReporterScheduler}). The gauges it created are
+     * left in {@link StormMetricProcessor#METRICS_REGISTRY}, to be evicted once stale.
+     */
+    @Override
+    public void close() {
+        METRICS_REGISTRY.removeListener(gaugeHandleEvictor);
+        if (staleGaugeSweeper != null) {
+            staleGaugeSweeper.release();
         }
     }
 }
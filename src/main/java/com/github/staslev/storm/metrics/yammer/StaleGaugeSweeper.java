@@ -0,0 +1,129 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import com.github.staslev.storm.metrics.StormMetricProcessor;
+import com.google.common.base.Supplier;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.apache.storm.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically removes gauges (i.e., {@link Timestamped} metrics) which have not been updated for a configurable
+ * number of report intervals from {@link StormMetricProcessor#METRICS_REGISTRY}. Without it, gauges of tasks that are
+ * long gone (due to rebalances, worker restarts, executor migrations, etc.) would be kept, and reported, for as long as
+ * the consumer worker lives.
+ * <br/>
+ * Since {@link StormMetricProcessor#METRICS_REGISTRY} is shared by all processors in a worker, so is the sweeper,
+ * which runs on the {@link ReporterScheduler}.
+ */
+public class StaleGaugeSweeper implements Runnable {
+
+    public static final Logger LOG = LoggerFactory.getLogger(StaleGaugeSweeper.class);
+
+    /**
+     * The number of report intervals a gauge may go without being updated before it is evicted, 0 disables eviction.
+     */
+    public static final String STALE_GAUGE_INTERVALS = "metric.reporter.stale.gauge.intervals";
+    private static final int DEFAULT_STALE_GAUGE_INTERVALS = 10;
+
+    private static final int DEFAULT_REPORT_INTERVAL_SEC = 60;
+
+    public static final MetricName EVICTIONS = new MetricName("MetricReporter", "gauges", "evictions");
+
+    private final MetricsRegistry metricsRegistry;
+    private final Counter evictions;
+    private final long staleAfterMs;
+
+    private StaleGaugeSweeper(final MetricsRegistry metricsRegistry, final long staleAfterMs) {
+        this.metricsRegistry = metricsRegistry;
+        this.evictions = metricsRegistry.newCounter(EVICTIONS);
+        this.staleAfterMs = staleAfterMs;
+    }
+
+    /**
+     * @param config configuration parameters
+     * @return the time (in milliseconds) after which a gauge which has not been updated is stale, according to the
+     * specified configuration, or 0 if eviction is disabled.
+     */
+    public static long staleAfterMs(final Map config) {
+
+        final int staleGaugeIntervals = config.containsKey(STALE_GAUGE_INTERVALS) ?
+                Integer.parseInt(config.get(STALE_GAUGE_INTERVALS).toString()) :
+                DEFAULT_STALE_GAUGE_INTERVALS;
+
+        return staleGaugeIntervals <= 0 ? 0 : staleGaugeIntervals * reportIntervalMs(config);
+    }
+
+    /**
+     * @return the interval (in milliseconds) at which Storm reports built-in metrics.
+     */
+    public static long reportIntervalMs(final Map config) {
+        return TimeUnit.SECONDS.toMillis(
+                config.containsKey(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS) ?
+                        Integer.parseInt(config.get(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS).toString()) :
+                        DEFAULT_REPORT_INTERVAL_SEC);
+    }
+
+    /**
+     * Starts sweeping {@link StormMetricProcessor#METRICS_REGISTRY} in the background, unless the specified
+     * configuration disables eviction. The sweeper is shared with any other processor that started it.
+     *
+     * @param config configuration parameters
+     * @return a handle to the sweeper, to be released once the processor is closed, or null if eviction is disabled.
+     */
+    public static ReporterScheduler.Handle start(final Map config) {
+
+        final long staleAfterMs = staleAfterMs(config);
+
+        if (staleAfterMs <= 0) {
+            return null;
+        }
+
+        return ReporterScheduler.schedule("stale-gauge-sweeper", new Supplier<StaleGaugeSweeper>() {
+            @Override
+            public StaleGaugeSweeper get() {
+                LOG.info("Evicting gauges not updated within {} ms", staleAfterMs);
+                return new StaleGaugeSweeper(StormMetricProcessor.METRICS_REGISTRY, staleAfterMs);
+            }
+        }, reportIntervalMs(config));
+    }
+
+    /**
+     * Removes the gauges which have not been updated within the configured number of report intervals.
+     *
+     * @param metricsRegistry the registry to remove stale gauges from.
+     * @param staleAfterMs    the time (in milliseconds) after which a gauge which has not been updated is stale.
+     * @param now             the current time (in milliseconds).
+     * @return the number of gauges removed.
+     */
+    static int evictStaleGauges(final MetricsRegistry metricsRegistry, final long staleAfterMs, final long now) {
+        int evicted = 0;
+        for (final Map.Entry<MetricName, Metric> entry : metricsRegistry.allMetrics().entrySet()) {
+            if (entry.getValue() instanceof Timestamped &&
+                    now - ((Timestamped) entry.getValue()).getLastUpdated() > staleAfterMs) {
+                metricsRegistry.removeMetric(entry.getKey());
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    @Override
+    public void run() {
+        try {
+            final int evicted = evictStaleGauges(metricsRegistry, staleAfterMs, System.currentTimeMillis());
+            if (evicted > 0) {
+                evictions.inc(evicted);
+                LOG.debug("Evicted {} stale gauges", evicted);
+            }
+        } catch (final Exception e) {
+            LOG.error("Unable to evict stale gauges", e);
+        }
+    }
+}
@@ -16,28 +16,67 @@ import java.util.concurrent.TimeUnit;
  * An adapter between the Yammer metrics API and the Storm metrics mechanism.
  * This class allows one to operate on standard Yammer metrics API, while under the hood these metrics are transported
  * using Storm's metrics API.
+ * <br/>
+ * Adapters configured with {@link #configure(Map, TopologyContext)} record into a registry of their own, which only
+ * the executor that configured it updates, so that executors never contend with each other on their metrics (nor
+ * duplicate each other's), and merges them at bucket time as configured by {@link #FACADE_METRIC_MERGE_LEVEL}. Such
+ * adapters should be closed (see {@link #close()}) once their executor is done with them, e.g., in a bolt's cleanup or
+ * a spout's close.
  */
 public class StormYammerMetricsAdapter {
 
+  /**
+   * Whether the registries of adapters configured with {@link #configure(Map, TopologyContext)} are reported by a
+   * facade metric per task ("task", the default), or are merged into a single facade metric per worker ("worker",
+   * see {@link WorkerYammerFacadeMetric}).
+   */
+  public static final String FACADE_METRIC_MERGE_LEVEL = "metrics.reporter.yammer.facade.metric.merge.level";
+  private static final String WORKER_MERGE_LEVEL = "worker";
+
   private final MetricsRegistry metricsRegistry;
+  private final TopologyContext workerMergeContext;
 
-  private StormYammerMetricsAdapter(final Map stormConf,
-                                    final TopologyContext context,
-                                    final MetricsRegistry metricsRegistry) {
+  private StormYammerMetricsAdapter(final MetricsRegistry metricsRegistry, final TopologyContext workerMergeContext) {
     this.metricsRegistry = metricsRegistry;
-    YammerFacadeMetric.register(stormConf, context, this.metricsRegistry);
+    this.workerMergeContext = workerMergeContext;
   }
 
   private MetricName getMetricName(final String component, final String methodName) {
     return new MetricName("", component, methodName);
   }
 
+  /**
+   * Registers a gauge of one of the custom metric types, which yammer's registry only knows as gauges, so that a name
+   * that is already registered (and would be returned as is) must be checked to be of the requested type.
+   */
+  private <T extends Gauge<Long>> T newGauge(final String component,
+                                          final String methodName,
+                                          final Class<T> type,
+                                          final T gauge) {
+
+    final MetricName metricName = getMetricName(component, methodName);
+    Object registered;
+    try {
+      registered = metricsRegistry.newGauge(metricName, gauge);
+    } catch (final ClassCastException e) {
+      registered = metricsRegistry.allMetrics().get(metricName);
+    }
+    if (!type.isInstance(registered)) {
+      throw new IllegalArgumentException(String.format("Metric %s is already registered as a %s, not a %s",
+                                                       metricName,
+                                                       registered != null ? registered.getClass().getName() : null,
+                                                       type.getName()));
+    }
+    return type.cast(registered);
+  }
+
   /**
    * Constructs a {@link StormYammerMetricsAdapter} instance.
    * <br/><br/>
    * <p/>
    * Note: {@link StormYammerMetricsAdapter#configure(Map, TopologyContext, MetricsRegistry)} should NOT be called more than once in the scope of a given
-   * Storm component (bolt/spout).
+   * Storm component (bolt/spout), use {@link #configure(Map, TopologyContext)} to give each of its executors a
+   * registry of its own instead.
    *
    * @param stormConf       Storm configuration settings.
    * @param context         TopologyContext for the topology a face metric is to be reporting metrics for.
@@ -47,7 +86,39 @@ public class StormYammerMetricsAdapter {
   public static StormYammerMetricsAdapter configure(final Map stormConf,
                                                     final TopologyContext context,
                                                     final MetricsRegistry metricsRegistry) {
-    return new StormYammerMetricsAdapter(stormConf, context, metricsRegistry);
+    YammerFacadeMetric.register(stormConf, context, metricsRegistry);
+    return new StormYammerMetricsAdapter(metricsRegistry, null);
+  }
+
+  /**
+   * Constructs a {@link StormYammerMetricsAdapter} instance with a registry of its own, to be used by a single
+   * executor (e.g., configured in a bolt's prepare or a spout's open), reported as configured by
+   * {@link #FACADE_METRIC_MERGE_LEVEL}.
+   *
+   * @param stormConf Storm configuration settings.
+   * @param context   TopologyContext of the executor's task.
+   * @return A {@link StormYammerMetricsAdapter} instance.
+   */
+  public static StormYammerMetricsAdapter configure(final Map stormConf, final TopologyContext context) {
+
+    final MetricsRegistry metricsRegistry = new MetricsRegistry();
+    if (stormConf.containsKey(FACADE_METRIC_MERGE_LEVEL) &&
+        WORKER_MERGE_LEVEL.equalsIgnoreCase(stormConf.get(FACADE_METRIC_MERGE_LEVEL).toString())) {
+      WorkerYammerFacadeMetric.register(stormConf, context, metricsRegistry);
+      return new StormYammerMetricsAdapter(metricsRegistry, context);
+    }
+    YammerFacadeMetric.register(stormConf, context, metricsRegistry);
+    return new StormYammerMetricsAdapter(metricsRegistry, null);
+  }
+
+  /**
+   * Releases this adapter's registry, so that its metrics are no longer merged into its component's worker level
+   * facade metric (see {@link WorkerYammerFacadeMetric}). Has no effect on registries reported per task.
+   */
+  public void close() {
+    if (workerMergeContext != null) {
+      WorkerYammerFacadeMetric.unregister(workerMergeContext, metricsRegistry);
+    }
   }
 
   /**
@@ -85,4 +156,37 @@ public class StormYammerMetricsAdapter {
     return metricsRegistry.newHistogram(getMetricName(component, methodName), biased);
   }
 
+  /**
+   * Creates a histogram of the values recorded within each bucket of the {@link YammerFacadeMetric} (rather than over
+   * the lifetime of the process), see {@link IntervalHistogram}.
+   */
+  public IntervalHistogram createIntervalHistogram(final String component, final String methodName) {
+    return newGauge(component, methodName, IntervalHistogram.class, new IntervalHistogram());
+  }
+
+  /**
+   * Creates a recorder of the latencies recorded within each bucket of the {@link YammerFacadeMetric}, reported at
+   * the percentiles listed under {@value YammerFacadeMetric#FACADE_METRIC_LATENCY_PERCENTILES}, see
+   * {@link LatencyRecorder}.
+   */
+  public LatencyRecorder createLatencyRecorder(final String component, final String methodName) {
+    return newGauge(component, methodName, LatencyRecorder.class, new LatencyRecorder());
+  }
+
+  /**
+   * Creates a counter that many executors can update concurrently without contending with each other, see
+   * {@link StripedCounter}.
+   */
+  public StripedCounter createStripedCounter(final String component, final String methodName) {
+    return newGauge(component, methodName, StripedCounter.class, new StripedCounter());
+  }
+
+  /**
+   * Creates a meter that many executors can mark concurrently without contending with each other, see
+   * {@link StripedMeter}.
+   */
+  public StripedMeter createStripedMeter(final String component, final String methodName, final String eventType) {
+    return newGauge(component, methodName, StripedMeter.class, new StripedMeter(eventType, TimeUnit.SECONDS));
+  }
+
 }
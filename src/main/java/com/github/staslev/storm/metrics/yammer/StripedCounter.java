@@ -0,0 +1,49 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * A counter with the same ergonomics as yammer's {@link Counter}, that many executors can update concurrently
+ * without contending on a single atomic (see {@link StripedLong}).
+ * <br/>
+ * Since yammer's registry has no extension point for new metric types, the counter is registered as a gauge (of its
+ * count), and is serialized by {@link YammerFacadeMetric} just like a {@link Counter}, see
+ * {@link StormYammerMetricsAdapter#createStripedCounter}.
+ */
+public class StripedCounter extends Gauge<Long> {
+
+    private final StripedLong count = new StripedLong();
+
+    public void inc() {
+        count.add(1);
+    }
+
+    public void inc(final long n) {
+        count.add(n);
+    }
+
+    public void dec() {
+        count.add(-1);
+    }
+
+    public void dec(final long n) {
+        count.add(-n);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Resets the count to 0, updates concurrent with the reset may be lost.
+     */
+    public void clear() {
+        count.reset();
+    }
+
+    @Override
+    public Long value() {
+        return count();
+    }
+}
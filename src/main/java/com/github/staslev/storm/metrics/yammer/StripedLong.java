@@ -0,0 +1,80 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A sum that many threads add to without contending on a single atomic (in the spirit of Java 8's LongAdder), see
+ * {@link StripedCounter} and {@link StripedMeter}.
+ * <br/>
+ * Additions go to a single base value until two threads first collide on it, after which each thread adds to one of
+ * several cells, picked by its thread id. Cells are spread apart in an array (rather than being objects of their own)
+ * so that no two of them share a cache line. Reading the sum adds up the base value and all cells, which is only
+ * consistent with concurrent additions that completed before the read began.
+ */
+class StripedLong {
+
+    /**
+     * The distance (in longs) between cells, i.e., 128 bytes, which covers adjacent cache line prefetching as well.
+     */
+    private static final int PADDING = 16;
+
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLong base = new AtomicLong();
+    private volatile AtomicLongArray cells;
+
+    private static int stripes(final int processors) {
+        return Math.min(64, Integer.highestOneBit(Math.max(1, processors) * 2 - 1) << 1);
+    }
+
+    private static int stripe(final long threadId) {
+        final long hash = threadId * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (STRIPES - 1);
+    }
+
+    private synchronized AtomicLongArray inflate() {
+        if (cells == null) {
+            cells = new AtomicLongArray(STRIPES * PADDING);
+        }
+        return cells;
+    }
+
+    void add(final long value) {
+
+        AtomicLongArray cells = this.cells;
+        if (cells == null) {
+            final long current = base.get();
+            if (base.compareAndSet(current, current + value)) {
+                return;
+            }
+            cells = inflate();
+        }
+
+        cells.getAndAdd(stripe(Thread.currentThread().getId()) * PADDING, value);
+    }
+
+    long sum() {
+        long sum = base.get();
+        final AtomicLongArray cells = this.cells;
+        if (cells != null) {
+            for (int i = 0; i < cells.length(); i += PADDING) {
+                sum += cells.get(i);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Resets the sum to 0, additions concurrent with the reset may be lost.
+     */
+    void reset() {
+        base.set(0);
+        final AtomicLongArray cells = this.cells;
+        if (cells != null) {
+            for (int i = 0; i < cells.length(); i += PADDING) {
+                cells.set(i, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.Metered;
+import com.yammer.metrics.stats.EWMA;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A meter with the same ergonomics as yammer's {@link Meter}, that many executors can mark concurrently without
+ * contending on a single atomic (see {@link StripedLong}).
+ * <br/>
+ * Marking only adds to the meter's count. Rather than being ticked by a background thread, the moving averages are
+ * brought up to date when rates are read: the events counted since the previous read are spread evenly over the
+ * (5 second) ticks that have elapsed since, which is exact for a steady rate.
+ * <br/>
+ * Since yammer's registry has no extension point for new metric types, the meter is registered as a gauge (of its
+ * count), and being {@link Metered}, is serialized by {@link YammerFacadeMetric} just like a {@link Meter}, see
+ * {@link StormYammerMetricsAdapter#createStripedMeter}.
+ */
+public class StripedMeter extends Gauge<Long> implements Metered {
+
+    private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    private final StripedLong count = new StripedLong();
+    private final EWMA m1Rate = EWMA.oneMinuteEWMA();
+    private final EWMA m5Rate = EWMA.fiveMinuteEWMA();
+    private final EWMA m15Rate = EWMA.fifteenMinuteEWMA();
+    private final String eventType;
+    private final TimeUnit rateUnit;
+    private final Clock clock;
+    private final long startTime;
+    private long lastTick;
+    private long lastTickCount;
+
+    public StripedMeter(final String eventType, final TimeUnit rateUnit) {
+        this(eventType, rateUnit, Clock.defaultClock());
+    }
+
+    StripedMeter(final String eventType, final TimeUnit rateUnit, final Clock clock) {
+        this.eventType = eventType;
+        this.rateUnit = rateUnit;
+        this.clock = clock;
+        this.startTime = clock.tick();
+        this.lastTick = startTime;
+    }
+
+    private synchronized void tickIfNecessary() {
+
+        final long ticks = (clock.tick() - lastTick) / TICK_INTERVAL;
+        if (ticks <= 0) {
+            return;
+        }
+
+        final long currentCount = count();
+        final long events = currentCount - lastTickCount;
+        for (long tick = 0; tick < ticks; tick++) {
+            final long tickEvents = events * (tick + 1) / ticks - events * tick / ticks;
+            m1Rate.update(tickEvents);
+            m5Rate.update(tickEvents);
+            m15Rate.update(tickEvents);
+            m1Rate.tick();
+            m5Rate.tick();
+            m15Rate.tick();
+        }
+
+        lastTick += ticks * TICK_INTERVAL;
+        lastTickCount = currentCount;
+    }
+
+    public void mark() {
+        count.add(1);
+    }
+
+    public void mark(final long n) {
+        count.add(n);
+    }
+
+    @Override
+    public TimeUnit rateUnit() {
+        return rateUnit;
+    }
+
+    @Override
+    public String eventType() {
+        return eventType;
+    }
+
+    @Override
+    public long count() {
+        return count.sum();
+    }
+
+    @Override
+    public double meanRate() {
+        final long elapsed = clock.tick() - startTime;
+        return elapsed > 0 ? count() / (double) elapsed * rateUnit.toNanos(1) : 0;
+    }
+
+    @Override
+    public double oneMinuteRate() {
+        tickIfNecessary();
+        return m1Rate.rate(rateUnit);
+    }
+
+    @Override
+    public double fiveMinuteRate() {
+        tickIfNecessary();
+        return m5Rate.rate(rateUnit);
+    }
+
+    @Override
+    public double fifteenMinuteRate() {
+        tickIfNecessary();
+        return m15Rate.rate(rateUnit);
+    }
+
+    @Override
+    public Long value() {
+        return count();
+    }
+}
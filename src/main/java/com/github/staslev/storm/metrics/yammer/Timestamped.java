@@ -0,0 +1,14 @@
+package com.github.staslev.storm.metrics.yammer;
+
+/**
+ * A metric which keeps track of the time it was last updated, so that it can be evicted once it goes stale.
+ *
+ * @see StaleGaugeSweeper
+ */
+public interface Timestamped {
+
+    /**
+     * @return the time (in milliseconds) this metric was last updated.
+     */
+    long getLastUpdated();
+}
@@ -0,0 +1,207 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import com.yammer.metrics.core.MetricsRegistry;
+import org.apache.storm.metric.api.IMetric;
+import org.apache.storm.task.TopologyContext;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A metric facade of all the registries of a component's executors in a worker, exposed to Storm's metric mechanism as
+ * a single metric (registered by the component's first executor to add its registry, under
+ * {@link YammerFacadeMetric#WORKER_FACADE_METRIC_NAME}), see
+ * {@link StormYammerMetricsAdapter#FACADE_METRIC_MERGE_LEVEL}.
+ * Its data points are reported at the worker level, rather than as those of the task that registered it (see
+ * {@link com.github.staslev.storm.metrics.MetricReporter}).
+ * <br/>
+ * Each registry is serialized on its own (see {@link YammerFacadeMetric}), including idle metrics, so that every
+ * executor contributes to every bucket, and metrics of the same name are merged: counts, rates and numeric gauges are
+ * summed, mins and maxes are the lowest and highest, means are weighted by counts, and percentiles (as well as
+ * standard deviations) are the highest among the executors', i.e., an upper bound of the worker's. The statistics of
+ * executors whose count is 0 (e.g., the min of an idle histogram, reported as 0) are left out. Non numeric gauges are
+ * reported as serialized by the first executor that has them.
+ * <br/>
+ * {@link LatencyRecorder}s are merged exactly instead: their intervals' bucket counts are summed, and the worker's
+ * percentiles are computed from the sums.
+ * <br/>
+ * Once all of a component's registries have been removed (see {@link StormYammerMetricsAdapter#close()}), the merged
+ * metric is dropped, and a registry added later on is merged into a new one.
+ */
+class WorkerYammerFacadeMetric implements IMetric {
+
+  private static final ConcurrentMap<String, WorkerYammerFacadeMetric> WORKER_FACADE_METRICS =
+          new ConcurrentHashMap<String, WorkerYammerFacadeMetric>();
+
+  private final Map<MetricsRegistry, YammerFacadeMetric> facadeMetrics =
+          new ConcurrentHashMap<MetricsRegistry, YammerFacadeMetric>();
+  private int lastBucketSize = 16;
+
+  private static String key(final TopologyContext context) {
+    return context.getStormId() + '/' + context.getThisComponentId();
+  }
+
+  /**
+   * Adds an executor's registry to its component's facade metric in the worker, which is registered with the
+   * component's first executor's {@link TopologyContext}.
+   */
+  static void register(final Map stormConf, final TopologyContext context, final MetricsRegistry metricsRegistry) {
+
+    final YammerFacadeMetric facadeMetric = YammerFacadeMetric.from(stormConf, metricsRegistry, 1);
+
+    synchronized (WORKER_FACADE_METRICS) {
+      final WorkerYammerFacadeMetric existingWorkerFacadeMetric = WORKER_FACADE_METRICS.get(key(context));
+      if (existingWorkerFacadeMetric != null) {
+        existingWorkerFacadeMetric.add(metricsRegistry, facadeMetric);
+        return;
+      }
+
+      final WorkerYammerFacadeMetric newWorkerFacadeMetric = new WorkerYammerFacadeMetric();
+      newWorkerFacadeMetric.add(metricsRegistry, facadeMetric);
+      context.registerMetric(YammerFacadeMetric.WORKER_FACADE_METRIC_NAME,
+                             newWorkerFacadeMetric,
+                             YammerFacadeMetric.bucketSeconds(stormConf));
+      WORKER_FACADE_METRICS.put(key(context), newWorkerFacadeMetric);
+    }
+  }
+
+  /**
+   * Removes an executor's registry from its component's facade metric in the worker, dropping the facade metric once
+   * it has no registries left.
+   */
+  static void unregister(final TopologyContext context, final MetricsRegistry metricsRegistry) {
+    synchronized (WORKER_FACADE_METRICS) {
+      final WorkerYammerFacadeMetric workerFacadeMetric = WORKER_FACADE_METRICS.get(key(context));
+      if (workerFacadeMetric != null) {
+        workerFacadeMetric.facadeMetrics.remove(metricsRegistry);
+        if (workerFacadeMetric.facadeMetrics.isEmpty()) {
+          WORKER_FACADE_METRICS.remove(key(context));
+        }
+      }
+    }
+  }
+
+  void add(final MetricsRegistry metricsRegistry, final YammerFacadeMetric facadeMetric) {
+    facadeMetrics.put(metricsRegistry, facadeMetric);
+  }
+
+  private static boolean isPercentile(final String name) {
+    if (name.endsWith("percentile") || name.equals("median") || name.equals("stddev")) {
+      return true;
+    }
+    for (int i = 1; i < name.length(); i++) {
+      if (!Character.isDigit(name.charAt(i))) {
+        return false;
+      }
+    }
+    return name.length() > 1 && name.charAt(0) == 'p';
+  }
+
+  private static boolean isStatistic(final String name) {
+    return name.equals("min") || name.equals("max") || name.equals("mean") || isPercentile(name);
+  }
+
+  private static boolean isIdle(final Object count) {
+    return count instanceof Number && ((Number) count).doubleValue() == 0;
+  }
+
+  private static boolean isIntegral(final Number number) {
+    return number instanceof Long || number instanceof Integer;
+  }
+
+  private static Number sum(final Number merged, final Number value) {
+    if (isIntegral(merged) && isIntegral(value)) {
+      return Long.valueOf(merged.longValue() + value.longValue());
+    }
+    return Double.valueOf(merged.doubleValue() + value.doubleValue());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void mergeSubMetrics(final Map merged, final Map value) {
+
+    final Object mergedCount = merged.get("count");
+    final Object valueCount = value.get("count");
+    final boolean mergedIdle = isIdle(mergedCount);
+    final boolean idle = isIdle(valueCount);
+
+    for (final Object entry : value.entrySet()) {
+      final String name = ((Map.Entry) entry).getKey().toString();
+      final Object subValue = ((Map.Entry) entry).getValue();
+      final Object mergedSubValue = merged.get(name);
+
+      if (!(mergedSubValue instanceof Number) || !(subValue instanceof Number)) {
+        if (mergedSubValue == null) {
+          merged.put(name, subValue);
+        }
+        continue;
+      }
+
+      if (isStatistic(name) && (idle || mergedIdle)) {
+        if (!idle) {
+          merged.put(name, subValue);
+        }
+        continue;
+      }
+
+      final double mergedNumber = ((Number) mergedSubValue).doubleValue();
+      final double number = ((Number) subValue).doubleValue();
+      if (name.equals("min")) {
+        merged.put(name, Math.min(mergedNumber, number));
+      } else if (name.equals("max") || isPercentile(name)) {
+        merged.put(name, Math.max(mergedNumber, number));
+      } else if (name.equals("mean")) {
+        final double mergedWeight = mergedCount instanceof Number ? ((Number) mergedCount).doubleValue() : 1;
+        final double weight = valueCount instanceof Number ? ((Number) valueCount).doubleValue() : 1;
+        merged.put(name, mergedWeight + weight > 0 ?
+                         (mergedNumber * mergedWeight + number * weight) / (mergedWeight + weight) :
+                         mergedNumber);
+      } else {
+        merged.put(name, sum((Number) mergedSubValue, (Number) subValue));
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void merge(final Map metricsValues, final Map executorMetricsValues) {
+    for (final Object entry : executorMetricsValues.entrySet()) {
+      final Object name = ((Map.Entry) entry).getKey();
+      final Object value = ((Map.Entry) entry).getValue();
+      final Object merged = metricsValues.get(name);
+
+      if (merged == null) {
+        metricsValues.put(name, value);
+      } else if (merged instanceof Map && value instanceof Map) {
+        mergeSubMetrics((Map) merged, (Map) value);
+      } else if (merged instanceof Number && value instanceof Number) {
+        metricsValues.put(name, sum((Number) merged, (Number) value));
+      }
+    }
+  }
+
+  /**
+   * Returns a Map representing all the (active) Yammer metrics of the worker's executors, merged by name.
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public Object getValueAndReset() {
+
+    final Map metricsValues = new HashMap(lastBucketSize * 4 / 3 + 1);
+    final Map<String, LatencyRecorder.Interval> mergedLatencies = new HashMap<String, LatencyRecorder.Interval>();
+
+    YammerFacadeMetric lastFacadeMetric = null;
+    for (final YammerFacadeMetric facadeMetric : facadeMetrics.values()) {
+      merge(metricsValues, (Map) facadeMetric.getValueAndReset(mergedLatencies));
+      lastFacadeMetric = facadeMetric;
+    }
+
+    for (final Map.Entry<String, LatencyRecorder.Interval> entry : mergedLatencies.entrySet()) {
+      entry.getValue().summarize();
+      metricsValues.put(entry.getKey(), lastFacadeMetric.latencySubMetrics(entry.getValue()));
+    }
+
+    lastBucketSize = Math.max(16, metricsValues.size());
+    return metricsValues;
+  }
+}
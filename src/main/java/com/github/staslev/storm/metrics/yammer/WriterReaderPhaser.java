@@ -0,0 +1,47 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coordinates wait-free writers with a (single) reader that swaps the buffer they write to, and has to wait for the
+ * writes still in flight on the old buffer before reading it (see {@link IntervalHistogram} and
+ * {@link LatencyRecorder}).
+ * <br/>
+ * Writers enter and exit their critical section with a single atomic increment each. To swap buffers, the reader
+ * first publishes the new buffer and then flips the phase, which returns once every writer that entered before the
+ * flip (and so may have seen the old buffer) has exited.
+ */
+class WriterReaderPhaser {
+
+    private final AtomicLong startEpoch = new AtomicLong(0);
+    private final AtomicLong evenEndEpoch = new AtomicLong(0);
+    private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @return a value to pass to {@link #writerExit} once the write is done.
+     */
+    long writerEnter() {
+        return startEpoch.getAndIncrement();
+    }
+
+    void writerExit(final long enterValue) {
+        (enterValue < 0 ? oddEndEpoch : evenEndEpoch).getAndIncrement();
+    }
+
+    /**
+     * Waits for all writers that entered before the flip to exit. Must not be called concurrently.
+     */
+    void flipPhase() {
+
+        final boolean nextPhaseIsEven = startEpoch.get() < 0;
+        final long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+
+        (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initialStartValue);
+        final long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+
+        final AtomicLong previousEndEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+        while (previousEndEpoch.get() != startValueAtFlip) {
+            Thread.yield();
+        }
+    }
+}
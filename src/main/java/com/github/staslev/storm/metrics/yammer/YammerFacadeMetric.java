@@ -1,6 +1,7 @@
 package com.github.staslev.storm.metrics.yammer;
 
-import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.Histogram;
 import com.yammer.metrics.core.Metered;
@@ -8,21 +9,67 @@ import com.yammer.metrics.core.Metric;
 import com.yammer.metrics.core.MetricName;
 import com.yammer.metrics.core.MetricProcessor;
 import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.MetricsRegistryListener;
 import com.yammer.metrics.core.Timer;
 import com.yammer.metrics.stats.Snapshot;
 import org.apache.storm.metric.api.IMetric;
 import org.apache.storm.task.TopologyContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A metric facade, exposed to Storm's metric mechanism as a single metric, yet in fact holds multiple Yammer metrics.
  * Upon request to get it's value, it returns a Map representing all the underlying metrics it manages.
+ * <br/>
+ * The flattened name of each metric is computed once and cached for as long as the metric is registered. Optionally
+ * (see {@link #FACADE_METRIC_HEARTBEAT_BUCKETS}), metrics whose count has not changed since the previous bucket (i.e.,
+ * idle counters, histograms and timers) are left out of the bucket, and so are their snapshots, which are the costly
+ * part of serializing a histogram or a timer, so that the cost of a bucket depends on the number of active metrics
+ * rather than on the number of registered ones. Idle metrics are still included every few buckets, so that consumers
+ * can tell them apart from metrics that are gone. Gauges and meters (whose rates keep decaying while their count
+ * stays the same) are always included.
+ * <br/>
+ * In interval mode (see {@link #FACADE_METRIC_INTERVAL_MODE}), counts are reported as deltas since the previous
+ * bucket, and histograms and timers are cleared once serialized, so their percentiles cover a single bucket (values
+ * recorded while a histogram is being serialized may be lost, {@link IntervalHistogram} does not lose any, and
+ * covers a single bucket regardless of the mode). So do {@link LatencyRecorder}s, which are reported at configurable
+ * percentiles (see {@link #FACADE_METRIC_LATENCY_PERCENTILES}).
+ * <br/>
+ * {@link StripedCounter}s and {@link StripedMeter}s are serialized just like yammer's counters and meters.
+ * <br/>
+ * The returned Maps are handed over to Storm, which may read them after this metric's next bucket has begun, so they
+ * are presized rather than recycled.
  */
 public class YammerFacadeMetric implements IMetric {
 
-  private static class MetricSerializer implements MetricProcessor<Map> {
+  public static final Logger LOG = LoggerFactory.getLogger(YammerFacadeMetric.class);
+
+  /**
+   * The state a metric is serialized with, from one bucket to the next.
+   */
+  private static final class SerializedMetric {
+
+    private final String name;
+    private long lastCount;
+    private long previousCount;
+    private long lastReportedCount;
+    private boolean reported;
+    private int idleBuckets;
+
+    private SerializedMetric(final String name) {
+      this.name = name;
+    }
+  }
+
+  private class MetricSerializer implements MetricProcessor<Map> {
 
     private String toString(final MetricName metricName) {
       return com.github.staslev.storm.metrics.Metric.joinNameFragments(metricName.getGroup(),
@@ -30,27 +77,113 @@ public class YammerFacadeMetric implements IMetric {
                                                                        metricName.getName());
     }
 
+    private SerializedMetric serialized(final MetricName name) {
+      SerializedMetric serialized = serializedMetrics.get(name);
+      if (serialized == null) {
+        serialized = new SerializedMetric(toString(name));
+        serializedMetrics.put(name, serialized);
+      }
+      return serialized;
+    }
+
+    /**
+     * @return true if the metric should be included in the current bucket, i.e., if it has changed since the
+     * previous bucket, has never been included, or has been idle for {@link #heartbeatBuckets} buckets.
+     */
+    private boolean isActive(final SerializedMetric serialized, final boolean changed) {
+      if (changed || !serialized.reported || ++serialized.idleBuckets >= heartbeatBuckets) {
+        serialized.reported = true;
+        serialized.idleBuckets = 0;
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * A metric reported per interval (e.g., a count since the previous bucket) is active if its current interval's
+     * count is not 0, or if the previously reported one was not, so that consumers see it drop to 0, rather than keep
+     * the last value reported before it went idle.
+     *
+     * @return true if the metric should be included in the current bucket.
+     */
+    private boolean isIntervalActive(final SerializedMetric serialized, final long intervalCount) {
+      final boolean active = isActive(serialized, intervalCount != 0 || serialized.lastReportedCount != 0);
+      if (active) {
+        serialized.lastReportedCount = intervalCount;
+      }
+      return active;
+    }
+
+    /**
+     * Records the metric's current count, see {@link #reportedCount}.
+     *
+     * @return true if the metric should be included in the current bucket.
+     */
+    private boolean isCountActive(final SerializedMetric serialized, final long count) {
+      serialized.previousCount = serialized.lastCount;
+      serialized.lastCount = count;
+      return intervalMode ?
+             isIntervalActive(serialized, count - serialized.previousCount) :
+             isActive(serialized, count != serialized.previousCount);
+    }
+
+    /**
+     * @return the metric's count, or in interval mode, its count since the previous bucket.
+     */
+    private long reportedCount(final SerializedMetric serialized) {
+      return intervalMode ? serialized.lastCount - serialized.previousCount : serialized.lastCount;
+    }
+
+    /**
+     * Histograms and timers are cleared every bucket in interval mode, so their count is their count since the
+     * previous bucket to begin with.
+     *
+     * @return true if the metric should be included in the current bucket.
+     */
+    private boolean isSampledActive(final SerializedMetric serialized, final long count) {
+      if (intervalMode) {
+        serialized.previousCount = 0;
+        serialized.lastCount = count;
+        return isIntervalActive(serialized, count);
+      }
+      return isCountActive(serialized, count);
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public void processMeter(final MetricName name, final Metered meter, final Map context) throws Exception {
 
-      final Map subMetrics =
-              ImmutableMap
-                      .builder()
-                      .put("count", meter.count())
-                      .put("meanRate", meter.meanRate())
-                      .put("1MinuteRate", meter.oneMinuteRate())
-                      .put("5MinuteRate", meter.fiveMinuteRate())
-                      .put("15MinuteRate", meter.fifteenMinuteRate())
-                      .build();
+      // meters are always included, since their rates keep decaying while their count stays the same
+      final SerializedMetric serialized = serialized(name);
+      isCountActive(serialized, meter.count());
+
+      final Map subMetrics = new HashMap(8);
+      subMetrics.put("count", reportedCount(serialized));
+      subMetrics.put("meanRate", meter.meanRate());
+      subMetrics.put("1MinuteRate", meter.oneMinuteRate());
+      subMetrics.put("5MinuteRate", meter.fiveMinuteRate());
+      subMetrics.put("15MinuteRate", meter.fifteenMinuteRate());
 
-      context.put(toString(name), subMetrics);
+      context.put(serialized.name, subMetrics);
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public void processCounter(final MetricName name, final Counter counter, final Map context) throws Exception {
-      context.put(toString(name), counter.count());
+
+      final SerializedMetric serialized = serialized(name);
+      if (isCountActive(serialized, counter.count())) {
+        context.put(serialized.name, reportedCount(serialized));
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void processStripedCounter(final SerializedMetric serialized,
+                                       final StripedCounter counter,
+                                       final Map context) {
+      if (isCountActive(serialized, counter.count())) {
+        context.put(serialized.name, reportedCount(serialized));
+      }
     }
 
     @SuppressWarnings("unchecked")
@@ -59,42 +192,101 @@ public class YammerFacadeMetric implements IMetric {
                                  final Histogram histogram,
                                  final Map context) throws Exception {
 
+      final SerializedMetric serialized = serialized(metricName);
+      if (!isSampledActive(serialized, histogram.count())) {
+        return;
+      }
+
       final Snapshot snapshot = histogram.getSnapshot();
 
-      final Map subMetrics =
-              ImmutableMap
-                      .builder()
-                      .put("75percentile", snapshot.get75thPercentile())
-                      .put("95percentile", snapshot.get95thPercentile())
-                      .put("99percentile", snapshot.get99thPercentile())
-                      .put("median", snapshot.getMedian())
-                      .put("mean", histogram.mean())
-                      .put("min", histogram.min())
-                      .put("max", histogram.max())
-                      .put("stddev", histogram.stdDev())
-                      .build();
+      final Map subMetrics = new HashMap(16);
+      subMetrics.put("count", reportedCount(serialized));
+      subMetrics.put("75percentile", snapshot.get75thPercentile());
+      subMetrics.put("95percentile", snapshot.get95thPercentile());
+      subMetrics.put("99percentile", snapshot.get99thPercentile());
+      subMetrics.put("median", snapshot.getMedian());
+      subMetrics.put("mean", histogram.mean());
+      subMetrics.put("min", histogram.min());
+      subMetrics.put("max", histogram.max());
+      subMetrics.put("stddev", histogram.stdDev());
 
+      if (intervalMode) {
+        histogram.clear();
+      }
 
-      context.put(toString(metricName), subMetrics);
+      context.put(serialized.name, subMetrics);
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public void processTimer(final MetricName name, final Timer timer, final Map context) throws Exception {
 
+      final SerializedMetric serialized = serialized(name);
+      if (!isSampledActive(serialized, timer.count())) {
+        return;
+      }
+
       final Snapshot snapshot = timer.getSnapshot();
 
-      final Map subMetrics =
-              ImmutableMap
-                      .builder()
-                      .put("count", timer.count())
-                      .put("median", snapshot.getMedian())
-                      .put("75percentile", snapshot.get75thPercentile())
-                      .put("95percentile", snapshot.get95thPercentile())
-                      .put("99percentile", snapshot.get99thPercentile())
-                      .build();
+      final Map subMetrics = new HashMap(8);
+      subMetrics.put("count", reportedCount(serialized));
+      subMetrics.put("median", snapshot.getMedian());
+      subMetrics.put("75percentile", snapshot.get75thPercentile());
+      subMetrics.put("95percentile", snapshot.get95thPercentile());
+      subMetrics.put("99percentile", snapshot.get99thPercentile());
+
+      if (intervalMode) {
+        timer.clear();
+      }
+
+      context.put(serialized.name, subMetrics);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void processIntervalHistogram(final SerializedMetric serialized,
+                                          final IntervalHistogram histogram,
+                                          final Map context) {
+
+      final IntervalHistogram.Interval interval = histogram.swap();
+      if (!isIntervalActive(serialized, interval.getCount())) {
+        return;
+      }
+
+      final Snapshot snapshot = interval.getSnapshot();
+
+      final Map subMetrics = new HashMap(16);
+      subMetrics.put("count", interval.getCount());
+      subMetrics.put("min", interval.getMin());
+      subMetrics.put("max", interval.getMax());
+      subMetrics.put("mean", interval.getMean());
+      subMetrics.put("median", snapshot.getMedian());
+      subMetrics.put("75percentile", snapshot.get75thPercentile());
+      subMetrics.put("95percentile", snapshot.get95thPercentile());
+      subMetrics.put("99percentile", snapshot.get99thPercentile());
+
+      context.put(serialized.name, subMetrics);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void processLatencyRecorder(final SerializedMetric serialized,
+                                        final LatencyRecorder recorder,
+                                        final Map context) {
+
+      final LatencyRecorder.Interval interval = recorder.swap();
+      if (mergedLatencies != null) {
+        LatencyRecorder.Interval merged = mergedLatencies.get(serialized.name);
+        if (merged == null) {
+          merged = interval.newInterval();
+          mergedLatencies.put(serialized.name, merged);
+        }
+        merged.add(interval);
+        return;
+      }
+      if (!isIntervalActive(serialized, interval.getCount())) {
+        return;
+      }
 
-      context.put(toString(name), subMetrics);
+      context.put(serialized.name, latencySubMetrics(interval));
     }
 
     @SuppressWarnings("unchecked")
@@ -102,17 +294,138 @@ public class YammerFacadeMetric implements IMetric {
     public void processGauge(final MetricName name,
                              final com.yammer.metrics.core.Gauge<?> gauge,
                              final Map context) throws Exception {
-      context.put(toString(name), gauge.value());
+      if (gauge instanceof StripedCounter) {
+        processStripedCounter(serialized(name), (StripedCounter) gauge, context);
+      } else if (gauge instanceof Metered) {
+        processMeter(name, (Metered) gauge, context);
+      } else if (gauge instanceof LatencyRecorder) {
+        processLatencyRecorder(serialized(name), (LatencyRecorder) gauge, context);
+      } else if (gauge instanceof IntervalHistogram) {
+        processIntervalHistogram(serialized(name), (IntervalHistogram) gauge, context);
+      } else {
+        context.put(serialized(name).name, gauge.value());
+      }
     }
   }
 
   public static final String FACADE_METRIC_TIME_BUCKET_IN_SEC = "metrics.reporter.yammer.facade..metric.bucket.seconds";
   public static final String FACADE_METRIC_NAME = "YammerFacadeMetric";
-  private static final MetricSerializer METRIC_SERIALIZER = new MetricSerializer();
+
+  /**
+   * The name facade metrics merged across a component's executors in a worker are registered under, whose data points
+   * are reported at the worker level (see {@link com.github.staslev.storm.metrics.TaskInfos#workerLevel}) under
+   * {@link #FACADE_METRIC_NAME}.
+   */
+  public static final String WORKER_FACADE_METRIC_NAME = "YammerWorkerFacadeMetric";
+
+  /**
+   * The number of buckets an idle metric may be left out of, e.g., 5 to include idle metrics in every 5th bucket only.
+   * Defaults to 1, i.e., idle metrics are included in every bucket.
+   */
+  public static final String FACADE_METRIC_HEARTBEAT_BUCKETS =
+          "metrics.reporter.yammer.facade.metric.heartbeat.buckets";
+  private static final int DEFAULT_HEARTBEAT_BUCKETS = 1;
+
+  /**
+   * Whether to report the counts of counters, meters and timers since the previous bucket, and the percentiles of
+   * histograms and timers within the bucket, rather than over the lifetime of the metrics.
+   */
+  public static final String FACADE_METRIC_INTERVAL_MODE = "metrics.reporter.yammer.facade.metric.interval.mode";
+
+  /**
+   * A list (or a comma separated string) of the percentiles {@link LatencyRecorder}s are reported at, e.g.,
+   * "50,99,99.9", each reported as "p" followed by the percentile's digits (e.g., p50, p99 and p999).
+   */
+  public static final String FACADE_METRIC_LATENCY_PERCENTILES =
+          "metrics.reporter.yammer.facade.metric.latency.percentiles";
+  private static final double[] DEFAULT_LATENCY_PERCENTILES = {50, 99, 99.9};
+
   private final MetricsRegistry metricsRegistry;
+  private final int heartbeatBuckets;
+  private final boolean intervalMode;
+  private final double[] percentiles;
+  private final String[] percentileNames;
+  private final MetricSerializer metricSerializer = new MetricSerializer();
+  private final ConcurrentMap<MetricName, SerializedMetric> serializedMetrics =
+          new ConcurrentHashMap<MetricName, SerializedMetric>();
+  private int lastBucketSize = 16;
+  private Map<String, LatencyRecorder.Interval> mergedLatencies;
+
+  YammerFacadeMetric(final MetricsRegistry metricsRegistry, final int heartbeatBuckets, final boolean intervalMode) {
+    this(metricsRegistry, heartbeatBuckets, intervalMode, DEFAULT_LATENCY_PERCENTILES);
+  }
 
-  private YammerFacadeMetric(final MetricsRegistry metricsRegistry) {
+  YammerFacadeMetric(final MetricsRegistry metricsRegistry,
+                     final int heartbeatBuckets,
+                     final boolean intervalMode,
+                     final double[] percentiles) {
     this.metricsRegistry = metricsRegistry;
+    this.heartbeatBuckets = heartbeatBuckets;
+    this.intervalMode = intervalMode;
+    this.percentiles = percentiles;
+    this.percentileNames = new String[percentiles.length];
+    for (int i = 0; i < percentiles.length; i++) {
+      percentileNames[i] = percentileName(percentiles[i]);
+    }
+    metricsRegistry.addListener(new MetricsRegistryListener() {
+      @Override
+      public void onMetricAdded(final MetricName name, final Metric metric) {
+      }
+
+      @Override
+      public void onMetricRemoved(final MetricName name) {
+        serializedMetrics.remove(name);
+      }
+    });
+  }
+
+  private static double[] percentiles(final Object value) {
+    final List<String> percentiles = Lists.newArrayList();
+    for (final Object percentile : value instanceof List ? (List) value : ImmutableList.of(value)) {
+      percentiles.addAll(Arrays.asList(percentile.toString().split(",")));
+    }
+    final double[] result = new double[percentiles.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = Double.parseDouble(percentiles.get(i).trim());
+    }
+    return result;
+  }
+
+  static String percentileName(final double percentile) {
+    final String digits = BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString();
+    return "p" + digits.replace(".", "");
+  }
+
+  /**
+   * Creates a facade metric of a given registry, configured using the Storm configuration settings.
+   */
+  static YammerFacadeMetric from(final Map stormConf, final MetricsRegistry metricsRegistry) {
+    return from(stormConf,
+                metricsRegistry,
+                stormConf.containsKey(FACADE_METRIC_HEARTBEAT_BUCKETS) ?
+                Integer.parseInt(stormConf.get(FACADE_METRIC_HEARTBEAT_BUCKETS).toString()) :
+                DEFAULT_HEARTBEAT_BUCKETS);
+  }
+
+  /**
+   * Creates a facade metric of a given registry, configured using the Storm configuration settings, other than the
+   * number of buckets idle metrics may be left out of.
+   */
+  static YammerFacadeMetric from(final Map stormConf,
+                                 final MetricsRegistry metricsRegistry,
+                                 final int heartbeatBuckets) {
+
+    final boolean intervalMode = stormConf.containsKey(FACADE_METRIC_INTERVAL_MODE) &&
+                                 Boolean.parseBoolean(stormConf.get(FACADE_METRIC_INTERVAL_MODE).toString());
+    final double[] percentiles = stormConf.containsKey(FACADE_METRIC_LATENCY_PERCENTILES) ?
+                                 percentiles(stormConf.get(FACADE_METRIC_LATENCY_PERCENTILES)) :
+                                 DEFAULT_LATENCY_PERCENTILES;
+
+    return new YammerFacadeMetric(metricsRegistry, heartbeatBuckets, intervalMode, percentiles);
+  }
+
+  static int bucketSeconds(final Map stormConf) {
+    return Integer.parseInt(stormConf.get(FACADE_METRIC_TIME_BUCKET_IN_SEC).toString());
   }
 
   /**
@@ -121,7 +434,9 @@ public class YammerFacadeMetric implements IMetric {
    * <br/><br/>
 
    * <p/>
-   * Multiple registrations might cause metric duplications and problems in the reporting flow.
+   * Multiple registrations of the same registry might cause metric duplications and problems in the reporting flow,
+   * {@link StormYammerMetricsAdapter#configure(Map, TopologyContext)} gives each executor a registry of its own
+   * instead.
    *
    * @param stormConf       Storm configuration settings.
    * @param context         TopologyContext for the topology a face metric is to be reporting metrics for.
@@ -130,30 +445,57 @@ public class YammerFacadeMetric implements IMetric {
   public static void register(final Map stormConf,
                               final TopologyContext context,
                               final MetricsRegistry metricsRegistry) {
+    context.registerMetric(FACADE_METRIC_NAME, from(stormConf, metricsRegistry), bucketSeconds(stormConf));
+  }
+
+  /**
+   * @return the sub metrics a {@link LatencyRecorder}'s interval is reported as.
+   */
+  @SuppressWarnings("unchecked")
+  Map latencySubMetrics(final LatencyRecorder.Interval interval) {
+    final Map subMetrics = new HashMap(8 + percentiles.length * 2);
+    subMetrics.put("count", interval.getCount());
+    subMetrics.put("mean", interval.getMean());
+    subMetrics.put("max", interval.getMax());
+    for (int i = 0; i < percentiles.length; i++) {
+      subMetrics.put(percentileNames[i], interval.getValueAtPercentile(percentiles[i]));
+    }
+    return subMetrics;
+  }
 
-    context.registerMetric(FACADE_METRIC_NAME,
-                           new YammerFacadeMetric(metricsRegistry),
-                           Integer.parseInt(stormConf.get(FACADE_METRIC_TIME_BUCKET_IN_SEC).toString()));
+  /**
+   * Returns a Map representing all the (active) Yammer metrics managed by this facade metric, other than
+   * {@link LatencyRecorder}s, whose intervals are added to the specified ones (by name) instead, to be merged with
+   * those of other facade metrics (see {@link WorkerYammerFacadeMetric}).
+   */
+  Object getValueAndReset(final Map<String, LatencyRecorder.Interval> mergedLatencies) {
+    this.mergedLatencies = mergedLatencies;
+    try {
+      return getValueAndReset();
+    } finally {
+      this.mergedLatencies = null;
+    }
   }
 
   /**
-   * Returns a Map representing all the Yammer metrics managed by this facade metric.
+   * Returns a Map representing all the (active) Yammer metrics managed by this facade metric.
    *
-   * @return A Map which is in fact a snapshot of all the Yammer metrics managed by this facade metric.
+   * @return A Map which is in fact a snapshot of all the (active) Yammer metrics managed by this facade metric.
    */
   @Override
   public Object getValueAndReset() {
 
-    final Map metricsValues = new HashMap();
+    final Map metricsValues = new HashMap(lastBucketSize * 4 / 3 + 1);
 
     for (final Map.Entry<MetricName, Metric> entry : metricsRegistry.allMetrics().entrySet()) {
       try {
-        entry.getValue().processWith(METRIC_SERIALIZER, entry.getKey(), metricsValues);
+        entry.getValue().processWith(metricSerializer, entry.getKey(), metricsValues);
       } catch (final Exception e) {
-        // log?
+        LOG.error(String.format("Unable to serialize metric %s", entry.getKey()), e);
       }
     }
 
+    lastBucketSize = Math.max(16, metricsValues.size());
     return metricsValues;
   }
 }
@@ -0,0 +1,153 @@
+package com.github.staslev.storm.metrics;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class AsyncDispatcherTest {
+
+  private static class BlockingHandler implements AsyncDispatcher.Handler {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<Integer> handledTasks = Lists.newArrayList();
+
+    @Override
+    public void handle(final IMetricsConsumer.TaskInfo taskInfo,
+                       final Collection<IMetricsConsumer.DataPoint> dataPoints) {
+      started.countDown();
+      try {
+        release.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      synchronized (handledTasks) {
+        handledTasks.add(taskInfo.srcTaskId);
+      }
+    }
+  }
+
+  private final Collection<IMetricsConsumer.DataPoint> dataPoints =
+          ImmutableList.of(new IMetricsConsumer.DataPoint("a", 1), new IMetricsConsumer.DataPoint("b", 2));
+
+  private IMetricsConsumer.TaskInfo taskInfo(final int taskId) {
+    return new IMetricsConsumer.TaskInfo("localhost", 6700, "bolt", taskId, 1000, 60);
+  }
+
+  private List<Integer> dispatchToSlowHandler(final AsyncDispatcher.OverflowPolicy overflowPolicy,
+                                              final long expectedDroppedDataPoints) throws Exception {
+
+    final BlockingHandler handler = new BlockingHandler();
+    final AsyncDispatcher dispatcher = new AsyncDispatcher(handler, 2, overflowPolicy, 1, 1, overflowPolicy.name());
+
+    dispatcher.dispatch(taskInfo(1), dataPoints);
+    handler.started.await();
+
+    for (int taskId = 2; taskId <= 5; taskId++) {
+      dispatcher.dispatch(taskInfo(taskId), dataPoints);
+    }
+
+    assertThat(dispatcher.getQueueDepth(), is(2));
+    assertThat(dispatcher.getDroppedDataPoints(), is(expectedDroppedDataPoints));
+
+    handler.release.countDown();
+    dispatcher.shutdown();
+
+    return handler.handledTasks;
+  }
+
+  @Test
+  public void testDropNewest() throws Exception {
+    assertThat(dispatchToSlowHandler(AsyncDispatcher.OverflowPolicy.DROP_NEWEST, 4),
+               is((List<Integer>) ImmutableList.of(1, 2, 3)));
+  }
+
+  @Test
+  public void testDropOldest() throws Exception {
+    assertThat(dispatchToSlowHandler(AsyncDispatcher.OverflowPolicy.DROP_OLDEST, 4),
+               is((List<Integer>) ImmutableList.of(1, 4, 5)));
+  }
+
+  private Thread dispatchInBackground(final AsyncDispatcher dispatcher, final int... taskIds) throws Exception {
+
+    final Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (final int taskId : taskIds) {
+          dispatcher.dispatch(taskInfo(taskId), dataPoints);
+        }
+      }
+    });
+    producer.start();
+
+    while (producer.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+    return producer;
+  }
+
+  @Test
+  public void testBlockLosesNothing() throws Exception {
+
+    final BlockingHandler handler = new BlockingHandler();
+    final AsyncDispatcher dispatcher =
+            new AsyncDispatcher(handler, 2, AsyncDispatcher.OverflowPolicy.BLOCK, 1, 1, "block");
+
+    dispatcher.dispatch(taskInfo(1), dataPoints);
+    handler.started.await();
+    dispatcher.dispatch(taskInfo(2), dataPoints);
+    dispatcher.dispatch(taskInfo(3), dataPoints);
+
+    final Thread producer = dispatchInBackground(dispatcher, 4, 5);
+
+    assertThat(producer.isAlive(), is(true));
+    assertThat(dispatcher.getQueueDepth(), is(2));
+    assertThat(dispatcher.getDroppedDataPoints(), is(0L));
+
+    handler.release.countDown();
+    producer.join();
+    dispatcher.shutdown();
+
+    assertThat(dispatcher.getDroppedDataPoints(), is(0L));
+    assertThat(handler.handledTasks, is((List<Integer>) ImmutableList.of(1, 2, 3, 4, 5)));
+  }
+
+  @Test
+  public void testShutdownUnblocksWaitingProducer() throws Exception {
+
+    final BlockingHandler handler = new BlockingHandler();
+    final AsyncDispatcher dispatcher =
+            new AsyncDispatcher(handler, 2, AsyncDispatcher.OverflowPolicy.BLOCK, 1, 1, "block-shutdown");
+
+    dispatcher.dispatch(taskInfo(1), dataPoints);
+    handler.started.await();
+    dispatcher.dispatch(taskInfo(2), dataPoints);
+    dispatcher.dispatch(taskInfo(3), dataPoints);
+
+    final Thread producer = dispatchInBackground(dispatcher, 4);
+    final Thread shutdown = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        dispatcher.shutdown();
+      }
+    });
+    shutdown.start();
+
+    producer.join(TimeUnit.SECONDS.toMillis(5));
+
+    assertThat(producer.isAlive(), is(false));
+    assertThat(dispatcher.getDroppedDataPoints(), is((long) dataPoints.size()));
+
+    handler.release.countDown();
+    shutdown.join();
+  }
+}
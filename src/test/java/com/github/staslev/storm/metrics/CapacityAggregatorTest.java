@@ -0,0 +1,80 @@
+package com.github.staslev.storm.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class CapacityAggregatorTest {
+
+  private static final int INTERVAL_SECS = 60;
+
+  private final CapacityAggregator aggregator = new CapacityAggregator(2, 0.8, 2);
+
+  private IMetricsConsumer.TaskInfo taskInfo(final int taskId, final long interval) {
+    return new IMetricsConsumer.TaskInfo("localhost", 6700, "bolt", taskId, interval * INTERVAL_SECS, INTERVAL_SECS);
+  }
+
+  private Map<String, Double> valuesOf(final CapacityAggregator.Rollup rollup) {
+    final Map<String, Double> values = Maps.newHashMap();
+    for (final Metric metric : rollup.getMetrics()) {
+      values.put(metric.getOperation(), metric.getValue());
+    }
+    return values;
+  }
+
+  @Test
+  public void testRollupIsEmittedOnceComponentAdvancesToNextInterval() {
+
+    assertThat(aggregator.record("bolt", 0.2, taskInfo(1, 10)), is(nullValue()));
+    assertThat(aggregator.record("bolt", 0.6, taskInfo(2, 10)), is(nullValue()));
+
+    final CapacityAggregator.Rollup rollup = aggregator.record("bolt", 0.4, taskInfo(1, 11));
+
+    assertThat(rollup.getTaskInfo().srcComponentId, is("bolt"));
+    assertThat(rollup.getTaskInfo().srcTaskId, is(TaskInfos.ALL_TASKS));
+    assertThat(rollup.getTaskInfo().srcWorkerPort, is(TaskInfos.ALL_PORTS));
+    assertThat(rollup.getTaskInfo().timestamp, is(10L * INTERVAL_SECS));
+
+    assertThat(valuesOf(rollup), is((Map<String, Double>) ImmutableMap.of("execute-capacity-rollup.max", 0.6,
+                                                                          "execute-capacity-rollup.mean", 0.4,
+                                                                          "execute-capacity-rollup.p99", 0.6,
+                                                                          "execute-capacity-rollup.hot", 0.0)));
+  }
+
+  @Test
+  public void testTaskCapacityIsSmoothedOverWindow() {
+
+    aggregator.record("bolt", 0.2, taskInfo(1, 10));
+    aggregator.record("bolt", 0.6, taskInfo(1, 11));
+
+    final CapacityAggregator.Rollup rollup = aggregator.record("bolt", 0.0, taskInfo(1, 12));
+
+    assertThat(valuesOf(rollup).get("execute-capacity-rollup.max"), is(0.4));
+    assertThat(valuesOf(rollup).get("execute-capacity-rollup.mean"), is(0.4));
+  }
+
+  @Test
+  public void testComponentIsHotAfterConsecutiveIntervalsOverThreshold() {
+
+    aggregator.record("bolt", 0.9, taskInfo(1, 10));
+    final CapacityAggregator.Rollup first = aggregator.record("bolt", 0.95, taskInfo(1, 11));
+    final CapacityAggregator.Rollup second = aggregator.record("bolt", 0.1, taskInfo(1, 12));
+    final CapacityAggregator.Rollup third = aggregator.record("bolt", 0.1, taskInfo(1, 13));
+
+    assertThat(valuesOf(first).get("execute-capacity-rollup.hot"), is(0.0));
+    assertThat(valuesOf(second).get("execute-capacity-rollup.hot"), is(1.0));
+    assertThat(valuesOf(third).get("execute-capacity-rollup.hot"), is(0.0));
+  }
+
+  @Test
+  public void testDisabledByDefault() {
+    assertThat(CapacityAggregator.from(ImmutableMap.of()), is(nullValue()));
+  }
+}
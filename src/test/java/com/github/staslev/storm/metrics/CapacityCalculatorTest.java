@@ -0,0 +1,85 @@
+package com.github.staslev.storm.metrics;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class CapacityCalculatorTest {
+
+  private static Map<String, Double> byName(final List<Metric> metrics) {
+    final Map<String, Double> byName = Maps.newLinkedHashMap();
+    for (final Metric metric : metrics) {
+      byName.put(metric.getMetricName(), metric.getValue());
+    }
+    return byName;
+  }
+
+  @Test
+  public void testCapacityIsCalculatedPerInputStreamAndInTotal() throws Exception {
+
+    final List<Metric> metrics =
+            ImmutableList.of(new Metric("bolt", "execute-count.spout_default", 1000),
+                             new Metric("bolt", "execute-latency.other_stream", 2),
+                             new Metric("bolt", "emit-count.default", 10),
+                             new Metric("bolt", "execute-latency.spout_default", 6),
+                             new Metric("bolt", "execute-count.other_stream", 3000),
+                             new Metric("bolt", "execute-count.count_only", 10));
+
+    final IMetricsConsumer.TaskInfo taskInfo = new IMetricsConsumer.TaskInfo("localhost", 6700, "bolt", 3, 1000, 60);
+
+    assertThat(byName(CapacityCalculator.calculateCapacityMetrics(ImmutableMap.of("bolt", metrics), taskInfo)),
+               is((Map<String, Double>) ImmutableMap.of("bolt.execute-capacity.spout_default", 0.1,
+                                                        "bolt.execute-capacity.other_stream", 0.1,
+                                                        "bolt.execute-capacity-total", 0.2)));
+  }
+
+  @Test
+  public void testNoCapacityWithoutMatchingStreams() throws Exception {
+
+    final CapacityCalculator.Collector collector = new CapacityCalculator.Collector();
+    collector.offer("execute-count.a", 100);
+    collector.offer("execute-latency.b", 100);
+
+    final IMetricsConsumer.TaskInfo taskInfo = new IMetricsConsumer.TaskInfo("localhost", 6700, "bolt", 3, 1000, 60);
+
+    assertThat(collector.capacityMetrics("bolt", taskInfo).isEmpty(), is(true));
+  }
+
+  @Test
+  public void testCapacityCarriesSourceTimestampAndTask() throws Exception {
+
+    final CapacityCalculator.Collector collector = new CapacityCalculator.Collector();
+    collector.offer("execute-count.a", 100);
+    collector.offer("execute-latency.a", 100);
+
+    final IMetricsConsumer.TaskInfo taskInfo = new IMetricsConsumer.TaskInfo("localhost", 6700, "bolt", 3, 1000, 60);
+
+    for (final Metric metric : collector.capacityMetrics("bolt", taskInfo)) {
+      assertThat(metric.getTimestamp(), is(1000L));
+      assertThat(metric.getTaskId(), is(3));
+    }
+  }
+
+  @Test
+  public void testCapacityIsKeyedByStream() throws Exception {
+
+    final CapacityCalculator.Collector collector = new CapacityCalculator.Collector();
+    collector.offer("execute-count.a", 100);
+    collector.offer("execute-latency.a", 100);
+
+    final IMetricsConsumer.TaskInfo taskInfo = new IMetricsConsumer.TaskInfo("localhost", 6700, "bolt", 3, 1000, 60);
+    final List<Metric> capacityMetrics = collector.capacityMetrics("bolt", taskInfo);
+
+    assertThat(capacityMetrics.get(0).getKey().getName(), is("execute-capacity"));
+    assertThat(capacityMetrics.get(0).getKey().getStream(), is("a"));
+    assertThat(MetricKey.of(capacityMetrics.get(1), taskInfo).getName(), is("execute-capacity-total"));
+  }
+}
@@ -0,0 +1,36 @@
+package com.github.staslev.storm.metrics;
+
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ConcurrentLongMapTest {
+
+  @Test
+  public void testPutGetAndRemoveAcrossResizes() throws Exception {
+
+    final ConcurrentLongMap<String> map = new ConcurrentLongMap<String>();
+
+    for (long key = -500; key < 500; key++) {
+      assertThat(map.put(key << 32, Long.toString(key)), is(nullValue()));
+    }
+
+    assertThat(map.size(), is(1000));
+    assertThat(map.values().size(), is(1000));
+
+    for (long key = -500; key < 500; key++) {
+      assertThat(map.get(key << 32), is(Long.toString(key)));
+    }
+
+    assertThat(map.putIfAbsent(7L << 32, "other"), is("7"));
+    assertThat(map.remove(7L << 32, "other"), is(false));
+    assertThat(map.remove(7L << 32, "7"), is(true));
+    assertThat(map.get(7L << 32), is(nullValue()));
+    assertThat(map.remove(8L << 32), is("8"));
+    assertThat(map.get(8L << 32), is(nullValue()));
+    assertThat(map.get(9L << 32), is("9"));
+    assertThat(map.size(), is(998));
+  }
+}
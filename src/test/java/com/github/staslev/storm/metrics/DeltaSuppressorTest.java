@@ -0,0 +1,68 @@
+package com.github.staslev.storm.metrics;
+
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class DeltaSuppressorTest {
+
+  private final IMetricsConsumer.TaskInfo taskInfo = new IMetricsConsumer.TaskInfo("host", 6700, "bolt", 3, 1000, 60);
+
+  private final MetricKey failCount = MetricKey.of(taskInfo, "bolt", "fail-count", "default");
+  private final MetricKey emitCount = MetricKey.of(taskInfo, "bolt", "emit-count", "default");
+
+  @Test
+  public void testUnchangedSeriesAreSuppressedUntilHeartbeat() {
+
+    final DeltaSuppressor suppressor = new DeltaSuppressor(0, 3);
+
+    assertThat(suppressor.shouldProcess(failCount, 0), is(true));
+    assertThat(suppressor.shouldProcess(failCount, 0), is(false));
+    assertThat(suppressor.shouldProcess(failCount, 0), is(false));
+    assertThat(suppressor.shouldProcess(failCount, 0), is(true));
+    assertThat(suppressor.shouldProcess(failCount, 0), is(false));
+    assertThat(suppressor.shouldProcess(failCount, 1), is(true));
+
+    assertThat(suppressor.shouldProcess(emitCount, 0), is(true));
+  }
+
+  @Test
+  public void testChangesWithinEpsilonAreSuppressed() {
+
+    final DeltaSuppressor suppressor = new DeltaSuppressor(0.5, 10);
+
+    assertThat(suppressor.shouldProcess(emitCount, 10), is(true));
+    assertThat(suppressor.shouldProcess(emitCount, 10.3), is(false));
+    assertThat(suppressor.shouldProcess(emitCount, 10.6), is(true));
+  }
+
+  @Test
+  public void testTableGrows() {
+
+    final DeltaSuppressor suppressor = new DeltaSuppressor(0, 10);
+
+    for (int taskId = 0; taskId < 5000; taskId++) {
+      assertThat(suppressor.shouldProcess(new MetricKey(0, 6700, 0, taskId, 0, MetricDimensions.NONE), 1), is(true));
+    }
+    for (int taskId = 0; taskId < 5000; taskId++) {
+      assertThat(suppressor.shouldProcess(new MetricKey(0, 6700, 0, taskId, 0, MetricDimensions.NONE), 1), is(false));
+    }
+  }
+
+  @Test
+  public void testSeriesNotCheckedAreEvicted() {
+
+    final DeltaSuppressor suppressor = new DeltaSuppressor(0, 10, 1000);
+
+    assertThat(suppressor.shouldProcess(failCount, 0, 1), is(true));
+    assertThat(suppressor.shouldProcess(emitCount, 0, 1), is(true));
+    assertThat(suppressor.shouldProcess(emitCount, 0, 900), is(false));
+    assertThat(suppressor.shouldProcess(emitCount, 0, 1800), is(false));
+
+    // failCount was last checked over a second ago, and is processed as a new series once evicted
+    assertThat(suppressor.shouldProcess(failCount, 0, 1800), is(true));
+    assertThat(suppressor.shouldProcess(emitCount, 0, 1800), is(false));
+  }
+}
@@ -0,0 +1,110 @@
+package com.github.staslev.storm.metrics;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class MetricAggregatorTest {
+
+  private static final int INTERVAL_SECS = 60;
+
+  private IMetricsConsumer.TaskInfo taskInfo(final int port, final int taskId, final long interval) {
+    return new IMetricsConsumer.TaskInfo("localhost", port, "bolt", taskId, interval * INTERVAL_SECS, INTERVAL_SECS);
+  }
+
+  private List<Metric> executeCount(final double value) {
+    return ImmutableList.of(new Metric("bolt", "execute-count.default", value));
+  }
+
+  private Map<String, Double> valuesOf(final CapacityAggregator.Rollup rollup) {
+    final Map<String, Double> values = Maps.newHashMap();
+    for (final Metric metric : rollup.getMetrics()) {
+      values.put(metric.getOperation(), metric.getValue());
+    }
+    return values;
+  }
+
+  @Test
+  public void testTasksAreRolledUpToComponentLevel() {
+
+    final MetricAggregator aggregator =
+            MetricAggregator.from(ImmutableMap.of(MetricAggregator.AGGREGATION_LEVEL, MetricAggregator.COMPONENT_LEVEL,
+                                                  MetricAggregator.AGGREGATES, "sum,min,max,mean"));
+
+    assertThat(aggregator.record("bolt", executeCount(10), taskInfo(6700, 1, 10)), is(nullValue()));
+    assertThat(aggregator.record("bolt", executeCount(30), taskInfo(6701, 2, 10)), is(nullValue()));
+
+    final CapacityAggregator.Rollup rollup = aggregator.record("bolt", executeCount(20), taskInfo(6700, 1, 11));
+
+    assertThat(rollup.getTaskInfo().srcTaskId, is(TaskInfos.ALL_TASKS));
+    assertThat(rollup.getTaskInfo().srcWorkerPort, is(TaskInfos.ALL_PORTS));
+    assertThat(rollup.getTaskInfo().timestamp, is(10L * INTERVAL_SECS));
+    assertThat(valuesOf(rollup), is((Map<String, Double>) ImmutableMap.of("execute-count.default.sum", 40.0,
+                                                                          "execute-count.default.min", 10.0,
+                                                                          "execute-count.default.max", 30.0,
+                                                                          "execute-count.default.mean", 20.0)));
+
+    assertThat(valuesOf(aggregator.record("bolt", executeCount(0), taskInfo(6700, 1, 12))).get(
+            "execute-count.default.sum"), is(20.0));
+  }
+
+  @Test
+  public void testTasksAreRolledUpToWorkerLevel() {
+
+    final MetricAggregator aggregator =
+            MetricAggregator.from(ImmutableMap.of(MetricAggregator.AGGREGATION_LEVEL, MetricAggregator.WORKER_LEVEL));
+
+    aggregator.record("bolt", executeCount(10), taskInfo(6700, 1, 10));
+    aggregator.record("bolt", executeCount(30), taskInfo(6701, 2, 10));
+    aggregator.record("bolt", executeCount(50), taskInfo(6701, 3, 10));
+
+    final CapacityAggregator.Rollup rollup = aggregator.record("bolt", executeCount(0), taskInfo(6701, 2, 11));
+
+    assertThat(rollup.getTaskInfo().srcTaskId, is(TaskInfos.ALL_TASKS));
+    assertThat(rollup.getTaskInfo().srcWorkerPort, is(6701));
+    assertThat(valuesOf(rollup), is((Map<String, Double>) ImmutableMap.of("execute-count.default.sum", 80.0,
+                                                                          "execute-count.default.mean", 40.0)));
+  }
+
+  @Test
+  public void testRollupsAreKeyedByStream() {
+
+    final MetricAggregator aggregator =
+            MetricAggregator.from(ImmutableMap.of(MetricAggregator.AGGREGATION_LEVEL, MetricAggregator.COMPONENT_LEVEL,
+                                                  MetricAggregator.AGGREGATES, "sum"));
+
+    final IMetricsConsumer.TaskInfo taskInfo = taskInfo(6700, 1, 10);
+    final MetricKey key = MetricKey.of(taskInfo, "bolt", "execute-count", "default");
+    aggregator.record("bolt",
+                      ImmutableList.of(new Metric("bolt", "execute-count.default", 10, 0, 1, null, key)),
+                      taskInfo);
+
+    final Metric rollup = aggregator.record("bolt", executeCount(20), taskInfo(6700, 1, 11)).getMetrics().get(0);
+
+    assertThat(rollup.getOperation(), is("execute-count.default.sum"));
+    assertThat(rollup.getKey().getName(), is("execute-count.sum"));
+    assertThat(rollup.getKey().getStream(), is("default"));
+    assertThat(rollup.getKey().getTaskId(), is(TaskInfos.ALL_TASKS));
+  }
+
+  @Test
+  public void testOnlySelectedMetricsAreRaw() {
+
+    final MetricAggregator aggregator =
+            MetricAggregator.from(ImmutableMap.of(MetricAggregator.AGGREGATION_LEVEL, MetricAggregator.COMPONENT_LEVEL,
+                                                  MetricAggregator.RAW_METRICS, "prefix:bolt.execute-latency"));
+
+    assertThat(aggregator.isRaw(new Metric("bolt", "execute-latency.default", 1)), is(true));
+    assertThat(aggregator.isRaw(new Metric("bolt", "execute-count.default", 1)), is(false));
+    assertThat(MetricAggregator.from(ImmutableMap.of()), is(nullValue()));
+  }
+}
@@ -0,0 +1,45 @@
+package com.github.staslev.storm.metrics;
+
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class MetricKeyTest {
+
+  private final IMetricsConsumer.TaskInfo taskInfo = new IMetricsConsumer.TaskInfo("host", 6700, "bolt", 3, 1000, 60);
+
+  @Test
+  public void testKeysOfTheSameDimensionsAreEqual() throws Exception {
+
+    final MetricKey key = MetricKey.of(taskInfo, "bolt", "execute-count", "spout_default");
+
+    assertThat(key, is(MetricKey.of(taskInfo, "bolt", "execute-count", "spout_default")));
+    assertThat(key.hashCode(), is(MetricKey.of(taskInfo, "bolt", "execute-count", "spout_default").hashCode()));
+    assertThat(key, is(not(MetricKey.of(taskInfo, "bolt", "execute-count", "default"))));
+    assertThat(key.getComponentId(), is(MetricDimensions.id("bolt")));
+    assertThat(key.getOperation(), is("execute-count.spout_default"));
+  }
+
+  @Test
+  public void testKeysAreFlattenedAsDotSeparatedNames() throws Exception {
+
+    assertThat(MetricKey.of(taskInfo, "bolt", "execute-count", "spout_default").flatten(),
+               is("host.6700.bolt.3.execute-count.spout_default"));
+    assertThat(MetricKey.of(TaskInfos.componentLevel(taskInfo, 1000), "bolt", "execute-capacity", null).flatten(),
+               is("all.all.bolt.all.execute-capacity"));
+  }
+
+  @Test
+  public void testMetricsWithoutKeysAreKeyedByOperation() throws Exception {
+
+    final MetricKey key = MetricKey.of(new Metric("bolt", "execute-capacity-total", 0.5), taskInfo);
+
+    assertThat(key.getName(), is("execute-capacity-total"));
+    assertThat(key.getStreamId(), is(MetricDimensions.NONE));
+    assertThat(key.getStream(), is(nullValue()));
+  }
+}
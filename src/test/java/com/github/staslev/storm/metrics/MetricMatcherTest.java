@@ -0,0 +1,70 @@
+package com.github.staslev.storm.metrics;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class MetricMatcherTest {
+
+  @Test
+  public void testSingleRegex() throws Exception {
+
+    final MetricMatcher matcher = new MetricMatcher("bolt\\.execute-.*");
+
+    assertThat(matcher.apply(new Metric("bolt", "execute-count.spout_default", 1)), is(true));
+    assertThat(matcher.apply(new Metric("spout", "execute-count.spout_default", 1)), is(false));
+  }
+
+  @Test
+  public void testAllowedAndDeniedPatterns() throws Exception {
+
+    final MetricMatcher matcher =
+            new MetricMatcher(ImmutableList.of(MetricMatcher.PREFIX + "bolt.",
+                                               MetricMatcher.GLOB + "spout.*-count.?",
+                                               MetricMatcher.REGEX + "acker\\..*"),
+                              ImmutableList.of(MetricMatcher.GLOB + "*.system_tick",
+                                               MetricMatcher.PREFIX + "bolt.receive"),
+                              100);
+
+    assertThat(matcher.matches("bolt.execute-count.spout_default"), is(true));
+    assertThat(matcher.matches("bolt.execute-count.system_tick"), is(false));
+    assertThat(matcher.matches("bolt.receive.population"), is(false));
+    assertThat(matcher.matches("spout.ack-count.a"), is(true));
+    assertThat(matcher.matches("spout.ack-count.ab"), is(false));
+    assertThat(matcher.matches("spout.ack-latency.a"), is(false));
+    assertThat(matcher.matches("acker.emit-count.default"), is(true));
+    assertThat(matcher.matches("bolts.emit-count.default"), is(false));
+  }
+
+  @Test
+  public void testPatternsFromConfiguration() throws Exception {
+
+    final MetricMatcher matcher =
+            MetricMatcher.from("bolt\\..*",
+                               ImmutableMap.of(MetricMatcher.ALLOWED_METRICS, MetricMatcher.PREFIX + "spout.",
+                                               MetricMatcher.DENIED_METRICS,
+                                               ImmutableList.of(MetricMatcher.GLOB + "*.system_tick")));
+
+    assertThat(matcher.matches("bolt.execute-count.spout_default"), is(true));
+    assertThat(matcher.matches("spout.emit-count.default"), is(true));
+    assertThat(matcher.matches("spout.emit-count.system_tick"), is(false));
+    assertThat(matcher.matches("acker.emit-count.default"), is(false));
+  }
+
+  @Test
+  public void testBackReferencesReferToTheirOwnPattern() throws Exception {
+
+    final MetricMatcher matcher =
+            new MetricMatcher(ImmutableList.of("(spout)\\..*", "(bolt)\\.\\1-.*", "(?<c>acker)\\.\\k<c>-.*"),
+                              ImmutableList.<String>of(),
+                              100);
+
+    assertThat(matcher.matches("spout.emit-count.default"), is(true));
+    assertThat(matcher.matches("bolt.bolt-count.default"), is(true));
+    assertThat(matcher.matches("bolt.spout-count.default"), is(false));
+    assertThat(matcher.matches("acker.acker-count.default"), is(true));
+  }
+}
@@ -0,0 +1,34 @@
+package com.github.staslev.storm.metrics;
+
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class MetricNameCacheTest {
+
+  private final MetricNameCache metricNames = new MetricNameCache(100);
+
+  @Test
+  public void testNamesMatchUncachedNames() throws Exception {
+
+    assertThat(metricNames.component("__acker"), is(Metric.cleanNameFragment("__acker")));
+    assertThat(metricNames.operation("__execute-count"), is(Metric.cleanNameFragment("__execute-count")));
+    assertThat(metricNames.operation("__execute-count", "spout:default"),
+               is(Metric.joinNameFragments(Metric.cleanNameFragment("__execute-count"),
+                                           Metric.cleanNameFragment("spout:default"))));
+    assertThat(metricNames.metricName("bolt", "execute-count.spout_default"),
+               is(new Metric("bolt", "execute-count.spout_default", 0).getMetricName()));
+  }
+
+  @Test
+  public void testNamesAreReused() throws Exception {
+
+    final String operation = metricNames.operation("__execute-count", "spout:default");
+
+    assertThat(metricNames.operation("__execute-count", "spout:default"), is(sameInstance(operation)));
+    assertThat(metricNames.metricName("bolt", operation),
+               is(sameInstance(metricNames.metricName("bolt", operation))));
+  }
+}
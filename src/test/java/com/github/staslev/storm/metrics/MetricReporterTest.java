@@ -0,0 +1,130 @@
+package com.github.staslev.storm.metrics;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.yammer.metrics.core.MetricName;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.apache.storm.task.TopologyContext;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class MetricReporterTest {
+
+  public static class RecordingStormMetricProcessor implements StormMetricProcessor {
+
+    static final Map<String, Double> processed = Maps.newLinkedHashMap();
+    static final Map<String, MetricKey> keys = Maps.newHashMap();
+
+    public RecordingStormMetricProcessor(final Map config) {
+    }
+
+    @Override
+    public MetricName name(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+      return new MetricName(metric.getComponent(), Integer.toString(taskInfo.srcTaskId), metric.getOperation());
+    }
+
+    @Override
+    public void process(final Metric metric, final IMetricsConsumer.TaskInfo taskInfo) {
+      synchronized (processed) {
+        processed.put(metric.getMetricName(), metric.getValue());
+        keys.put(metric.getMetricName(), metric.getKey());
+      }
+    }
+  }
+
+  public static class RecordingBatchStormMetricProcessor extends RecordingStormMetricProcessor
+          implements BatchStormMetricProcessor {
+
+    static int batches;
+
+    public RecordingBatchStormMetricProcessor(final Map config) {
+      super(config);
+    }
+
+    @Override
+    public void process(final Collection<Metric> metrics, final IMetricsConsumer.TaskInfo taskInfo) {
+      batches++;
+      for (final Metric metric : metrics) {
+        process(metric, taskInfo);
+      }
+    }
+  }
+
+  private final IMetricsConsumer.TaskInfo taskInfo =
+          new IMetricsConsumer.TaskInfo("localhost", 6700, "bolt", 3, 1000, 60);
+
+  private MetricReporter newMetricReporter(final Class<? extends StormMetricProcessor> stormMetricProcessorClass,
+                                           final Map stormConf) {
+    final MetricReporter metricReporter = new MetricReporter();
+    metricReporter.prepare(stormConf,
+                           new MetricReporterConfig("bolt\\.(execute|nested|custom).*",
+                                                    stormMetricProcessorClass.getName()),
+                           new TopologyContext(null, stormConf, null, null, null, null, null, null, 1, 6700, null,
+                                               null, null, null, null, null),
+                           null);
+    return metricReporter;
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    RecordingStormMetricProcessor.processed.clear();
+    RecordingStormMetricProcessor.keys.clear();
+    RecordingBatchStormMetricProcessor.batches = 0;
+  }
+
+  private void testDataPointsAreFlattenedFilteredAndProcessed(
+          final Class<? extends StormMetricProcessor> stormMetricProcessorClass,
+          final Map stormConf) throws Exception {
+
+    final MetricReporter metricReporter = newMetricReporter(stormMetricProcessorClass, stormConf);
+
+    metricReporter.handleDataPoints(
+            taskInfo,
+            ImmutableList.of(new IMetricsConsumer.DataPoint("__execute-count", ImmutableMap.of("spout:default", 300L)),
+                             new IMetricsConsumer.DataPoint("__execute-latency", ImmutableMap.of("spout:default", 20.0)),
+                             new IMetricsConsumer.DataPoint("__emit-count", ImmutableMap.of("default", 10L)),
+                             new IMetricsConsumer.DataPoint("custom", 7),
+                             new IMetricsConsumer.DataPoint("nested", ImmutableMap.of("a", ImmutableMap.of("b", 1)))));
+    metricReporter.cleanup();
+
+    assertThat(RecordingStormMetricProcessor.processed,
+               is((Map<String, Double>) ImmutableMap.<String, Double>builder()
+                                                    .put("bolt.execute-count.spout_default", 300.0)
+                                                    .put("bolt.execute-latency.spout_default", 20.0)
+                                                    .put("bolt.custom", 7.0)
+                                                    .put("bolt.nested.a.b", 1.0)
+                                                    .put("bolt.execute-capacity.spout_default", 0.1)
+                                                    .put("bolt.execute-capacity-total", 0.1)
+                                                    .build()));
+
+    final MetricKey key = RecordingStormMetricProcessor.keys.get("bolt.execute-count.spout_default");
+    assertThat(key.getName(), is("execute-count"));
+    assertThat(key.getStream(), is("spout_default"));
+    assertThat(key.getTaskId(), is(taskInfo.srcTaskId));
+  }
+
+  @Test
+  public void testDataPointsAreFlattenedFilteredAndProcessed() throws Exception {
+    testDataPointsAreFlattenedFilteredAndProcessed(RecordingStormMetricProcessor.class, new HashMap());
+  }
+
+  @Test
+  public void testDataPointsAreProcessedInBatches() throws Exception {
+    testDataPointsAreFlattenedFilteredAndProcessed(RecordingBatchStormMetricProcessor.class, new HashMap());
+    assertThat(RecordingBatchStormMetricProcessor.batches, is(1));
+  }
+
+  @Test
+  public void testDataPointsAreProcessedAsynchronously() throws Exception {
+    testDataPointsAreFlattenedFilteredAndProcessed(RecordingStormMetricProcessor.class,
+                                                   ImmutableMap.of(AsyncDispatcher.ASYNC_ENABLED, true));
+  }
+}
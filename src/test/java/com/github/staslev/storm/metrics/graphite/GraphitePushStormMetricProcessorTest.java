@@ -0,0 +1,72 @@
+package com.github.staslev.storm.metrics.graphite;
+
+import com.github.staslev.storm.metrics.Metric;
+import com.github.staslev.storm.metrics.StormMetricProcessor;
+import com.github.staslev.storm.metrics.yammer.SimpleGraphiteStormMetricProcessor;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.yammer.metrics.core.Counter;
+import org.apache.storm.Config;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class GraphitePushStormMetricProcessorTest {
+
+  @Test
+  public void testEverySampleIsSentWithItsSourceTimestamp() throws Exception {
+
+    final ServerSocket server = new ServerSocket(0);
+
+    final Map config = new HashMap();
+    config.put(Config.TOPOLOGY_NAME, "someTopology");
+    config.put(SimpleGraphiteStormMetricProcessor.GRAPHITE_HOST, "localhost");
+    config.put(SimpleGraphiteStormMetricProcessor.GRAPHITE_PORT, server.getLocalPort());
+    config.put(SimpleGraphiteStormMetricProcessor.GRAPHITE_PROTOCOL, "plaintext");
+    final GraphitePushStormMetricProcessor processor = new GraphitePushStormMetricProcessor(config);
+
+    final IMetricsConsumer.TaskInfo taskInfo = new IMetricsConsumer.TaskInfo("localhost", 6700, "bolt", 3, 1120, 60);
+
+    processor.process(ImmutableList.of(new Metric("bolt", "emit-count", 1, 1000, 3),
+                                       new Metric("bolt", "emit-count", 2, 1060, 3),
+                                       new Metric("bolt", "ack-count", 3)),
+                      taskInfo);
+
+    final Socket socket = server.accept();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+
+    assertThat(reader.readLine(), is("Storm.someTopology.localhost.6700.bolt.3.emit-count.value 1.0 1000"));
+    assertThat(reader.readLine(), is("Storm.someTopology.localhost.6700.bolt.3.emit-count.value 2.0 1060"));
+    assertThat(reader.readLine(), is("Storm.someTopology.localhost.6700.bolt.3.ack-count.value 3.0 1120"));
+
+    processor.close();
+    socket.close();
+    server.close();
+  }
+
+  @Test
+  public void testMetricsProcessedOnceClosedAreDropped() throws Exception {
+
+    final Map config = new HashMap();
+    config.put(GraphitePushStormMetricProcessor.PUSH_QUEUE_CAPACITY, 1);
+    final GraphitePushStormMetricProcessor processor = new GraphitePushStormMetricProcessor(config);
+    final IMetricsConsumer.TaskInfo taskInfo = new IMetricsConsumer.TaskInfo("localhost", 6700, "bolt", 3, 1120, 60);
+    final Counter droppedSamples =
+            StormMetricProcessor.METRICS_REGISTRY.newCounter(GraphitePushStormMetricProcessor.DROPPED_SAMPLES);
+    final long dropped = droppedSamples.count();
+
+    processor.close();
+    processor.process(ImmutableList.of(new Metric("bolt", "emit-count", 1)), taskInfo);
+
+    assertThat(droppedSamples.count(), is(dropped + 1));
+  }
+}
@@ -0,0 +1,102 @@
+package com.github.staslev.storm.metrics.graphite;
+
+import com.github.staslev.storm.metrics.StormMetricProcessor;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class GraphiteSenderTest {
+
+  private ServerSocket server;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new ServerSocket(0);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  private GraphiteSender sender(final GraphiteProtocol protocol, final int batchSize) {
+    return new GraphiteSender("localhost", server.getLocalPort(), protocol, batchSize);
+  }
+
+  @Test
+  public void testPlaintextBatchesShareConnection() throws Exception {
+
+    final GraphiteSender sender = sender(GraphiteProtocol.PLAINTEXT, 2);
+
+    sender.send(GraphiteSender.encodePath("Storm.some topology.bolt"), "value", 1.5, 1000);
+    sender.send(GraphiteSender.encodePath("Storm.other"), null, 2, 1000);
+    sender.send(GraphiteSender.encodePath("Storm.third"), "count", 3, 1001);
+    sender.close();
+
+    final Socket socket = server.accept();
+    final String received = new String(ByteStreams.toByteArray(socket.getInputStream()), Charsets.UTF_8);
+    socket.close();
+
+    assertThat(received, is("Storm.some-topology.bolt.value 1.5 1000\n" +
+                            "Storm.other 2.0 1000\n" +
+                            "Storm.third.count 3.0 1001\n"));
+  }
+
+  @Test
+  public void testPickleBatch() throws Exception {
+
+    final GraphiteSender sender = sender(GraphiteProtocol.PICKLE, 10);
+
+    sender.send(GraphiteSender.encodePath("Storm.bolt"), "value", 0.25, 1000);
+    sender.flush();
+
+    final Socket socket = server.accept();
+    final InputStream input = socket.getInputStream();
+    final int length = new DataInputStream(input).readInt();
+    final byte[] payload = new byte[length];
+    ByteStreams.readFully(input, payload);
+    sender.close();
+    socket.close();
+
+    final ByteBuffer expected = ByteBuffer.allocate(length);
+    expected.put(new byte[]{(byte) 0x80, 2, ']', '('});
+    expected.put((byte) 'X').order(ByteOrder.LITTLE_ENDIAN).putInt(16).put("Storm.bolt.value".getBytes(Charsets.UTF_8));
+    expected.put((byte) 'J').putInt(1000).order(ByteOrder.BIG_ENDIAN);
+    expected.put((byte) 'G').putDouble(0.25);
+    expected.put(new byte[]{(byte) 0x86, (byte) 0x86, 'e', '.'});
+
+    assertThat(expected.position(), is(length));
+    assertThat(payload, is(expected.array()));
+  }
+
+  @Test
+  public void testBatchesAreDroppedWhileServerIsDown() throws IOException {
+
+    final GraphiteSender sender = sender(GraphiteProtocol.PLAINTEXT, 1);
+    server.close();
+
+    final long dropped = droppedBatches();
+    sender.send(GraphiteSender.encodePath("Storm.bolt"), "value", 1, 1000);
+    sender.send(GraphiteSender.encodePath("Storm.bolt"), "value", 1, 1001);
+    sender.close();
+
+    assertThat(droppedBatches() - dropped, is(2L));
+  }
+
+  private long droppedBatches() {
+    return StormMetricProcessor.METRICS_REGISTRY.newCounter(GraphiteSender.BATCHES_DROPPED).count();
+  }
+}
@@ -0,0 +1,103 @@
+package com.github.staslev.storm.metrics.graphite;
+
+import com.github.staslev.storm.metrics.StormMetricProcessor;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class GraphiteSpillTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private GraphiteSpill spill(final long maxSpillBytes, final int segmentBytes) throws Exception {
+    return new GraphiteSpill(temporaryFolder.getRoot(), maxSpillBytes, segmentBytes, 1000000);
+  }
+
+  private String replay(final GraphiteSpill spill) throws Exception {
+
+    final ServerSocket server = new ServerSocket(0);
+    final GraphiteSender sender = new GraphiteSender("localhost", server.getLocalPort(), GraphiteProtocol.PLAINTEXT, 10);
+
+    Thread.sleep(10);
+    assertThat(spill.replay(sender) > 0, is(true));
+    sender.close();
+
+    final Socket socket = server.accept();
+    final String replayed = new String(ByteStreams.toByteArray(socket.getInputStream()), Charsets.UTF_8);
+    socket.close();
+    server.close();
+    return replayed;
+  }
+
+  @Test
+  public void testSpilledMetricsAreReplayedInOrderAfterRestart() throws Exception {
+
+    final GraphiteSpill spill = spill(1024 * 1024, 64 * 1024);
+
+    spill.spill(GraphiteSender.encodePath("Storm.bolt"), "value", 1, 1000);
+    spill.spill(GraphiteSender.encodePath("Storm.spout"), "value", 2, 1000);
+    spill.spill(GraphiteSender.encodePath("Storm.bolt"), "value", 3, 1060);
+
+    assertThat(spill.getSpillBytes() > 0, is(true));
+    assertThat(spill.getReplayLagSecs(1100 * 1000), is(100L));
+    spill.close();
+
+    final GraphiteSpill recovered = spill(1024 * 1024, 64 * 1024);
+    assertThat(recovered.getSpillBytes(), is(spill.getSpillBytes()));
+
+    assertThat(replay(recovered), is("Storm.bolt.value 1.0 1000\n" +
+                                     "Storm.spout.value 2.0 1000\n" +
+                                     "Storm.bolt.value 3.0 1060\n"));
+    assertThat(recovered.getSpillBytes(), is(0L));
+    assertThat(recovered.getReplayLagSecs(1100 * 1000), is(0L));
+    recovered.close();
+  }
+
+  @Test
+  public void testSpillMetricsAreRemovedOnceClosed() throws Exception {
+
+    final MetricName spillBytes = new MetricName(GraphiteSpill.SPILL_BYTES.getGroup(),
+                                                 GraphiteSpill.SPILL_BYTES.getType(),
+                                                 GraphiteSpill.SPILL_BYTES.getName(),
+                                                 temporaryFolder.getRoot().getName() + "-0");
+
+    final GraphiteSpill spill = spill(1024 * 1024, 64 * 1024);
+    spill.spill(GraphiteSender.encodePath("Storm.bolt"), "value", 1, 1000);
+    spill.close();
+
+    assertThat(StormMetricProcessor.METRICS_REGISTRY.allMetrics().containsKey(spillBytes), is(false));
+
+    final GraphiteSpill recovered = spill(1024 * 1024, 64 * 1024);
+    replay(recovered);
+
+    assertThat(((Gauge) StormMetricProcessor.METRICS_REGISTRY.allMetrics().get(spillBytes)).value(), is((Object) 0L));
+    recovered.close();
+  }
+
+  @Test
+  public void testOldestSegmentIsDroppedWhenCapIsReached() throws Exception {
+
+    final GraphiteSpill spill = spill(128, 64);
+
+    for (int timestamp = 1; timestamp <= 6; timestamp++) {
+      spill.spill(GraphiteSender.encodePath("Storm.bolt"), null, timestamp, timestamp);
+    }
+
+    assertThat(replay(spill), is("Storm.bolt 3.0 3\n" +
+                                 "Storm.bolt 4.0 4\n" +
+                                 "Storm.bolt 5.0 5\n" +
+                                 "Storm.bolt 6.0 6\n"));
+    spill.close();
+  }
+}
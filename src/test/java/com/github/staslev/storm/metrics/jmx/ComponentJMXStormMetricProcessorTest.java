@@ -0,0 +1,72 @@
+package com.github.staslev.storm.metrics.jmx;
+
+import com.github.staslev.storm.metrics.Metric;
+import org.apache.storm.Config;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ComponentJMXStormMetricProcessorTest {
+
+  @Test
+  public void testSingleMBeanPerComponentWithValuePerTask() throws Exception {
+
+    final Map config = new HashMap();
+    config.put(Config.TOPOLOGY_NAME, "someTopology");
+    final ComponentJMXStormMetricProcessor processor = new ComponentJMXStormMetricProcessor(config);
+
+    final IMetricsConsumer.TaskInfo task1 = new IMetricsConsumer.TaskInfo("host", 6700, "bolt", 1, 0, 60);
+    final IMetricsConsumer.TaskInfo task2 = new IMetricsConsumer.TaskInfo("host", 6701, "bolt", 2, 0, 60);
+
+    processor.process(new Metric("bolt", "emit-count", 1), task1);
+    processor.process(new Metric("bolt", "emit-count", 2), task2);
+    processor.process(new Metric("bolt", "ack-count", 3), task2);
+
+    final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName objectName = processor.objectName("bolt");
+
+    assertThat(mBeanServer.queryNames(new ObjectName("storm:topology=someTopology,*"), null).size(), is(1));
+    assertThat(mBeanServer.getMBeanInfo(objectName).getAttributes().length, is(2));
+
+    final TabularData emitCounts = (TabularData) mBeanServer.getAttribute(objectName, "emit-count");
+    assertThat(emitCounts.size(), is(2));
+
+    final CompositeData task2EmitCount = emitCounts.get(new Object[]{"host-6701-2"});
+    assertThat((Integer) task2EmitCount.get("port"), is(6701));
+    assertThat((Integer) task2EmitCount.get("taskId"), is(2));
+    assertThat((Double) task2EmitCount.get("value"), is(2.0));
+
+    processor.close();
+  }
+
+  @Test
+  public void testMBeansAreUnregisteredOnceTheLastProcessorIsClosed() throws Exception {
+
+    final Map config = new HashMap();
+    config.put(Config.TOPOLOGY_NAME, "closedTopology");
+    final ComponentJMXStormMetricProcessor processor1 = new ComponentJMXStormMetricProcessor(config);
+    final ComponentJMXStormMetricProcessor processor2 = new ComponentJMXStormMetricProcessor(config);
+
+    final IMetricsConsumer.TaskInfo task = new IMetricsConsumer.TaskInfo("host", 6700, "bolt", 1, 0, 60);
+    processor1.process(new Metric("bolt", "emit-count", 1), task);
+
+    final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName objectName = processor1.objectName("bolt");
+
+    processor1.close();
+    assertThat(mBeanServer.isRegistered(objectName), is(true));
+
+    processor2.close();
+    assertThat(mBeanServer.isRegistered(objectName), is(false));
+  }
+}
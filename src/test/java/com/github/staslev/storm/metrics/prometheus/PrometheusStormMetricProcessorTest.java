@@ -0,0 +1,133 @@
+package com.github.staslev.storm.metrics.prometheus;
+
+import com.github.staslev.storm.metrics.Metric;
+import com.github.staslev.storm.metrics.MetricKey;
+import com.github.staslev.storm.metrics.TaskInfos;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import org.apache.storm.Config;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class PrometheusStormMetricProcessorTest {
+
+  @Test
+  public void testLatestValuesAreServedOverHttp() throws Exception {
+
+    final Map config = new HashMap();
+    config.put(Config.TOPOLOGY_NAME, "someTopology");
+    config.put(PrometheusStormMetricProcessor.PROMETHEUS_PORT, 0);
+    final PrometheusStormMetricProcessor processor = new PrometheusStormMetricProcessor(config);
+
+    final IMetricsConsumer.TaskInfo taskInfo = new IMetricsConsumer.TaskInfo("host", 6700, "bolt", 3, 0, 60);
+    processor.process(ImmutableList.of(new Metric("bolt", "execute-count.default", 10),
+                                       new Metric("bolt", "execute-latency.default", 0.5)),
+                      taskInfo);
+    processor.process(new Metric("bolt", "execute-count.default", 12), taskInfo);
+    processor.process(new Metric("bolt", "execute-capacity-rollup.max", 0.25),
+                      TaskInfos.componentLevel(taskInfo, 0));
+
+    final HttpURLConnection connection =
+            (HttpURLConnection) new URL("http://localhost:" + processor.getPort() + "/metrics").openConnection();
+
+    assertThat(connection.getResponseCode(), is(200));
+    assertThat(connection.getContentType(), is(PrometheusExporter.CONTENT_TYPE));
+
+    final String exposition = new String(ByteStreams.toByteArray(connection.getInputStream()), Charsets.UTF_8);
+    connection.disconnect();
+
+    assertThat(exposition.contains("# TYPE storm_execute_count_default gauge\n" +
+                                   "storm_execute_count_default{topology=\"someTopology\",component=\"bolt\"," +
+                                   "task=\"3\",host=\"host\",port=\"6700\"} 12\n"),
+               is(true));
+    assertThat(exposition.contains("storm_execute_latency_default{topology=\"someTopology\",component=\"bolt\"," +
+                                   "task=\"3\",host=\"host\",port=\"6700\"} 0.5\n"),
+               is(true));
+    assertThat(exposition.contains("storm_execute_capacity_rollup_max{topology=\"someTopology\",component=\"bolt\"," +
+                                   "task=\"all\",host=\"all\",port=\"all\"} 0.25\n"),
+               is(true));
+
+    processor.close();
+  }
+
+  @Test
+  public void testPortInUseDisablesTheProcessor() throws Exception {
+
+    final ServerSocket taken = new ServerSocket(0);
+
+    final Map config = new HashMap();
+    config.put(PrometheusStormMetricProcessor.PROMETHEUS_PORT, taken.getLocalPort());
+    final PrometheusStormMetricProcessor processor = new PrometheusStormMetricProcessor(config);
+
+    assertThat(processor.getPort(), is(-1));
+    processor.process(new Metric("bolt", "execute-count.default", 10),
+                      new IMetricsConsumer.TaskInfo("host", 6700, "bolt", 3, 0, 60));
+
+    processor.close();
+    taken.close();
+  }
+
+  @Test
+  public void testExporterStopsServingOnceTheLastProcessorIsClosed() throws Exception {
+
+    final Map config = new HashMap();
+    config.put(PrometheusStormMetricProcessor.PROMETHEUS_PORT, 0);
+    final PrometheusStormMetricProcessor processor1 = new PrometheusStormMetricProcessor(config);
+    final PrometheusStormMetricProcessor processor2 = new PrometheusStormMetricProcessor(config);
+    final int port = processor1.getPort();
+
+    assertThat(processor2.getPort(), is(port));
+
+    processor1.close();
+    final ServerSocket stillServing = bind(port);
+    assertThat(stillServing == null, is(true));
+
+    processor2.close();
+    final ServerSocket stopped = bind(port);
+    assertThat(stopped != null, is(true));
+    stopped.close();
+  }
+
+  private static ServerSocket bind(final int port) {
+    try {
+      return new ServerSocket(port);
+    } catch (final IOException e) {
+      return null;
+    }
+  }
+
+  @Test
+  public void testStreamsAreLabelsOfTheirOperationsFamily() throws Exception {
+
+    final PrometheusExporter exporter = PrometheusExporter.start(0, 0);
+    final IMetricsConsumer.TaskInfo taskInfo = new IMetricsConsumer.TaskInfo("host", 6700, "spout", 4, 0, 60);
+
+    exporter.update("someTopology", MetricKey.of(taskInfo, "spout", "emit-count", "default"), 1);
+    exporter.update("someTopology", MetricKey.of(taskInfo, "spout", "emit-count", "__system"), 2);
+
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    exporter.write(output, System.currentTimeMillis());
+    final String exposition = new String(output.toByteArray(), Charsets.UTF_8);
+
+    final String labels = "{topology=\"someTopology\",component=\"spout\",task=\"4\",host=\"host\",port=\"6700\",";
+    assertThat(exposition.contains("# TYPE storm_emit_count gauge\n"), is(true));
+    assertThat(exposition.contains("storm_emit_count" + labels + "stream=\"default\"} 1\n"), is(true));
+    assertThat(exposition.contains("storm_emit_count" + labels + "stream=\"__system\"} 2\n"), is(true));
+    assertThat(exposition.indexOf("# TYPE storm_emit_count gauge"),
+               is(exposition.lastIndexOf("# TYPE storm_emit_count gauge")));
+
+    exporter.close();
+  }
+}
@@ -0,0 +1,91 @@
+package com.github.staslev.storm.metrics.statsd;
+
+import com.github.staslev.storm.metrics.Metric;
+import com.github.staslev.storm.metrics.StormMetricProcessor;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.yammer.metrics.core.Counter;
+import org.apache.storm.Config;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class StatsdStormMetricProcessorTest {
+
+  private final IMetricsConsumer.TaskInfo taskInfo =
+          new IMetricsConsumer.TaskInfo("localhost", 6700, "bolt", 3, 1000, 60);
+
+  private DatagramSocket listener;
+
+  @Before
+  public void setUp() throws Exception {
+    listener = new DatagramSocket(0);
+    listener.setSoTimeout(5000);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    listener.close();
+  }
+
+  private StatsdStormMetricProcessor processor(final int maxDatagramSize) {
+    final Map config = new HashMap();
+    config.put(Config.TOPOLOGY_NAME, "someTopology");
+    config.put(StatsdStormMetricProcessor.STATSD_HOST, "localhost");
+    config.put(StatsdStormMetricProcessor.STATSD_PORT, listener.getLocalPort());
+    config.put(StatsdStormMetricProcessor.MAX_DATAGRAM_SIZE, maxDatagramSize);
+    return new StatsdStormMetricProcessor(config);
+  }
+
+  private String receive() throws Exception {
+    final DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+    listener.receive(packet);
+    return new String(packet.getData(), 0, packet.getLength(), Charsets.UTF_8);
+  }
+
+  @Test
+  public void testMetricsArePackedIntoDatagrams() throws Exception {
+
+    processor(130).process(ImmutableList.of(new Metric("bolt", "execute-count.default", 12),
+                                            new Metric("bolt", "emit-count", -2),
+                                            new Metric("bolt", "ack:count", 1)),
+                           taskInfo);
+
+    assertThat(receive(), is("Storm.someTopology.localhost.6700.bolt.3.execute-count.default:12.0|g"));
+    assertThat(receive(), is("Storm.someTopology.localhost.6700.bolt.3.emit-count:0|g\n" +
+                             "Storm.someTopology.localhost.6700.bolt.3.emit-count:-2.0|g"));
+    assertThat(receive(), is("Storm.someTopology.localhost.6700.bolt.3.ack_count:1.0|g"));
+  }
+
+  @Test
+  public void testSmallMetricsShareDatagram() throws Exception {
+
+    processor(1432).process(ImmutableList.of(new Metric("bolt", "a", 1), new Metric("bolt", "b", 2)), taskInfo);
+
+    assertThat(receive(), is("Storm.someTopology.localhost.6700.bolt.3.a:1.0|g\n" +
+                             "Storm.someTopology.localhost.6700.bolt.3.b:2.0|g"));
+  }
+
+  @Test
+  public void testDatagramsAreDroppedOnceClosed() throws Exception {
+
+    final StatsdStormMetricProcessor processor = processor(1432);
+    final Counter droppedDatagrams = StormMetricProcessor.METRICS_REGISTRY.newCounter(
+            StatsdStormMetricProcessor.DROPPED_DATAGRAMS);
+    final long dropped = droppedDatagrams.count();
+
+    processor.close();
+    processor.process(new Metric("bolt", "a", 1), taskInfo);
+
+    assertThat(droppedDatagrams.count(), is(dropped + 1));
+  }
+}
@@ -0,0 +1,46 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyRecorderTest {
+
+  @Test
+  public void testBucketsAreContiguousAndWithinOnePercent() throws Exception {
+
+    for (long micros = 1; micros < TimeUnit.HOURS.toMicros(1); micros += 1 + micros / 97) {
+      final int index = LatencyRecorder.index(micros);
+      assertTrue(LatencyRecorder.lowestValue(index) <= micros);
+      assertTrue(LatencyRecorder.highestValue(index) >= micros);
+      assertTrue(LatencyRecorder.highestValue(index) - micros <= micros / 100.0);
+      assertThat(LatencyRecorder.lowestValue(index + 1), is(LatencyRecorder.highestValue(index) + 1));
+    }
+  }
+
+  @Test
+  public void testSwapReportsTheEndedIntervalOnly() throws Exception {
+
+    final LatencyRecorder recorder = new LatencyRecorder();
+    for (int i = 1; i <= 1000; i++) {
+      recorder.update(i, TimeUnit.MILLISECONDS);
+    }
+    recorder.update(2, TimeUnit.HOURS);
+
+    final LatencyRecorder.Interval interval = recorder.swap();
+    assertThat(interval.getCount(), is(1001L));
+    assertThat(Math.abs(interval.getValueAtPercentile(50) - 500) <= 5, is(true));
+    assertThat(Math.abs(interval.getValueAtPercentile(99) - 990) <= 10, is(true));
+    assertThat(Math.abs(interval.getMax() - TimeUnit.HOURS.toMillis(1)) <= TimeUnit.HOURS.toMillis(1) / 100, is(true));
+
+    recorder.update(7, TimeUnit.MILLISECONDS);
+    final LatencyRecorder.Interval next = recorder.swap();
+    assertThat(next.getCount(), is(1L));
+    assertThat(Math.abs(next.getMean() - 7) <= 0.07, is(true));
+    assertThat(recorder.swap().getCount(), is(0L));
+  }
+}
@@ -0,0 +1,62 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import com.google.common.base.Supplier;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ReporterSchedulerTest {
+
+  private static class CountingReporter implements Runnable, Closeable {
+
+    private static final AtomicInteger created = new AtomicInteger();
+    private static final AtomicInteger closed = new AtomicInteger();
+
+    private CountingReporter() {
+      created.incrementAndGet();
+    }
+
+    @Override
+    public void run() {
+    }
+
+    @Override
+    public void close() {
+      closed.incrementAndGet();
+    }
+  }
+
+  private final Supplier<CountingReporter> reporter = new Supplier<CountingReporter>() {
+    @Override
+    public CountingReporter get() {
+      return new CountingReporter();
+    }
+  };
+
+  @Test
+  public void testReporterIsSharedUntilLastHandleIsReleased() throws Exception {
+
+    final int reporters = ReporterScheduler.reporters();
+
+    final ReporterScheduler.Handle first = ReporterScheduler.schedule("counting", reporter, 60000);
+    final ReporterScheduler.Handle second = ReporterScheduler.schedule("counting", reporter, 60000);
+
+    assertThat(CountingReporter.created.get(), is(1));
+    assertThat(ReporterScheduler.reporters(), is(reporters + 1));
+
+    first.release();
+    first.release();
+    assertThat(CountingReporter.closed.get(), is(0));
+
+    second.release();
+    assertThat(CountingReporter.closed.get(), is(1));
+    assertThat(ReporterScheduler.reporters(), is(reporters));
+
+    ReporterScheduler.schedule("counting", reporter, 60000).release();
+    assertThat(CountingReporter.created.get(), is(2));
+  }
+}
@@ -1,6 +1,7 @@
 package com.github.staslev.storm.metrics.yammer;
 
 import com.github.staslev.storm.metrics.MetricReporterConfig;
+import com.github.staslev.storm.metrics.graphite.GraphiteProtocol;
 import org.apache.storm.Config;
 import org.junit.Test;
 
@@ -36,8 +37,10 @@ public class SimpleGraphiteStormMetricProcessorTest {
 
     assertThat(stormMetricProcessor.getGraphiteServerHost(), is(host));
     assertThat(stormMetricProcessor.getGraphiteServerPort(), is(port));
+    assertThat(stormMetricProcessor.getGraphiteProtocol(), is(GraphiteProtocol.PLAINTEXT));
     assertThat(stormMetricProcessor.topologyName, is(topologyName));
     assertThat(stormMetricProcessor.config, is(config));
 
+    stormMetricProcessor.close();
   }
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import com.github.staslev.storm.metrics.Metric;
+import com.github.staslev.storm.metrics.StormMetricProcessor;
+import com.google.common.collect.ImmutableList;
+import com.yammer.metrics.core.MetricName;
+import org.apache.storm.metric.api.IMetricsConsumer;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class SimpleStormMetricProcessorTest {
+
+  @Test
+  public void testGaugesAreUpdatedInPlaceAndRecreatedOnceRemoved() throws Exception {
+
+    final SimpleStormMetricProcessor processor = new SimpleStormMetricProcessor(new HashMap());
+    final IMetricsConsumer.TaskInfo taskInfo =
+            new IMetricsConsumer.TaskInfo("inPlaceHost", 6700, "bolt", 7, System.currentTimeMillis(), 60);
+    final Metric metric = new Metric("bolt", "execute-count.spout_default", 1);
+    final MetricName metricName = processor.name(metric, taskInfo);
+
+    processor.process(metric, taskInfo);
+    final DoubleGauge gauge = (DoubleGauge) StormMetricProcessor.METRICS_REGISTRY.allMetrics().get(metricName);
+
+    processor.process(new Metric("bolt", "execute-count.spout_default", 2), taskInfo);
+    assertThat((DoubleGauge) StormMetricProcessor.METRICS_REGISTRY.allMetrics().get(metricName),
+               is(sameInstance(gauge)));
+    assertThat(gauge.doubleValue(), is(2.0));
+
+    StormMetricProcessor.METRICS_REGISTRY.removeMetric(metricName);
+    processor.process(new Metric("bolt", "execute-count.spout_default", 3), taskInfo);
+
+    final DoubleGauge recreated = (DoubleGauge) StormMetricProcessor.METRICS_REGISTRY.allMetrics().get(metricName);
+    assertThat(recreated == gauge, is(false));
+    assertThat(recreated.doubleValue(), is(3.0));
+
+    StormMetricProcessor.METRICS_REGISTRY.removeMetric(metricName);
+  }
+
+  @Test
+  public void testBatchesUpdateTheirTasksGaugesInPlace() throws Exception {
+
+    final SimpleStormMetricProcessor processor = new SimpleStormMetricProcessor(new HashMap());
+    final IMetricsConsumer.TaskInfo taskInfo =
+            new IMetricsConsumer.TaskInfo("batchHost", 6700, "bolt", 8, System.currentTimeMillis(), 60);
+    final Metric acks = new Metric("bolt", "ack-count.default", 1);
+    final Metric emits = new Metric("bolt", "emit-count.default", 2);
+
+    processor.process(ImmutableList.of(acks, emits), taskInfo);
+    final DoubleGauge ackGauge =
+            (DoubleGauge) StormMetricProcessor.METRICS_REGISTRY.allMetrics().get(processor.name(acks, taskInfo));
+
+    processor.process(ImmutableList.of(new Metric("bolt", "ack-count.default", 3),
+                                       new Metric("bolt", "emit-count.default", 4)), taskInfo);
+
+    assertThat((DoubleGauge) StormMetricProcessor.METRICS_REGISTRY.allMetrics().get(processor.name(acks, taskInfo)),
+               is(sameInstance(ackGauge)));
+    assertThat(ackGauge.doubleValue(), is(3.0));
+    assertThat(((DoubleGauge) StormMetricProcessor.METRICS_REGISTRY.allMetrics()
+                                                                 .get(processor.name(emits, taskInfo))).doubleValue(),
+               is(4.0));
+
+    StormMetricProcessor.METRICS_REGISTRY.removeMetric(processor.name(acks, taskInfo));
+    StormMetricProcessor.METRICS_REGISTRY.removeMetric(processor.name(emits, taskInfo));
+    processor.close();
+  }
+
+  @Test
+  public void testGaugesOfAnotherTypeAreReplaced() throws Exception {
+
+    final SimpleStormMetricProcessor processor = new SimpleStormMetricProcessor(new HashMap());
+    final IMetricsConsumer.TaskInfo taskInfo =
+            new IMetricsConsumer.TaskInfo("replacedHost", 6700, "bolt", 9, System.currentTimeMillis(), 60);
+    final Metric metric = new Metric("bolt", "execute-count.spout_default", 5);
+    final MetricName metricName = processor.name(metric, taskInfo);
+
+    StormMetricProcessor.METRICS_REGISTRY.newGauge(metricName, new SettableGauge<Double>(1.0));
+    processor.process(metric, taskInfo);
+
+    final DoubleGauge gauge = (DoubleGauge) StormMetricProcessor.METRICS_REGISTRY.allMetrics().get(metricName);
+    assertThat(gauge.doubleValue(), is(5.0));
+
+    StormMetricProcessor.METRICS_REGISTRY.removeMetric(metricName);
+    processor.close();
+  }
+}
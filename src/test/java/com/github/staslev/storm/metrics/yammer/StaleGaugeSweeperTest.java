@@ -0,0 +1,32 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class StaleGaugeSweeperTest {
+
+  @Test
+  public void testOnlyStaleGaugesAreEvicted() throws Exception {
+
+    final MetricsRegistry metricsRegistry = new MetricsRegistry();
+    final SettableGauge<Double> stale = new SettableGauge<Double>(1.0);
+    final SettableGauge<Double> live = new SettableGauge<Double>(2.0);
+    final MetricName counterName = new MetricName("group", "type", "counter");
+
+    metricsRegistry.newGauge(new MetricName("group", "type", "stale"), stale);
+    metricsRegistry.newGauge(new MetricName("group", "type", "live"), live);
+    metricsRegistry.newCounter(counterName);
+
+    final long now = live.getLastUpdated() + 1000;
+    stale.lastUpdated = now - 2000;
+
+    assertThat(StaleGaugeSweeper.evictStaleGauges(metricsRegistry, 1500, now), is(1));
+    assertThat(metricsRegistry.allMetrics().containsKey(new MetricName("group", "type", "stale")), is(false));
+    assertThat(metricsRegistry.allMetrics().containsKey(new MetricName("group", "type", "live")), is(true));
+    assertThat(metricsRegistry.allMetrics().containsKey(counterName), is(true));
+  }
+}
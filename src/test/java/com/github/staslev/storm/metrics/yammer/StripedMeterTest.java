@@ -0,0 +1,62 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import com.yammer.metrics.core.Clock;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class StripedMeterTest {
+
+  private static class ManualClock extends Clock {
+
+    private long nanos;
+
+    @Override
+    public long tick() {
+      return nanos;
+    }
+  }
+
+  @Test
+  public void testConcurrentMarksAreAllCounted() throws Exception {
+
+    final StripedMeter meter = new StripedMeter("tuples", TimeUnit.SECONDS);
+    final CountDownLatch done = new CountDownLatch(4);
+    for (int i = 0; i < 4; i++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 100000; j++) {
+            meter.mark();
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+    done.await();
+
+    assertThat(meter.count(), is(400000L));
+    assertThat(meter.value(), is(400000L));
+  }
+
+  @Test
+  public void testRatesSpreadEventsOverElapsedTicks() throws Exception {
+
+    final ManualClock clock = new ManualClock();
+    final StripedMeter meter = new StripedMeter("tuples", TimeUnit.SECONDS, clock);
+
+    for (int minute = 0; minute < 15; minute++) {
+      meter.mark(6000);
+      clock.nanos += TimeUnit.MINUTES.toNanos(1);
+      meter.oneMinuteRate();
+    }
+
+    assertThat(Math.abs(meter.meanRate() - 100) < 0.01, is(true));
+    assertThat(Math.abs(meter.oneMinuteRate() - 100) < 0.01, is(true));
+    assertThat(Math.abs(meter.fiveMinuteRate() - 100) < 1, is(true));
+  }
+}
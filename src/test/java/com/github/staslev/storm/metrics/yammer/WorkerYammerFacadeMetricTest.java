@@ -0,0 +1,98 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class WorkerYammerFacadeMetricTest {
+
+  @Test
+  public void testExecutorRegistriesAreMergedByName() throws Exception {
+
+    final MetricsRegistry executor1 = new MetricsRegistry();
+    final MetricsRegistry executor2 = new MetricsRegistry();
+    final WorkerYammerFacadeMetric workerFacadeMetric = new WorkerYammerFacadeMetric();
+    workerFacadeMetric.add(executor1, new YammerFacadeMetric(executor1, 1, false));
+    workerFacadeMetric.add(executor2, new YammerFacadeMetric(executor2, 1, false));
+
+    final MetricName acks = new MetricName("", "bolt", "acks");
+    final MetricName latency = new MetricName("", "bolt", "latency");
+    executor1.newCounter(acks).inc(2);
+    executor2.newCounter(acks).inc(3);
+    ((LatencyRecorder) executor1.newGauge(latency, new LatencyRecorder())).update(10, TimeUnit.MILLISECONDS);
+    final LatencyRecorder recorder2 = (LatencyRecorder) executor2.newGauge(latency, new LatencyRecorder());
+    recorder2.update(20, TimeUnit.MILLISECONDS);
+    recorder2.update(20, TimeUnit.MILLISECONDS);
+    recorder2.update(20, TimeUnit.MILLISECONDS);
+
+    final Map bucket = (Map) workerFacadeMetric.getValueAndReset();
+    final Map mergedLatency = (Map) bucket.get("bolt.latency");
+
+    assertThat(bucket.get("bolt.acks"), is((Object) 5L));
+    assertThat(mergedLatency.get("count"), is((Object) 4L));
+    assertThat(Math.abs((Double) mergedLatency.get("mean") - 17.5) < 0.2, is(true));
+    assertThat(Math.abs((Double) mergedLatency.get("max") - 20) < 0.2, is(true));
+  }
+
+  @Test
+  public void testIdleExecutorsStillContributeToTheMergedMetrics() throws Exception {
+
+    final MetricsRegistry executor1 = new MetricsRegistry();
+    final MetricsRegistry executor2 = new MetricsRegistry();
+    final WorkerYammerFacadeMetric workerFacadeMetric = new WorkerYammerFacadeMetric();
+    workerFacadeMetric.add(executor1, new YammerFacadeMetric(executor1, 1, false));
+    workerFacadeMetric.add(executor2, new YammerFacadeMetric(executor2, 1, false));
+
+    final MetricName acks = new MetricName("", "bolt", "acks");
+    executor1.newCounter(acks).inc(2);
+    final Counter acks2 = executor2.newCounter(acks);
+    acks2.inc(3);
+    workerFacadeMetric.getValueAndReset();
+
+    acks2.inc();
+
+    assertThat(((Map) workerFacadeMetric.getValueAndReset()).get("bolt.acks"), is((Object) 6L));
+  }
+
+  @Test
+  public void testIdleExecutorsAreLeftOutOfStatisticsAndLatenciesAreMergedExactly() throws Exception {
+
+    final MetricsRegistry idle = new MetricsRegistry();
+    final MetricsRegistry busy = new MetricsRegistry();
+    final WorkerYammerFacadeMetric workerFacadeMetric = new WorkerYammerFacadeMetric();
+    workerFacadeMetric.add(idle, new YammerFacadeMetric(idle, 1, true));
+    workerFacadeMetric.add(busy, new YammerFacadeMetric(busy, 1, true));
+
+    final MetricName sizes = new MetricName("", "bolt", "sizes");
+    final MetricName latency = new MetricName("", "bolt", "latency");
+    idle.newGauge(sizes, new IntervalHistogram());
+    final IntervalHistogram busySizes = (IntervalHistogram) busy.newGauge(sizes, new IntervalHistogram());
+    busySizes.update(5);
+    busySizes.update(7);
+
+    final LatencyRecorder slowRecorder = (LatencyRecorder) idle.newGauge(latency, new LatencyRecorder());
+    final LatencyRecorder fastRecorder = (LatencyRecorder) busy.newGauge(latency, new LatencyRecorder());
+    for (int i = 0; i < 99; i++) {
+      fastRecorder.update(1, TimeUnit.MILLISECONDS);
+    }
+    slowRecorder.update(100, TimeUnit.MILLISECONDS);
+
+    final Map bucket = (Map) workerFacadeMetric.getValueAndReset();
+    final Map mergedSizes = (Map) bucket.get("bolt.sizes");
+    final Map mergedLatency = (Map) bucket.get("bolt.latency");
+
+    assertThat(mergedSizes.get("count"), is((Object) 2L));
+    assertThat(mergedSizes.get("min"), is((Object) 5.0));
+    assertThat(mergedSizes.get("max"), is((Object) 7.0));
+    assertThat(mergedLatency.get("count"), is((Object) 100L));
+    assertThat(Math.abs((Double) mergedLatency.get("p99") - 1) < 0.02, is(true));
+    assertThat(Math.abs((Double) mergedLatency.get("max") - 100) < 1, is(true));
+  }
+}
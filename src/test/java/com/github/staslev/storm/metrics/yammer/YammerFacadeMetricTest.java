@@ -0,0 +1,146 @@
+package com.github.staslev.storm.metrics.yammer;
+
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.Timer;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class YammerFacadeMetricTest {
+
+  private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+  private final YammerFacadeMetric facadeMetric = new YammerFacadeMetric(metricsRegistry, 3, false);
+
+  private Map bucket() {
+    return (Map) facadeMetric.getValueAndReset();
+  }
+
+  @Test
+  public void testIdleMetricsAreOnlyIncludedOnHeartbeat() throws Exception {
+
+    final Counter counter = metricsRegistry.newCounter(new MetricName("", "bolt", "acks"));
+    final Timer timer = metricsRegistry.newTimer(new MetricName("", "bolt", "execute"),
+                                                 TimeUnit.MILLISECONDS,
+                                                 TimeUnit.SECONDS);
+    counter.inc();
+    timer.update(5, TimeUnit.MILLISECONDS);
+
+    final Map first = bucket();
+    assertThat(first.get("bolt.acks"), is((Object) 1L));
+    assertThat(((Map) first.get("bolt.execute")).get("count"), is((Object) 1L));
+
+    counter.inc();
+    final Map second = bucket();
+    assertThat(second.get("bolt.acks"), is((Object) 2L));
+    assertThat(second.containsKey("bolt.execute"), is(false));
+
+    assertThat(bucket().isEmpty(), is(true));
+    assertThat(bucket().containsKey("bolt.execute"), is(true));
+  }
+
+  @Test
+  public void testRemovedMetricsAreNotSerialized() throws Exception {
+
+    final MetricName name = new MetricName("", "bolt", "acks");
+    metricsRegistry.newCounter(name).inc();
+    assertThat(bucket().containsKey("bolt.acks"), is(true));
+
+    metricsRegistry.removeMetric(name);
+    assertThat(bucket().isEmpty(), is(true));
+  }
+
+  @Test
+  public void testIntervalModeReportsDeltasAndPerBucketPercentiles() throws Exception {
+
+    final YammerFacadeMetric intervalFacadeMetric = new YammerFacadeMetric(metricsRegistry, 3, true);
+    final Counter counter = metricsRegistry.newCounter(new MetricName("", "bolt", "acks"));
+    final Timer timer = metricsRegistry.newTimer(new MetricName("", "bolt", "execute"),
+                                                 TimeUnit.MILLISECONDS,
+                                                 TimeUnit.SECONDS);
+    final IntervalHistogram histogram = (IntervalHistogram) metricsRegistry.newGauge(
+            new MetricName("", "bolt", "latency"), new IntervalHistogram());
+
+    counter.inc(5);
+    timer.update(100, TimeUnit.MILLISECONDS);
+    histogram.update(100);
+    intervalFacadeMetric.getValueAndReset();
+
+    counter.inc(2);
+    timer.update(10, TimeUnit.MILLISECONDS);
+    histogram.update(10);
+    histogram.update(20);
+    final Map bucket = (Map) intervalFacadeMetric.getValueAndReset();
+
+    assertThat(bucket.get("bolt.acks"), is((Object) 2L));
+    assertThat(((Map) bucket.get("bolt.execute")).get("count"), is((Object) 1L));
+    assertThat(((Map) bucket.get("bolt.execute")).get("99percentile"), is((Object) 10.0));
+    assertThat(((Map) bucket.get("bolt.latency")).get("count"), is((Object) 2L));
+    assertThat(((Map) bucket.get("bolt.latency")).get("max"), is((Object) 20.0));
+
+    // an idle bucket is reported once, so that the deltas and counts drop to 0
+    final Map idleBucket = (Map) intervalFacadeMetric.getValueAndReset();
+    assertThat(idleBucket.get("bolt.acks"), is((Object) 0L));
+    assertThat(((Map) idleBucket.get("bolt.execute")).get("count"), is((Object) 0L));
+    assertThat(((Map) idleBucket.get("bolt.latency")).get("count"), is((Object) 0L));
+
+    assertThat(((Map) intervalFacadeMetric.getValueAndReset()).isEmpty(), is(true));
+  }
+
+  @Test
+  public void testLatencyRecordersAreReportedAtConfiguredPercentiles() throws Exception {
+
+    final YammerFacadeMetric percentilesFacadeMetric =
+            new YammerFacadeMetric(metricsRegistry, 3, false, new double[]{50, 99.9});
+    final LatencyRecorder recorder = (LatencyRecorder) metricsRegistry.newGauge(
+            new MetricName("", "bolt", "latency"), new LatencyRecorder());
+
+    recorder.update(10, TimeUnit.MILLISECONDS);
+    final Map latency = (Map) ((Map) percentilesFacadeMetric.getValueAndReset()).get("bolt.latency");
+
+    assertThat(latency.get("count"), is((Object) 1L));
+    assertThat(latency.containsKey("p50"), is(true));
+    assertThat(latency.containsKey("p999"), is(true));
+
+    final Map idleLatency = (Map) ((Map) percentilesFacadeMetric.getValueAndReset()).get("bolt.latency");
+    assertThat(idleLatency.get("count"), is((Object) 0L));
+    assertThat(idleLatency.get("p50"), is((Object) 0.0));
+    assertThat(YammerFacadeMetric.percentileName(99.0), is("p99"));
+  }
+
+  @Test
+  public void testStripedMetricsAreSerializedAsCountersAndMeters() throws Exception {
+
+    final StripedCounter counter = (StripedCounter) metricsRegistry.newGauge(
+            new MetricName("", "bolt", "acks"), new StripedCounter());
+    final StripedMeter meter = (StripedMeter) metricsRegistry.newGauge(
+            new MetricName("", "bolt", "emits"), new StripedMeter("tuples", TimeUnit.SECONDS));
+
+    counter.inc(3);
+    meter.mark(2);
+    final Map first = bucket();
+    assertThat(first.get("bolt.acks"), is((Object) 3L));
+    assertThat(((Map) first.get("bolt.emits")).get("count"), is((Object) 2L));
+    assertThat(((Map) first.get("bolt.emits")).containsKey("1MinuteRate"), is(true));
+
+    final Map second = bucket();
+    assertThat(second.size(), is(1));
+    assertThat(((Map) second.get("bolt.emits")).get("count"), is((Object) 2L));
+  }
+
+  @Test
+  public void testIdleMetricsAreIncludedByDefault() throws Exception {
+
+    final YammerFacadeMetric defaultFacadeMetric = YammerFacadeMetric.from(new HashMap(), metricsRegistry);
+    metricsRegistry.newCounter(new MetricName("", "bolt", "acks")).inc();
+
+    defaultFacadeMetric.getValueAndReset();
+    assertThat(((Map) defaultFacadeMetric.getValueAndReset()).get("bolt.acks"), is((Object) 1L));
+  }
+}